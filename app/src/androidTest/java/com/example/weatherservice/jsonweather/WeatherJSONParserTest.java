@@ -0,0 +1,159 @@
+package com.example.weatherservice.jsonweather;
+
+import android.os.Debug;
+import android.util.Log;
+
+import com.example.weatherservice.WeatherData;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that WeatherJSONParser.parseWeatherData() agrees with the
+ * JsonWeather path it replaced in Utils.fetchWeather(), and measures
+ * how much time and memory each takes per reply.  Runs on a device, since
+ * android.util.JsonReader and Debug's allocation counters aren't
+ * available to local unit tests.
+ */
+public class WeatherJSONParserTest extends TestCase {
+    private final static String TAG = WeatherJSONParserTest.class.getSimpleName();
+
+    private static final String NASHVILLE =
+        "{\"coord\":{\"lon\":-86.78,\"lat\":36.17},"
+        + "\"weather\":[{\"id\":802,\"main\":\"Clouds\",\"description\":\"scattered clouds\",\"icon\":\"03d\"}],"
+        + "\"base\":\"stations\","
+        + "\"main\":{\"temp\":61.2,\"pressure\":1010.71,\"humidity\":76,\"temp_min\":60.8,\"temp_max\":62.6},"
+        + "\"visibility\":16093,\"wind\":{\"speed\":2.42,\"deg\":310.002},\"clouds\":{\"all\":36},"
+        + "\"dt\":1431435983,\"sys\":{\"type\":1,\"id\":1,\"message\":0.0138,\"country\":\"US\","
+        + "\"sunrise\":1431427373,\"sunset\":1431477841},\"id\":4644585,\"name\":\"Nashville\",\"cod\":200}";
+
+    private static final String NOT_FOUND = "{\"cod\":\"404\",\"message\":\"city not found\"}";
+
+    private static final int ITERATIONS = 1000;
+
+    public void testMatchesJsonWeatherPath() throws IOException {
+        WeatherData expected = parseTwoStage(NASHVILLE).get(0);
+        List<WeatherData> actual = parseSinglePass(NASHVILLE);
+
+        assertEquals(1, actual.size());
+        WeatherData data = actual.get(0);
+        assertEquals(expected.getmName(), data.getmName());
+        assertEquals(expected.getmSpeed(), data.getmSpeed(), 0);
+        assertEquals(expected.getmDeg(), data.getmDeg(), 0);
+        assertEquals(expected.getmTemp(), data.getmTemp(), 0);
+        assertEquals(expected.getmHumidity(), data.getmHumidity());
+        assertEquals(expected.getmSunrise(), data.getmSunrise());
+        assertEquals(expected.getmSunset(), data.getmSunset());
+        assertEquals(expected.getmDescription(), data.getmDescription());
+        assertEquals(expected.getmCountry(), data.getmCountry());
+    }
+
+    public void testErrorReplyYieldsNothing() throws IOException {
+        assertTrue(parseSinglePass(NOT_FOUND).isEmpty());
+    }
+
+    public void testGroupReplyYieldsEachCity() throws IOException {
+        String group = "{\"cnt\":2,\"list\":[" + NASHVILLE + ","
+            + NASHVILLE.replace("Nashville", "Memphis") + "]}";
+
+        List<WeatherData> results = parseSinglePass(group);
+
+        assertEquals(2, results.size());
+        assertEquals("Nashville", results.get(0).getmName());
+        assertEquals("Memphis", results.get(1).getmName());
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testSinglePassAllocatesLess() throws IOException {
+        // Warm up both paths so class loading isn't counted.
+        parseTwoStage(NASHVILLE);
+        parseSinglePass(NASHVILLE);
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            Debug.resetThreadAllocSize();
+            for (int i = 0; i < ITERATIONS; i++) {
+                parseTwoStage(NASHVILLE);
+            }
+            int twoStageCount = Debug.getThreadAllocCount();
+            int twoStageSize = Debug.getThreadAllocSize();
+
+            Debug.resetThreadAllocCount();
+            Debug.resetThreadAllocSize();
+            for (int i = 0; i < ITERATIONS; i++) {
+                parseSinglePass(NASHVILLE);
+            }
+            int singlePassCount = Debug.getThreadAllocCount();
+            int singlePassSize = Debug.getThreadAllocSize();
+
+            Log.i(TAG, "Per reply: two-stage "
+                  + twoStageCount / ITERATIONS + " objects, "
+                  + twoStageSize / ITERATIONS + " bytes; single-pass "
+                  + singlePassCount / ITERATIONS + " objects, "
+                  + singlePassSize / ITERATIONS + " bytes");
+            assertTrue(singlePassCount < twoStageCount);
+            assertTrue(singlePassSize < twoStageSize);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    public void testSinglePassParsesFaster() throws IOException {
+        for (int i = 0; i < ITERATIONS; i++) {
+            parseTwoStage(NASHVILLE);
+            parseSinglePass(NASHVILLE);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            parseTwoStage(NASHVILLE);
+        }
+        long twoStage = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            parseSinglePass(NASHVILLE);
+        }
+        long singlePass = System.nanoTime() - start;
+
+        Log.i(TAG, "Per reply: two-stage " + twoStage / ITERATIONS
+              + " ns; single-pass " + singlePass / ITERATIONS + " ns");
+        assertTrue(singlePass < twoStage);
+    }
+
+    private static List<WeatherData> parseSinglePass(String json) throws IOException {
+        return new WeatherJSONParser().parseWeatherData(
+            new ByteArrayInputStream(json.getBytes("UTF-8")));
+    }
+
+    /**
+     * What Utils.fetchWeather() used to do: build the JsonWeather
+     * graph, then copy from it.
+     */
+    private static List<WeatherData> parseTwoStage(String json) throws IOException {
+        List<JsonWeather> jsonWeatherList = new WeatherJSONParser().parseJsonStream(
+            new ByteArrayInputStream(json.getBytes("UTF-8")));
+        List<WeatherData> weatherDataList = new ArrayList<>();
+        for (JsonWeather w : jsonWeatherList) {
+            if (w.getName() == null || w.getMain() == null) {
+                continue;
+            }
+            weatherDataList.add(new WeatherData(
+                    w.getName(),
+                    w.getWind().getSpeed(),
+                    w.getWind().getDeg(),
+                    w.getMain().getTemp(),
+                    w.getMain().getHumidity(),
+                    w.getSys().getSunrise(),
+                    w.getSys().getSunset(),
+                    w.getWeather().get(0).getDescription(),
+                    w.getSys().getCountry()));
+        }
+        return weatherDataList;
+    }
+}
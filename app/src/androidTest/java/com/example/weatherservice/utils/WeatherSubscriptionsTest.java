@@ -0,0 +1,131 @@
+package com.example.weatherservice.utils;
+
+import android.os.RemoteException;
+
+import com.example.weatherservice.WeatherData;
+import com.example.weatherservice.WeatherDataList;
+import com.example.weatherservice.WeatherDelta;
+import com.example.weatherservice.WeatherForecast;
+import com.example.weatherservice.WeatherResults;
+import com.example.weatherservice.WeatherStats;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that WeatherSubscriptions looks each location up once for
+ * all of its subscribers.  Runs on a device, since it needs a real
+ * RemoteCallbackList and Binder.
+ */
+public class WeatherSubscriptionsTest extends TestCase {
+    private static final List<WeatherData> NASHVILLE = Collections.singletonList(
+        new WeatherData("Nashville", 2.42, 310.0, 61.2, 76, 1431427373, 1431477841,
+                        "scattered clouds", "US"));
+
+    private final AtomicInteger mLoads = new AtomicInteger();
+    private WeatherSubscriptions mSubscriptions;
+
+    /**
+     * A subscriber that counts down @a received on each result.
+     */
+    private static class Subscriber extends WeatherResults.Stub {
+        final CountDownLatch mReceived;
+        final AtomicInteger mResults = new AtomicInteger();
+
+        Subscriber(CountDownLatch received) {
+            mReceived = received;
+        }
+
+        @Override
+        public void sendResults(WeatherDataList results) {
+            mResults.incrementAndGet();
+            mReceived.countDown();
+        }
+
+        @Override
+        public void onPartial(String location, WeatherData result) {
+        }
+
+        @Override
+        public void onError(String location, int code) {
+        }
+
+        @Override
+        public void onComplete(WeatherStats stats) {
+        }
+
+        @Override
+        public void sendForecast(String location, WeatherForecast forecast) {
+        }
+
+        @Override
+        public void sendDelta(String location, WeatherDelta delta) {
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        WeatherCache.INSTANCE.clear();
+        WeatherCache.INSTANCE.setLoader(new WeatherCache.Loader() {
+                @Override
+                public List<WeatherData> load(String location) throws IOException {
+                    mLoads.incrementAndGet();
+                    return NASHVILLE;
+                }
+            });
+        mSubscriptions = new WeatherSubscriptions(WeatherCache.INSTANCE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mSubscriptions.shutdown();
+        WeatherCache.INSTANCE.setLoader(null);
+        WeatherCache.INSTANCE.clear();
+        super.tearDown();
+    }
+
+    public void testOneLookupServesEverySubscriber() throws Exception {
+        final CountDownLatch received = new CountDownLatch(10);
+        final List<Subscriber> subscribers = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final Subscriber subscriber = new Subscriber(received);
+            subscribers.add(subscriber);
+            mSubscriptions.subscribe(i % 2 == 0 ? "Nashville" : " nashville", 0, subscriber);
+        }
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+
+        assertEquals(1, mLoads.get());
+        assertEquals(1, mSubscriptions.getTopicCount());
+        // Each was sent the results once, however many polls ran.
+        Thread.sleep(200);
+        for (Subscriber subscriber : subscribers) {
+            assertEquals(1, subscriber.mResults.get());
+        }
+
+        for (Subscriber subscriber : subscribers) {
+            mSubscriptions.unsubscribe("Nashville", subscriber);
+        }
+        assertEquals(0, mSubscriptions.getTopicCount());
+    }
+
+    public void testEmptyLocationIsReported() throws RemoteException {
+        final CountDownLatch received = new CountDownLatch(1);
+        mSubscriptions.subscribe(" ", 0, new Subscriber(received) {
+                @Override
+                public void onError(String location, int code) {
+                    assertEquals(WeatherStats.ERROR_NOT_FOUND, code);
+                    mReceived.countDown();
+                }
+            });
+        assertEquals(0, received.getCount());
+        assertEquals(0, mSubscriptions.getTopicCount());
+    }
+}
@@ -0,0 +1,323 @@
+package com.example.weatherservice;
+
+import com.example.weatherservice.utils.StringPool;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The primitives of the compact encoding WeatherData uses in a
+ * Parcel: unsigned and zigzag varints, doubles as fixed-point
+ * varints when that loses nothing, and strings as codes into
+ * built-in dictionaries of the values that recur.
+ * <p/>
+ * The dictionaries are part of the format.  Their entries must never
+ * be reordered, removed or added to, since a reader that meets a
+ * code it doesn't know can only treat it as null.  A value missing
+ * from a dictionary is written out in full, which always works.
+ */
+final class CompactCodec {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Doubles with no more than this many decimal places are written
+     * as fixed-point.  The Weather Service reports two or three.
+     */
+    private static final double FIXED_POINT_SCALE = 1000;
+
+    /**
+     * Fixed-point values at least this large are written as raw
+     * doubles, so the scaled value and its tag bit fit in a long.
+     */
+    private static final long MAX_FIXED_POINT = 1L << 52;
+
+    /*
+     * A dictionary string is written as a varint: NULL_CODE for null,
+     * LITERAL_CODE followed by the UTF-8 bytes, or FIRST_ENTRY_CODE
+     * plus the index of the value in the dictionary.
+     */
+    private static final int NULL_CODE = 0;
+    private static final int LITERAL_CODE = 1;
+    private static final int FIRST_ENTRY_CODE = 2;
+
+    /**
+     * ISO 3166-1 alpha-2 country codes, as reported in "sys".
+     */
+    static final Dictionary COUNTRIES = new Dictionary(splitPairs(
+        "ADAEAFAGAIALAMAOAQARASATAUAWAXAZ"
+        + "BABBBDBEBFBGBHBIBJBLBMBNBOBQBRBSBTBVBWBYBZ"
+        + "CACCCDCFCGCHCICKCLCMCNCOCRCUCVCWCXCYCZ"
+        + "DEDJDKDMDODZ"
+        + "ECEEEGEHERESET"
+        + "FIFJFKFMFOFR"
+        + "GAGBGDGEGFGGGHGIGLGMGNGPGQGRGSGTGUGWGY"
+        + "HKHMHNHRHTHU"
+        + "IDIEILIMINIOIQIRISIT"
+        + "JEJMJOJP"
+        + "KEKGKHKIKMKNKPKRKWKYKZ"
+        + "LALBLCLILKLRLSLTLULVLY"
+        + "MAMCMDMEMFMGMHMKMLMMMNMOMPMQMRMSMTMUMVMWMXMYMZ"
+        + "NANCNENFNGNINLNONPNRNUNZ"
+        + "OM"
+        + "PAPEPFPGPHPKPLPMPNPRPSPTPWPY"
+        + "QA"
+        + "RERORSRURW"
+        + "SASBSCSDSESGSHSISJSKSLSMSNSOSRSSSTSVSXSYSZ"
+        + "TCTDTFTGTHTJTKTLTMTNTOTRTTTVTWTZ"
+        + "UAUGUMUSUYUZ"
+        + "VAVCVEVGVIVNVU"
+        + "WFWS"
+        + "YEYT"
+        + "ZAZMZW"));
+
+    /**
+     * The descriptions of the Weather Service's condition codes, as
+     * reported in "weather".
+     */
+    static final Dictionary CONDITIONS = new Dictionary(new String[] {
+        "thunderstorm with light rain", "thunderstorm with rain",
+        "thunderstorm with heavy rain", "light thunderstorm", "thunderstorm",
+        "heavy thunderstorm", "ragged thunderstorm",
+        "thunderstorm with light drizzle", "thunderstorm with drizzle",
+        "thunderstorm with heavy drizzle",
+        "light intensity drizzle", "drizzle", "heavy intensity drizzle",
+        "light intensity drizzle rain", "drizzle rain",
+        "heavy intensity drizzle rain", "shower rain and drizzle",
+        "heavy shower rain and drizzle", "shower drizzle",
+        "light rain", "moderate rain", "heavy intensity rain",
+        "very heavy rain", "extreme rain", "freezing rain",
+        "light intensity shower rain", "shower rain",
+        "heavy intensity shower rain", "ragged shower rain",
+        "light snow", "snow", "heavy snow", "sleet", "light shower sleet",
+        "shower sleet", "light rain and snow", "rain and snow",
+        "light shower snow", "shower snow", "heavy shower snow",
+        "mist", "smoke", "haze", "sand/dust whirls", "fog", "sand", "dust",
+        "volcanic ash", "squalls", "tornado",
+        "clear sky", "few clouds", "scattered clouds", "broken clouds",
+        "overcast clouds"
+    });
+
+    private CompactCodec() {
+    }
+
+    private static String[] splitPairs(String s) {
+        final String[] pairs = new String[s.length() / 2];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = s.substring(2 * i, 2 * i + 2);
+        }
+        return pairs;
+    }
+
+    /**
+     * A fixed list of strings, each written as its index.
+     */
+    static final class Dictionary {
+        private final String[] mValues;
+        private final Map<String, Integer> mCodes;
+
+        Dictionary(String[] values) {
+            mValues = values;
+            mCodes = new HashMap<>(values.length * 2);
+            for (int i = 0; i < values.length; i++) {
+                // Share the instances with whatever the parser pooled.
+                values[i] = StringPool.WEATHER_VALUES.intern(values[i]);
+                mCodes.put(values[i], i);
+            }
+        }
+
+        int size() {
+            return mValues.length;
+        }
+    }
+
+    /**
+     * A growable buffer that the encoding is written into.  Each
+     * thread reuses one, so encoding doesn't allocate.
+     */
+    static final class Writer {
+        private byte[] mBuffer = new byte[256];
+        private int mLength;
+
+        private static final ThreadLocal<Writer> sWriters = new ThreadLocal<Writer>() {
+            @Override
+            protected Writer initialValue() {
+                return new Writer();
+            }
+        };
+
+        /**
+         * Return this thread's Writer, emptied.
+         */
+        static Writer get() {
+            final Writer writer = sWriters.get();
+            writer.mLength = 0;
+            return writer;
+        }
+
+        byte[] buffer() {
+            return mBuffer;
+        }
+
+        int length() {
+            return mLength;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(mBuffer, mLength);
+        }
+
+        private void ensure(int n) {
+            if (mLength + n > mBuffer.length) {
+                mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, mLength + n));
+            }
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            mBuffer[mLength++] = (byte) b;
+        }
+
+        void writeBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, mBuffer, mLength, bytes.length);
+            mLength += bytes.length;
+        }
+
+        /**
+         * Write @a value as an unsigned LEB128 varint: seven bits per
+         * byte, low bits first.
+         */
+        void writeVarint(long value) {
+            ensure(10);
+            while ((value & ~0x7fL) != 0) {
+                mBuffer[mLength++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            mBuffer[mLength++] = (byte) value;
+        }
+
+        /**
+         * Write a signed @a value so that small magnitudes of either
+         * sign take few bytes.
+         */
+        void writeZigZag(long value) {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        /**
+         * Write @a value as fixed-point thousandths if that round
+         * trips exactly, tagged by a clear low bit, or else as a set
+         * low bit followed by the raw double.
+         */
+        void writeDouble(double value) {
+            final long fixed = Math.round(value * FIXED_POINT_SCALE);
+            if (Math.abs(fixed) < MAX_FIXED_POINT
+                && Double.doubleToLongBits(fixed / FIXED_POINT_SCALE)
+                   == Double.doubleToLongBits(value)) {
+                writeVarint(((fixed << 1) ^ (fixed >> 63)) << 1);
+                return;
+            }
+            writeVarint(1);
+            final long bits = Double.doubleToLongBits(value);
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                mBuffer[mLength++] = (byte) (bits >>> shift);
+            }
+        }
+
+        /**
+         * Write @a value as its code in @a dictionary, or in full if
+         * it isn't there.
+         */
+        void writeString(String value, Dictionary dictionary) {
+            if (value == null) {
+                writeVarint(NULL_CODE);
+                return;
+            }
+            final Integer code = dictionary.mCodes.get(value);
+            if (code != null) {
+                writeVarint(FIRST_ENTRY_CODE + code);
+                return;
+            }
+            writeVarint(LITERAL_CODE);
+            final byte[] utf8 = value.getBytes(UTF_8);
+            writeVarint(utf8.length);
+            writeBytes(utf8);
+        }
+    }
+
+    /**
+     * Reads back what a Writer wrote.  Reading past the end throws
+     * IllegalArgumentException.
+     */
+    static final class Reader {
+        private final byte[] mBuffer;
+        private int mPos;
+
+        Reader(byte[] buffer) {
+            mBuffer = buffer;
+        }
+
+        int readByte() {
+            if (mPos >= mBuffer.length) {
+                throw new IllegalArgumentException("Truncated WeatherData encoding");
+            }
+            return mBuffer[mPos++] & 0xff;
+        }
+
+        byte[] readBytes(int length) {
+            if (length < 0 || length > mBuffer.length - mPos) {
+                throw new IllegalArgumentException("Truncated WeatherData encoding");
+            }
+            final byte[] bytes = Arrays.copyOfRange(mBuffer, mPos, mPos + length);
+            mPos += length;
+            return bytes;
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final int b = readByte();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint in WeatherData encoding");
+        }
+
+        long readZigZag() {
+            final long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        double readDouble() {
+            final long tagged = readVarint();
+            if ((tagged & 1) == 0) {
+                final long zigzag = tagged >>> 1;
+                return ((zigzag >>> 1) ^ -(zigzag & 1)) / FIXED_POINT_SCALE;
+            }
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | readByte();
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        String readString(Dictionary dictionary) {
+            final long code = readVarint();
+            if (code == NULL_CODE) {
+                return null;
+            }
+            if (code == LITERAL_CODE) {
+                final int length = (int) readVarint();
+                return StringPool.WEATHER_VALUES.intern(new String(readBytes(length), UTF_8));
+            }
+            final long index = code - FIRST_ENTRY_CODE;
+            // Not a code this dictionary has; see the class comment.
+            return index < dictionary.size() ? dictionary.mValues[(int) index] : null;
+        }
+    }
+}
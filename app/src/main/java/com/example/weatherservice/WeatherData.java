@@ -3,6 +3,14 @@ package com.example.weatherservice;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import com.example.weatherservice.utils.StringPool;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
 /**
  * This class is a Plain Old Java Object (POJO) used for data
  * transport within the WeatherService app.  This POJO implements the
@@ -33,11 +41,35 @@ import android.os.Parcelable;
  * https://developer.android.com/reference/android/os/Parcelable.html.
  */
 public class WeatherData implements Parcelable {
+    /*
+     * Bits of a field mask, which says which fields a WeatherData
+     * carries.  Fields outside its mask are zero or null and aren't
+     * marshaled, so clients that only need, e.g., the temperature
+     * can ask for just FIELD_NAME | FIELD_TEMP.
+     */
+    public static final int FIELD_NAME = 1;
+    public static final int FIELD_SPEED = 1 << 1;
+    public static final int FIELD_DEG = 1 << 2;
+    public static final int FIELD_TEMP = 1 << 3;
+    public static final int FIELD_HUMIDITY = 1 << 4;
+    public static final int FIELD_SUNRISE = 1 << 5;
+    public static final int FIELD_SUNSET = 1 << 6;
+    public static final int FIELD_DESCRIPTION = 1 << 7;
+    public static final int FIELD_COUNTRY = 1 << 8;
+    public static final int ALL_FIELDS = (1 << 9) - 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
     /*
      * These data members are the local variables that will store the
-     * WeatherData's state
+     * WeatherData's state.  Large caches hold thousands of these, so
+     * the name is kept as one byte per char when it is Latin-1 (and
+     * as UTF-8 otherwise) rather than as a String, and the
+     * description and country, which repeat across cities, are
+     * shared through StringPool.WEATHER_VALUES.
      */
-    private String mName;
+    private byte[] mName;
+    private boolean mNameIsUtf8;
     private double mSpeed;
     private double mDeg;
     private double mTemp;
@@ -46,6 +78,37 @@ public class WeatherData implements Parcelable {
     private long mSunset;
     private String mDescription;
     private String mCountry;
+    private int mFields = ALL_FIELDS;
+
+    /*
+     * The Weather Service's id for the city, or 0 if it isn't known.
+     * It identifies the city rather than describing its weather, so
+     * it isn't one of the FIELD_* fields and every projection keeps
+     * it.
+     */
+    private long mCityId;
+
+    /*
+     * The city's latitude and longitude in degrees, or NaN if they
+     * aren't known.  Kept by projections that keep the name.
+     */
+    private double mLat = Double.NaN;
+    private double mLon = Double.NaN;
+
+    /**
+     * Version of the compact encoding written by writeToParcel().
+     * Later versions may only append fields, so a reader decodes the
+     * fields it knows of and ignores the rest.  Version 2 added the
+     * city id and version 3 the coordinates.
+     */
+    static final int COMPACT_VERSION = 3;
+
+    /**
+     * The compact encoding this instance was unmarshaled from, until
+     * the first access decodes it into the fields above and clears
+     * it.  Until then writeToParcel() passes it on as it is.
+     */
+    private volatile byte[] mEncoded;
 
     /**
      * Constructor
@@ -67,21 +130,219 @@ public class WeatherData implements Parcelable {
                        long sunset,
                        String description,
                        String country) {
-        mName = name;
+        setName(name);
         mSpeed = speed;
         mDeg = deg;
         mTemp = temp;
         mHumidity = humidity;
         mSunrise = sunrise;
         mSunset = sunset;
-        mDescription = description;
-        mCountry = country;
+        mDescription = StringPool.WEATHER_VALUES.intern(description);
+        mCountry = StringPool.WEATHER_VALUES.intern(country);
+    }
+
+    /**
+     * Constructor for an instance carrying only the @a fields given
+     * by a mask of FIELD_* bits.  The other values are dropped.
+     */
+    public WeatherData(String name,
+                       double speed,
+                       double deg,
+                       double temp,
+                       long humidity,
+                       long sunrise,
+                       long sunset,
+                       String description,
+                       String country,
+                       int fields) {
+        this((fields & FIELD_NAME) != 0 ? name : null,
+             (fields & FIELD_SPEED) != 0 ? speed : 0,
+             (fields & FIELD_DEG) != 0 ? deg : 0,
+             (fields & FIELD_TEMP) != 0 ? temp : 0,
+             (fields & FIELD_HUMIDITY) != 0 ? humidity : 0,
+             (fields & FIELD_SUNRISE) != 0 ? sunrise : 0,
+             (fields & FIELD_SUNSET) != 0 ? sunset : 0,
+             (fields & FIELD_DESCRIPTION) != 0 ? description : null,
+             (fields & FIELD_COUNTRY) != 0 ? country : null);
+        mFields = fields & ALL_FIELDS;
+    }
+
+    /**
+     * Constructor for an instance carrying only the @a fields given
+     * by a mask of FIELD_* bits, for the city with the Weather
+     * Service id @a cityId.
+     */
+    public WeatherData(String name,
+                       double speed,
+                       double deg,
+                       double temp,
+                       long humidity,
+                       long sunrise,
+                       long sunset,
+                       String description,
+                       String country,
+                       int fields,
+                       long cityId) {
+        this(name, speed, deg, temp, humidity, sunrise, sunset, description, country, fields);
+        mCityId = cityId;
+    }
+
+    /**
+     * Like the constructor above, for a city at latitude @a lat and
+     * longitude @a lon, in degrees.
+     */
+    public WeatherData(String name,
+                       double speed,
+                       double deg,
+                       double temp,
+                       long humidity,
+                       long sunrise,
+                       long sunset,
+                       String description,
+                       String country,
+                       int fields,
+                       long cityId,
+                       double lat,
+                       double lon) {
+        this(name, speed, deg, temp, humidity, sunrise, sunset, description, country, fields,
+             cityId);
+        mLat = lat;
+        mLon = lon;
+    }
+
+    /**
+     * Return an instance carrying only those of this instance's
+     * fields that are in @a fields, which may be this instance.  The
+     * city id is always kept, and the coordinates along with the
+     * name.
+     */
+    public WeatherData project(int fields) {
+        ensureDecoded();
+        if ((mFields & fields) == mFields) {
+            return this;
+        }
+        final WeatherData projected = new WeatherData(null,
+                                                      mSpeed,
+                                                      mDeg,
+                                                      mTemp,
+                                                      mHumidity,
+                                                      mSunrise,
+                                                      mSunset,
+                                                      mDescription,
+                                                      mCountry,
+                                                      mFields & fields);
+        if (projected.hasFields(FIELD_NAME)) {
+            // Share the encoded name rather than decoding it.
+            projected.mName = mName;
+            projected.mNameIsUtf8 = mNameIsUtf8;
+            projected.mLat = mLat;
+            projected.mLon = mLon;
+        }
+        projected.mCityId = mCityId;
+        return projected;
+    }
+
+    /**
+     * Return the FIELD_* bits of the fields whose values differ
+     * between this instance and @a other, including fields only one
+     * of them carries.
+     */
+    public int diff(WeatherData other) {
+        ensureDecoded();
+        other.ensureDecoded();
+        int changed = mFields ^ other.mFields;
+        final int both = mFields & other.mFields;
+        if ((both & FIELD_NAME) != 0
+            && (mNameIsUtf8 != other.mNameIsUtf8 || !Arrays.equals(mName, other.mName))) {
+            changed |= FIELD_NAME;
+        }
+        if ((both & FIELD_SPEED) != 0 && Double.compare(mSpeed, other.mSpeed) != 0) {
+            changed |= FIELD_SPEED;
+        }
+        if ((both & FIELD_DEG) != 0 && Double.compare(mDeg, other.mDeg) != 0) {
+            changed |= FIELD_DEG;
+        }
+        if ((both & FIELD_TEMP) != 0 && Double.compare(mTemp, other.mTemp) != 0) {
+            changed |= FIELD_TEMP;
+        }
+        if ((both & FIELD_HUMIDITY) != 0 && mHumidity != other.mHumidity) {
+            changed |= FIELD_HUMIDITY;
+        }
+        if ((both & FIELD_SUNRISE) != 0 && mSunrise != other.mSunrise) {
+            changed |= FIELD_SUNRISE;
+        }
+        if ((both & FIELD_SUNSET) != 0 && mSunset != other.mSunset) {
+            changed |= FIELD_SUNSET;
+        }
+        if ((both & FIELD_DESCRIPTION) != 0
+            && (mDescription != null ? !mDescription.equals(other.mDescription)
+                                     : other.mDescription != null)) {
+            changed |= FIELD_DESCRIPTION;
+        }
+        if ((both & FIELD_COUNTRY) != 0
+            && (mCountry != null ? !mCountry.equals(other.mCountry) : other.mCountry != null)) {
+            changed |= FIELD_COUNTRY;
+        }
+        return changed;
+    }
+
+    /**
+     * Return this instance with the fields @a changes carries
+     * replaced by its values, e.g., changes made by
+     * project(newer.diff(this)) of a newer instance.  Returns this
+     * instance if @a changes carries no fields.
+     */
+    public WeatherData apply(WeatherData changes) {
+        ensureDecoded();
+        changes.ensureDecoded();
+        final int from = changes.mFields;
+        if (from == 0) {
+            return this;
+        }
+        final WeatherData applied =
+            new WeatherData(null,
+                            (from & FIELD_SPEED) != 0 ? changes.mSpeed : mSpeed,
+                            (from & FIELD_DEG) != 0 ? changes.mDeg : mDeg,
+                            (from & FIELD_TEMP) != 0 ? changes.mTemp : mTemp,
+                            (from & FIELD_HUMIDITY) != 0 ? changes.mHumidity : mHumidity,
+                            (from & FIELD_SUNRISE) != 0 ? changes.mSunrise : mSunrise,
+                            (from & FIELD_SUNSET) != 0 ? changes.mSunset : mSunset,
+                            (from & FIELD_DESCRIPTION) != 0 ? changes.mDescription : mDescription,
+                            (from & FIELD_COUNTRY) != 0 ? changes.mCountry : mCountry,
+                            mFields | from);
+        if (applied.hasFields(FIELD_NAME)) {
+            final WeatherData name = (from & FIELD_NAME) != 0 ? changes : this;
+            applied.mName = name.mName;
+            applied.mNameIsUtf8 = name.mNameIsUtf8;
+        }
+        applied.mCityId = changes.mCityId != 0 ? changes.mCityId : mCityId;
+        final WeatherData place = changes.hasCoordinates() ? changes : this;
+        applied.mLat = place.mLat;
+        applied.mLon = place.mLon;
+        return applied;
+    }
+
+    /**
+     * The FIELD_* bits of the fields this instance carries.
+     */
+    public int getFields() {
+        ensureDecoded();
+        return mFields;
+    }
+
+    /**
+     * Returns true if this instance carries all of @a fields.
+     */
+    public boolean hasFields(int fields) {
+        ensureDecoded();
+        return (mFields & fields) == fields;
     }
 
     @Override
     public String toString() {
+        ensureDecoded();
         final StringBuilder sb = new StringBuilder("WeatherData{");
-        sb.append("mName='").append(mName).append('\'');
+        sb.append("mName='").append(getmName()).append('\'');
         sb.append(", mSpeed=").append(mSpeed);
         sb.append(", mDeg=").append(mDeg);
         sb.append(", mTemp=").append(mTemp);
@@ -90,6 +351,10 @@ public class WeatherData implements Parcelable {
         sb.append(", mSunset=").append(mSunset);
         sb.append(", mDescription='").append(mDescription).append('\'');
         sb.append(", mCountry='").append(mCountry).append('\'');
+        sb.append(", mCityId=").append(mCityId);
+        sb.append(", mLat=").append(mLat);
+        sb.append(", mLon=").append(mLon);
+        sb.append(", mFields=0x").append(Integer.toHexString(mFields));
         sb.append('}');
         return sb.toString();
     }
@@ -108,40 +373,153 @@ public class WeatherData implements Parcelable {
     }
 
     /**
-     * Write this instance out to byte contiguous memory.
+     * Write this instance out to byte contiguous memory, as a byte
+     * array holding its compact encoding (see writeCompact()).
      */
     @Override
     public void writeToParcel(Parcel dest, int flags) {
-        dest.writeString(mName);
-        dest.writeDouble(mSpeed);
-        dest.writeDouble(mDeg);
-        dest.writeDouble(mTemp);
-        dest.writeLong(mHumidity);
-        dest.writeLong(mSunrise);
-        dest.writeLong(mSunset);
-        dest.writeString(mDescription);
-        dest.writeString(mCountry);
+        final byte[] encoded = mEncoded;
+        if (encoded != null) {
+            dest.writeByteArray(encoded);
+            return;
+        }
+        final CompactCodec.Writer writer = CompactCodec.Writer.get();
+        writeCompact(writer);
+        dest.writeByteArray(writer.buffer(), 0, writer.length());
     }
 
     /**
      * Private constructor provided for the CREATOR interface, which
      * is used to de-marshal an WeatherData from the Parcel of data.
-     * <p>
-     * The order of reading in variables HAS TO MATCH the order in
-     * writeToParcel(Parcel, int)
+     * Only the byte array is read here; it is decoded on first use,
+     * so a WeatherData that is just passed on is never decoded.
      *
      * @param in
      */
     private WeatherData(Parcel in) {
-        mName = in.readString();
-        mSpeed = in.readDouble();
-        mDeg = in.readDouble();
-        mTemp = in.readDouble();
-        mHumidity = in.readLong();
-        mSunrise = in.readLong();
-        mSunset = in.readLong();
-        mDescription = in.readString();
-        mCountry = in.readString();
+        this(in.createByteArray());
+    }
+
+    /**
+     * Constructor for an instance that decodes @a encoded, made by
+     * toCompactBytes() or writeToParcel(), on first use.
+     */
+    private WeatherData(byte[] encoded) {
+        if (encoded == null || encoded.length == 0) {
+            throw new IllegalArgumentException("Missing WeatherData encoding");
+        }
+        mEncoded = encoded;
+    }
+
+    /**
+     * Return the compact encoding written by writeToParcel().
+     */
+    public byte[] toCompactBytes() {
+        final byte[] encoded = mEncoded;
+        if (encoded != null) {
+            return encoded.clone();
+        }
+        final CompactCodec.Writer writer = CompactCodec.Writer.get();
+        writeCompact(writer);
+        return writer.toByteArray();
+    }
+
+    /**
+     * Return an instance holding the compact @a encoded bytes, which
+     * are decoded when one of its fields is first accessed.  Throws
+     * IllegalArgumentException then if they are malformed.
+     */
+    public static WeatherData fromCompactBytes(byte[] encoded) {
+        return new WeatherData(encoded);
+    }
+
+    /**
+     * Write the compact encoding: a version byte, the field mask,
+     * then the fields in it.  The name goes as its stored bytes,
+     * doubles as fixed-point where that is exact, integers and
+     * times as varints (the sunset relative to the sunrise), and
+     * the description and country as dictionary codes, and last the
+     * city id as a varint and the coordinates, if known, after a flag.
+     */
+    private void writeCompact(CompactCodec.Writer out) {
+        out.writeByte(COMPACT_VERSION);
+        out.writeVarint(mFields);
+        if ((mFields & FIELD_NAME) != 0) {
+            if (mName == null) {
+                out.writeVarint(0);
+            } else {
+                out.writeVarint(((long) mName.length << 1 | (mNameIsUtf8 ? 1 : 0)) + 1);
+                out.writeBytes(mName);
+            }
+        }
+        if ((mFields & FIELD_SPEED) != 0) out.writeDouble(mSpeed);
+        if ((mFields & FIELD_DEG) != 0) out.writeDouble(mDeg);
+        if ((mFields & FIELD_TEMP) != 0) out.writeDouble(mTemp);
+        if ((mFields & FIELD_HUMIDITY) != 0) out.writeZigZag(mHumidity);
+        if ((mFields & FIELD_SUNRISE) != 0) out.writeZigZag(mSunrise);
+        if ((mFields & FIELD_SUNSET) != 0) out.writeZigZag(mSunset - sunsetBase());
+        if ((mFields & FIELD_DESCRIPTION) != 0) out.writeString(mDescription, CompactCodec.CONDITIONS);
+        if ((mFields & FIELD_COUNTRY) != 0) out.writeString(mCountry, CompactCodec.COUNTRIES);
+        out.writeVarint(mCityId);
+        if (hasCoordinates()) {
+            out.writeVarint(1);
+            out.writeDouble(mLat);
+            out.writeDouble(mLon);
+        } else {
+            out.writeVarint(0);
+        }
+    }
+
+    /**
+     * The value the sunset is encoded relative to.
+     */
+    private long sunsetBase() {
+        return (mFields & FIELD_SUNRISE) != 0 ? mSunrise : 0;
+    }
+
+    /**
+     * Decode mEncoded, if this instance still has it.
+     */
+    private void ensureDecoded() {
+        if (mEncoded != null) {
+            decode();
+        }
+    }
+
+    private synchronized void decode() {
+        final byte[] encoded = mEncoded;
+        if (encoded == null) {
+            return;
+        }
+        final CompactCodec.Reader in = new CompactCodec.Reader(encoded);
+        final int version = in.readByte();
+        if (version < 1) {
+            throw new IllegalArgumentException("Unknown WeatherData encoding version");
+        }
+        // Fields added by later versions aren't ours to keep.
+        mFields = (int) in.readVarint() & ALL_FIELDS;
+        if ((mFields & FIELD_NAME) != 0) {
+            final long header = in.readVarint();
+            if (header != 0) {
+                mNameIsUtf8 = ((header - 1) & 1) != 0;
+                mName = in.readBytes((int) ((header - 1) >>> 1));
+            }
+        }
+        if ((mFields & FIELD_SPEED) != 0) mSpeed = in.readDouble();
+        if ((mFields & FIELD_DEG) != 0) mDeg = in.readDouble();
+        if ((mFields & FIELD_TEMP) != 0) mTemp = in.readDouble();
+        if ((mFields & FIELD_HUMIDITY) != 0) mHumidity = in.readZigZag();
+        if ((mFields & FIELD_SUNRISE) != 0) mSunrise = in.readZigZag();
+        if ((mFields & FIELD_SUNSET) != 0) mSunset = sunsetBase() + in.readZigZag();
+        if ((mFields & FIELD_DESCRIPTION) != 0) mDescription = in.readString(CompactCodec.CONDITIONS);
+        if ((mFields & FIELD_COUNTRY) != 0) mCountry = in.readString(CompactCodec.COUNTRIES);
+        if (version >= 2) mCityId = in.readVarint();
+        if (version >= 3 && in.readVarint() != 0) {
+            mLat = in.readDouble();
+            mLon = in.readDouble();
+        }
+        // Anything after this was added by a later version.
+        mEncoded = null;
     }
 
     /**
@@ -161,29 +539,179 @@ public class WeatherData implements Parcelable {
             }
         };
 
+    /**
+     * Write this instance to @a out, e.g., for storing on disk.  The
+     * fields are written in the same order as writeToParcel(Parcel,
+     * int).
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        ensureDecoded();
+        out.writeInt(mFields);
+        if (hasFields(FIELD_NAME)) writeNullableString(out, getmName());
+        if (hasFields(FIELD_SPEED)) out.writeDouble(mSpeed);
+        if (hasFields(FIELD_DEG)) out.writeDouble(mDeg);
+        if (hasFields(FIELD_TEMP)) out.writeDouble(mTemp);
+        if (hasFields(FIELD_HUMIDITY)) out.writeLong(mHumidity);
+        if (hasFields(FIELD_SUNRISE)) out.writeLong(mSunrise);
+        if (hasFields(FIELD_SUNSET)) out.writeLong(mSunset);
+        if (hasFields(FIELD_DESCRIPTION)) writeNullableString(out, mDescription);
+        if (hasFields(FIELD_COUNTRY)) writeNullableString(out, mCountry);
+        out.writeLong(mCityId);
+        out.writeDouble(mLat);
+        out.writeDouble(mLon);
+    }
+
+    /**
+     * Read an instance written by writeTo(DataOutput).
+     */
+    public static WeatherData readFrom(DataInput in) throws IOException {
+        int fields = in.readInt();
+        String name = (fields & FIELD_NAME) != 0 ? readNullableString(in) : null;
+        double speed = (fields & FIELD_SPEED) != 0 ? in.readDouble() : 0;
+        double deg = (fields & FIELD_DEG) != 0 ? in.readDouble() : 0;
+        double temp = (fields & FIELD_TEMP) != 0 ? in.readDouble() : 0;
+        long humidity = (fields & FIELD_HUMIDITY) != 0 ? in.readLong() : 0;
+        long sunrise = (fields & FIELD_SUNRISE) != 0 ? in.readLong() : 0;
+        long sunset = (fields & FIELD_SUNSET) != 0 ? in.readLong() : 0;
+        String description = (fields & FIELD_DESCRIPTION) != 0 ? readNullableString(in) : null;
+        String country = (fields & FIELD_COUNTRY) != 0 ? readNullableString(in) : null;
+        long cityId = in.readLong();
+        double lat = in.readDouble();
+        double lon = in.readDouble();
+        return new WeatherData(name, speed, deg, temp, humidity,
+                               sunrise, sunset, description, country, fields, cityId,
+                               lat, lon);
+    }
+
+    private static void writeNullableString(DataOutput out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String readNullableString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Store @a name in mName, as Latin-1 if it fits and as UTF-8
+     * otherwise.
+     */
+    private void setName(String name) {
+        if (name == null) {
+            mName = null;
+            mNameIsUtf8 = false;
+            return;
+        }
+        final int length = name.length();
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) > 0xff) {
+                mName = name.getBytes(UTF_8);
+                mNameIsUtf8 = true;
+                return;
+            }
+        }
+        final byte[] latin1 = new byte[length];
+        for (int i = 0; i < length; i++) {
+            latin1[i] = (byte) name.charAt(i);
+        }
+        mName = latin1;
+        mNameIsUtf8 = false;
+    }
+
+    /**
+     * Returns the name, which is decoded on each call.
+     */
     public String getmName() {
-        return mName;
+        ensureDecoded();
+        if (mName == null) {
+            return null;
+        }
+        if (mNameIsUtf8) {
+            return new String(mName, UTF_8);
+        }
+        final char[] chars = new char[mName.length];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (mName[i] & 0xff);
+        }
+        return new String(chars);
     }
 
     public double getmSpeed() {
+        ensureDecoded();
         return mSpeed;
     }
 
     public double getmDeg() {
+        ensureDecoded();
         return mDeg;
     }
 
-    public double getmTemp() { return mTemp; }
+    public double getmTemp() {
+        ensureDecoded();
+        return mTemp;
+    }
+
+    public long getmHumidity() {
+        ensureDecoded();
+        return mHumidity;
+    }
+
+    public long getmSunrise() {
+        ensureDecoded();
+        return mSunrise;
+    }
+
+    public long getmSunset() {
+        ensureDecoded();
+        return mSunset;
+    }
 
-    public long getmHumidity() { return mHumidity; }
+    public String getmDescription() {
+        ensureDecoded();
+        return mDescription;
+    }
 
-    public long getmSunrise() { return mSunrise; }
+    public String getmCountry() {
+        ensureDecoded();
+        return mCountry;
+    }
 
-    public long getmSunset() { return mSunset; }
+    /**
+     * Returns the Weather Service's id for the city, or 0 if it
+     * isn't known.
+     */
+    public long getmCityId() {
+        ensureDecoded();
+        return mCityId;
+    }
+
+    /**
+     * Returns true if the city's coordinates are known.
+     */
+    public boolean hasCoordinates() {
+        ensureDecoded();
+        return !Double.isNaN(mLat) && !Double.isNaN(mLon);
+    }
 
-    public String getmDescription() { return mDescription; }
+    /**
+     * Returns the city's latitude in degrees, or NaN if it isn't
+     * known.
+     */
+    public double getmLat() {
+        ensureDecoded();
+        return mLat;
+    }
 
-    public String getmCountry() { return mCountry; }
+    /**
+     * Returns the city's longitude in degrees, or NaN if it isn't
+     * known.
+     */
+    public double getmLon() {
+        ensureDecoded();
+        return mLon;
+    }
 
     @Override
     public boolean equals(Object o) {
@@ -191,14 +719,21 @@ public class WeatherData implements Parcelable {
         if (o == null || getClass() != o.getClass()) return false;
 
         WeatherData that = (WeatherData) o;
+        ensureDecoded();
+        that.ensureDecoded();
 
+        if (mFields != that.mFields) return false;
         if (Double.compare(that.mSpeed, mSpeed) != 0) return false;
         if (Double.compare(that.mDeg, mDeg) != 0) return false;
         if (Double.compare(that.mTemp, mTemp) != 0) return false;
         if (mHumidity != that.mHumidity) return false;
         if (mSunrise != that.mSunrise) return false;
         if (mSunset != that.mSunset) return false;
-        if (mName != null ? !mName.equals(that.mName) : that.mName != null) return false;
+        if (mCityId != that.mCityId) return false;
+        if (Double.compare(that.mLat, mLat) != 0) return false;
+        if (Double.compare(that.mLon, mLon) != 0) return false;
+        if (mNameIsUtf8 != that.mNameIsUtf8) return false;
+        if (!Arrays.equals(mName, that.mName)) return false;
         if (mDescription != null ? !mDescription.equals(that.mDescription) : that.mDescription != null) return false;
         return !(mCountry != null ? !mCountry.equals(that.mCountry) : that.mCountry != null);
 
@@ -206,9 +741,10 @@ public class WeatherData implements Parcelable {
 
     @Override
     public int hashCode() {
+        ensureDecoded();
         int result;
         long temp;
-        result = mName != null ? mName.hashCode() : 0;
+        result = Arrays.hashCode(mName);
         temp = Double.doubleToLongBits(mSpeed);
         result = 31 * result + (int) (temp ^ (temp >>> 32));
         temp = Double.doubleToLongBits(mDeg);
@@ -220,6 +756,12 @@ public class WeatherData implements Parcelable {
         result = 31 * result + (int) (mSunset ^ (mSunset >>> 32));
         result = 31 * result + (mDescription != null ? mDescription.hashCode() : 0);
         result = 31 * result + (mCountry != null ? mCountry.hashCode() : 0);
+        result = 31 * result + (int) (mCityId ^ (mCityId >>> 32));
+        temp = Double.doubleToLongBits(mLat);
+        result = 31 * result + (int) (temp ^ (temp >>> 32));
+        temp = Double.doubleToLongBits(mLon);
+        result = 31 * result + (int) (temp ^ (temp >>> 32));
+        result = 31 * result + mFields;
         return result;
     }
 }
@@ -0,0 +1,307 @@
+package com.example.weatherservice;
+
+import android.os.BadParcelableException;
+import android.os.Parcel;
+import android.os.ParcelFileDescriptor;
+import android.os.Parcelable;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The List of WeatherData results that WeatherCall returns and
+ * WeatherResults.sendResults() delivers.  It marshals itself so that
+ * a result of any size fits in a binder transaction.
+ * <p/>
+ * All the transactions in flight to or from a process share one
+ * binder buffer of about 1MB, and a transaction that doesn't fit
+ * fails with TransactionTooLargeException.  So the records, each in
+ * WeatherData's compact encoding, are written inline only up to
+ * MAX_INLINE_BYTES.  Beyond that only the read end of a pipe crosses
+ * binder, and a writer thread in the sending process streams the
+ * records into it while the receiver reads them out, so the cost of
+ * the transaction stays flat however many cities there are.  The
+ * writers come from a small shared pool, so a burst of large replies
+ * queues up rather than starting a thread each.
+ * (SharedMemory would avoid the copy through the pipe, but needs API
+ * 27, and MemoryFile doesn't expose its descriptor.)
+ * <p/>
+ * A list can also be made with its records already encoded, as
+ * WeatherCache.Entry does for each reply it serves, so that a cache
+ * hit is written with one bulk copy instead of being encoded again.
+ */
+public class WeatherDataList extends ArrayList<WeatherData> implements Parcelable {
+    private final static String TAG = WeatherDataList.class.getSimpleName();
+
+    /**
+     * Encoded records larger than this are sent through a pipe.
+     */
+    static final int MAX_INLINE_BYTES = 64 * 1024;
+
+    /*
+     * How the records follow in the Parcel: as a byte array, or as
+     * the read end of a pipe.
+     */
+    private static final int TRANSFER_INLINE = 0;
+    private static final int TRANSFER_PIPE = 1;
+
+    /**
+     * At most this many pipes are written at once; the rest wait.
+     */
+    private static final int MAX_WRITERS = 4;
+
+    /**
+     * Writes the records of large lists into their pipes.  Its
+     * threads are daemons and exit when idle.
+     */
+    private static final ThreadPoolExecutor sWriters;
+
+    static {
+        sWriters = new ThreadPoolExecutor(MAX_WRITERS, MAX_WRITERS, 30, TimeUnit.SECONDS,
+                                          new LinkedBlockingQueue<Runnable>(),
+                                          new ThreadFactory() {
+                                              @Override
+                                              public Thread newThread(Runnable r) {
+                                                  final Thread t =
+                                                      new Thread(r, "WeatherDataListWriter");
+                                                  t.setDaemon(true);
+                                                  return t;
+                                              }
+                                          });
+        sWriters.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * What encode() returned for this list, if known, and the
+     * modCount at which it was, so it isn't used once the list has
+     * changed.
+     */
+    private byte[] mRecords;
+    private int mRecordsModCount;
+
+    public WeatherDataList() {
+    }
+
+    public WeatherDataList(Collection<? extends WeatherData> results) {
+        super(results);
+    }
+
+    /**
+     * Constructor for a list of @a results whose @a records,
+     * returned by encode(results), are already known.  They are
+     * shared, not copied, so must not be modified.
+     */
+    public WeatherDataList(Collection<? extends WeatherData> results, byte[] records) {
+        super(results);
+        mRecords = records;
+        mRecordsModCount = modCount;
+    }
+
+    /**
+     * Return the records of @a results, as writeToParcel() sends
+     * them.
+     */
+    public static byte[] encode(List<WeatherData> results) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            writeRecords(results, bytes);
+        } catch (IOException e) {
+            // ByteArrayOutputStream doesn't throw.
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Return the version of the results whose encoded @a records
+     * are given: their 64-bit FNV-1a hash, which is never
+     * WeatherDelta.NO_VERSION.
+     */
+    public static long versionOf(byte[] records) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : records) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash == WeatherDelta.NO_VERSION ? 1 : hash;
+    }
+
+    /**
+     * Return the records of this list, encoding them unless they
+     * were given to the constructor or encoded before, and the list
+     * hasn't changed since.  The array may be shared, so must not be
+     * modified.
+     */
+    public byte[] getRecords() {
+        byte[] records = mRecords;
+        if (records != null && modCount == mRecordsModCount) {
+            return records;
+        }
+        records = encode(this);
+        mRecords = records;
+        mRecordsModCount = modCount;
+        return records;
+    }
+
+    /**
+     * Write @a results to @a out: their number, then each as the
+     * length of its compact encoding and the encoding itself, with a
+     * length of 0 for null.
+     */
+    static void writeRecords(List<WeatherData> results, OutputStream out) throws IOException {
+        final DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(results.size());
+        for (WeatherData result : results) {
+            if (result == null) {
+                data.writeInt(0);
+                continue;
+            }
+            final byte[] encoded = result.toCompactBytes();
+            data.writeInt(encoded.length);
+            data.write(encoded);
+        }
+        data.flush();
+    }
+
+    /**
+     * Read back what writeRecords() wrote.  Each WeatherData is only
+     * decoded when first accessed.  Throws EOFException if @a in
+     * ends early.
+     */
+    static WeatherDataList readRecords(InputStream in) throws IOException {
+        final DataInputStream data = new DataInputStream(in);
+        final int size = data.readInt();
+        if (size < 0) {
+            throw new IOException("Bad WeatherDataList size " + size);
+        }
+        final WeatherDataList results = new WeatherDataList();
+        results.ensureCapacity(Math.min(size, 4096));
+        for (int i = 0; i < size; i++) {
+            final int length = data.readInt();
+            if (length < 0) {
+                throw new IOException("Bad WeatherData length " + length);
+            }
+            if (length == 0) {
+                results.add(null);
+                continue;
+            }
+            final byte[] encoded = new byte[length];
+            data.readFully(encoded);
+            results.add(WeatherData.fromCompactBytes(encoded));
+        }
+        return results;
+    }
+
+    /*
+     * BELOW THIS is related to Parcelable Interface.
+     */
+
+    /**
+     * A list too large to be written inline is written as a pipe's
+     * file descriptor.
+     */
+    @Override
+    public int describeContents() {
+        return getRecords().length > MAX_INLINE_BYTES ? CONTENTS_FILE_DESCRIPTOR : 0;
+    }
+
+    /**
+     * Write the records inline if they are small, and otherwise the
+     * read end of a pipe that a writer thread fills with them.
+     */
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        final byte[] records = getRecords();
+
+        if (records.length > MAX_INLINE_BYTES) {
+            try {
+                final ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
+                dest.writeInt(TRANSFER_PIPE);
+                // The Parcel holds a duplicate of the read end, so
+                // ours can be closed right away.
+                dest.writeFileDescriptor(pipe[0].getFileDescriptor());
+                pipe[0].close();
+                startWriter(pipe[1], records);
+                return;
+            } catch (IOException e) {
+                // Out of descriptors, most likely; inline is all that
+                // is left.
+                Log.w(TAG, "Unable to create a pipe for " + records.length + " bytes", e);
+            }
+        }
+        dest.writeInt(TRANSFER_INLINE);
+        dest.writeByteArray(records);
+    }
+
+    /**
+     * Have a writer thread write @a records into @a sink and then
+     * close it.  The thread blocks until the receiver has read what
+     * the pipe can't buffer, and gives up with an IOException if the
+     * receiver closes its end or dies first.  If all the writers are
+     * busy the receiver waits a little longer for its records.
+     */
+    private static void startWriter(final ParcelFileDescriptor sink, final byte[] records) {
+        sWriters.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try (OutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(sink)) {
+                        out.write(records);
+                    } catch (IOException e) {
+                        Log.w(TAG, "Receiver stopped reading WeatherData results", e);
+                    }
+                }
+            });
+    }
+
+    /**
+     * Read what writeToParcel() wrote.  For a pipe this blocks until
+     * the sender has written every record.
+     */
+    private static WeatherDataList readFromParcel(Parcel in) throws IOException {
+        if (in.readInt() == TRANSFER_PIPE) {
+            final ParcelFileDescriptor source = in.readFileDescriptor();
+            if (source == null) {
+                throw new IOException("Missing WeatherDataList pipe");
+            }
+            try (InputStream records =
+                     new BufferedInputStream(new ParcelFileDescriptor.AutoCloseInputStream(source),
+                                             MAX_INLINE_BYTES)) {
+                return readRecords(records);
+            }
+        }
+        final byte[] records = in.createByteArray();
+        if (records == null) {
+            throw new IOException("Missing WeatherDataList records");
+        }
+        return readRecords(new ByteArrayInputStream(records));
+    }
+
+    public static final Creator<WeatherDataList> CREATOR =
+        new Creator<WeatherDataList>() {
+            public WeatherDataList createFromParcel(Parcel in) {
+                try {
+                    return readFromParcel(in);
+                } catch (IOException e) {
+                    throw new BadParcelableException(e);
+                }
+            }
+
+            public WeatherDataList[] newArray(int size) {
+                return new WeatherDataList[size];
+            }
+        };
+}
@@ -0,0 +1,213 @@
+package com.example.weatherservice;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The reply to a versioned request such as
+ * WeatherCall.getCurrentWeatherSince(), which tells the service which
+ * version of a location's results the client already holds.  The
+ * reply is one of:
+ * <ul>
+ * <li>NOT_MODIFIED, when the client's results are current.  Nothing
+ * but the version is sent.</li>
+ * <li>DELTA, when the client holds the previous version.  For each
+ * city only the fields that changed are sent, and applyTo()
+ * reassembles the current results from the held ones.</li>
+ * <li>FULL, otherwise.  The current results are sent whole.</li>
+ * </ul>
+ * A version is a hash of the encoded results (see
+ * WeatherDataList.versionOf()), so it doesn't depend on which service
+ * process answered or on when the results were downloaded, and
+ * results that are refreshed but unchanged keep their version.
+ */
+public class WeatherDelta implements Parcelable {
+    /**
+     * The version of holding no results.  Never the version of any.
+     */
+    public static final long NO_VERSION = 0;
+
+    public static final int NOT_MODIFIED = 0;
+    public static final int DELTA = 1;
+    public static final int FULL = 2;
+
+    private final int mKind;
+    private final long mBaseVersion;
+    private final long mVersion;
+
+    /**
+     * See getResults().
+     */
+    private final WeatherDataList mResults;
+
+    private WeatherDelta(int kind, long baseVersion, long version, WeatherDataList results) {
+        mKind = kind;
+        mBaseVersion = baseVersion;
+        mVersion = version;
+        mResults = results;
+    }
+
+    /**
+     * Return the reply to a client holding @a version, which is
+     * current.
+     */
+    public static WeatherDelta notModified(long version) {
+        return new WeatherDelta(NOT_MODIFIED, version, version, null);
+    }
+
+    /**
+     * Return a reply sending the @a results of @a version whole.
+     */
+    public static WeatherDelta full(long version, WeatherDataList results) {
+        return new WeatherDelta(FULL, NO_VERSION, version, results);
+    }
+
+    /**
+     * Return the reply to a client holding the @a held results of
+     * @a heldVersion, whose current results, @a reply, are of
+     * @a version.  That is a DELTA if each held city has the same
+     * fields as its current counterpart, and FULL otherwise.
+     */
+    public static WeatherDelta between(long heldVersion,
+                                       List<WeatherData> held,
+                                       long version,
+                                       WeatherDataList reply) {
+        if (heldVersion == version) {
+            return notModified(version);
+        }
+        if (held.size() != reply.size()) {
+            return full(version, reply);
+        }
+        final WeatherDataList changes = new WeatherDataList();
+        changes.ensureCapacity(reply.size());
+        for (int i = 0; i < reply.size(); i++) {
+            final WeatherData before = held.get(i);
+            final WeatherData after = reply.get(i);
+            if (before == null || after == null
+                || before.getFields() != after.getFields()) {
+                return full(version, reply);
+            }
+            changes.add(after.project(after.diff(before)));
+        }
+        return new WeatherDelta(DELTA, heldVersion, version, changes);
+    }
+
+    /**
+     * One of NOT_MODIFIED, DELTA or FULL.
+     */
+    public int getKind() {
+        return mKind;
+    }
+
+    /**
+     * The version a DELTA applies to; for the other kinds,
+     * NO_VERSION or the current version.
+     */
+    public long getBaseVersion() {
+        return mBaseVersion;
+    }
+
+    /**
+     * The version of the current results, which the client should
+     * send with its next request.
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * What is sent: for DELTA, each city projected to the fields
+     * that changed; for FULL, the results; for NOT_MODIFIED, null.
+     */
+    public WeatherDataList getResults() {
+        return mResults;
+    }
+
+    /**
+     * Return the current results given the @a held results, which
+     * must be those of getBaseVersion() unless this is FULL.  The
+     * held List, and each unchanged WeatherData in it, is returned
+     * as is rather than copied.
+     */
+    public List<WeatherData> applyTo(List<WeatherData> held) {
+        switch (mKind) {
+        case NOT_MODIFIED:
+            return held;
+        case FULL:
+            return mResults;
+        default:
+            if (held == null || held.size() != mResults.size()) {
+                throw new IllegalArgumentException("Delta doesn't match the held results");
+            }
+            final List<WeatherData> results = new ArrayList<>(held.size());
+            for (int i = 0; i < held.size(); i++) {
+                results.add(held.get(i).apply(mResults.get(i)));
+            }
+            return results;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "WeatherDelta [kind=" + mKind
+            + ", baseVersion=" + Long.toHexString(mBaseVersion)
+            + ", version=" + Long.toHexString(mVersion)
+            + ", results=" + (mResults == null ? 0 : mResults.size()) + "]";
+    }
+
+    /*
+     * BELOW THIS is related to Parcelable Interface.
+     */
+
+    /**
+     * Large results are written as the read end of a pipe, so report
+     * a file descriptor when they are.
+     */
+    @Override
+    public int describeContents() {
+        return mResults == null ? 0 : mResults.describeContents();
+    }
+
+    /**
+     * Write this instance out to byte contiguous memory.  The
+     * results, if any, are written as a WeatherDataList, so large
+     * ones go through a pipe.
+     */
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(mKind);
+        dest.writeLong(mBaseVersion);
+        dest.writeLong(mVersion);
+        if (mKind != NOT_MODIFIED) {
+            mResults.writeToParcel(dest, flags);
+        }
+    }
+
+    /**
+     * Read an instance for the CREATOR interface.  The order of
+     * reading HAS TO MATCH writeToParcel(Parcel, int).
+     */
+    private static WeatherDelta readFromParcel(Parcel in) {
+        final int kind = in.readInt();
+        final long baseVersion = in.readLong();
+        final long version = in.readLong();
+        final WeatherDataList results = kind == NOT_MODIFIED
+            ? null
+            : WeatherDataList.CREATOR.createFromParcel(in);
+        return new WeatherDelta(kind, baseVersion, version, results);
+    }
+
+    public static final Creator<WeatherDelta> CREATOR =
+        new Creator<WeatherDelta>() {
+            public WeatherDelta createFromParcel(Parcel in) {
+                return readFromParcel(in);
+            }
+
+            public WeatherDelta[] newArray(int size) {
+                return new WeatherDelta[size];
+            }
+        };
+}
@@ -0,0 +1,232 @@
+package com.example.weatherservice;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.Arrays;
+
+/**
+ * The 5 day / 3 hour forecast for one city, as returned by
+ * http://api.openweathermap.org/data/2.5/forecast.  That reply holds
+ * up to 40 slots, each an object much like a current weather reply.
+ * <p/>
+ * Rather than an object per slot, this class keeps one primitive
+ * array per value, indexed by slot, so a whole forecast is a handful
+ * of arrays.  That makes it cheap to cache and to send: each array
+ * is marshaled with a single bulk Parcel write.  Instances are
+ * immutable, so cached ones are shared rather than copied.
+ */
+public class WeatherForecast implements Parcelable {
+    private final String mName;
+    private final String mCountry;
+
+    /*
+     * The values of each slot.  All the arrays have the same length.
+     */
+    private final long[] mTimes;
+    private final float[] mTemps;
+    private final float[] mHumidities;
+    private final float[] mWindSpeeds;
+    private final short[] mWindDegs;
+    private final short[] mConditionIds;
+
+    /**
+     * Constructor, which takes ownership of the arrays.
+     *
+     * @param name the city's name
+     * @param country the city's country code
+     * @param times the time of each slot, in seconds since the epoch
+     * @param temps the temperature of each slot
+     * @param humidities the relative humidity of each slot, in percent
+     * @param windSpeeds the wind speed of each slot
+     * @param windDegs the wind direction of each slot, in degrees
+     * @param conditionIds the weather condition code of each slot,
+     *        e.g. 500 for light rain
+     */
+    public WeatherForecast(String name,
+                           String country,
+                           long[] times,
+                           float[] temps,
+                           float[] humidities,
+                           float[] windSpeeds,
+                           short[] windDegs,
+                           short[] conditionIds) {
+        final int size = times.length;
+        if (temps.length != size
+            || humidities.length != size
+            || windSpeeds.length != size
+            || windDegs.length != size
+            || conditionIds.length != size) {
+            throw new IllegalArgumentException("Forecast arrays differ in length");
+        }
+        mName = name;
+        mCountry = country;
+        mTimes = times;
+        mTemps = temps;
+        mHumidities = humidities;
+        mWindSpeeds = windSpeeds;
+        mWindDegs = windDegs;
+        mConditionIds = conditionIds;
+    }
+
+    public String getmName() {
+        return mName;
+    }
+
+    public String getmCountry() {
+        return mCountry;
+    }
+
+    /**
+     * Returns the number of slots.
+     */
+    public int size() {
+        return mTimes.length;
+    }
+
+    public long getTime(int slot) {
+        return mTimes[slot];
+    }
+
+    public float getTemp(int slot) {
+        return mTemps[slot];
+    }
+
+    public float getHumidity(int slot) {
+        return mHumidities[slot];
+    }
+
+    public float getWindSpeed(int slot) {
+        return mWindSpeeds[slot];
+    }
+
+    public int getWindDeg(int slot) {
+        return mWindDegs[slot];
+    }
+
+    public int getConditionId(int slot) {
+        return mConditionIds[slot];
+    }
+
+    @Override
+    public String toString() {
+        return "WeatherForecast [name=" + mName
+            + ", country=" + mCountry
+            + ", slots=" + mTimes.length + "]";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        WeatherForecast that = (WeatherForecast) o;
+
+        if (mName != null ? !mName.equals(that.mName) : that.mName != null) return false;
+        if (mCountry != null ? !mCountry.equals(that.mCountry) : that.mCountry != null) return false;
+        return Arrays.equals(mTimes, that.mTimes)
+            && Arrays.equals(mTemps, that.mTemps)
+            && Arrays.equals(mHumidities, that.mHumidities)
+            && Arrays.equals(mWindSpeeds, that.mWindSpeeds)
+            && Arrays.equals(mWindDegs, that.mWindDegs)
+            && Arrays.equals(mConditionIds, that.mConditionIds);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mName != null ? mName.hashCode() : 0;
+        result = 31 * result + (mCountry != null ? mCountry.hashCode() : 0);
+        result = 31 * result + Arrays.hashCode(mTimes);
+        result = 31 * result + Arrays.hashCode(mTemps);
+        result = 31 * result + Arrays.hashCode(mHumidities);
+        result = 31 * result + Arrays.hashCode(mWindSpeeds);
+        result = 31 * result + Arrays.hashCode(mWindDegs);
+        result = 31 * result + Arrays.hashCode(mConditionIds);
+        return result;
+    }
+
+    /*
+     * BELOW THIS is related to Parcelable Interface.
+     */
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    /**
+     * Write this instance out to byte contiguous memory, one bulk
+     * write per array.  Parcel has no short[] writer, and its
+     * char[] and int[] writers take 4 bytes an element, so the two
+     * short columns go out together as one byte[] of 2 bytes an
+     * element: every wind direction, then every condition id.
+     */
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(mName);
+        dest.writeString(mCountry);
+        dest.writeLongArray(mTimes);
+        dest.writeFloatArray(mTemps);
+        dest.writeFloatArray(mHumidities);
+        dest.writeFloatArray(mWindSpeeds);
+        dest.writeByteArray(toBytes(mWindDegs, mConditionIds));
+    }
+
+    /**
+     * Read an instance for the CREATOR interface.  The order of
+     * reading HAS TO MATCH writeToParcel(Parcel, int).
+     */
+    private static WeatherForecast readFromParcel(Parcel in) {
+        final String name = in.readString();
+        final String country = in.readString();
+        final long[] times = in.createLongArray();
+        final float[] temps = in.createFloatArray();
+        final float[] humidities = in.createFloatArray();
+        final float[] windSpeeds = in.createFloatArray();
+        final byte[] shorts = in.createByteArray();
+        return new WeatherForecast(name, country, times, temps, humidities, windSpeeds,
+                                   toShorts(shorts, 0), toShorts(shorts, 1));
+    }
+
+    /**
+     * Pack @a first and then @a second, which are the same length,
+     * into bytes, high byte first.
+     */
+    static byte[] toBytes(short[] first, short[] second) {
+        final byte[] bytes = new byte[2 * (first.length + second.length)];
+        int n = 0;
+        for (short s : first) {
+            bytes[n++] = (byte) (s >> 8);
+            bytes[n++] = (byte) s;
+        }
+        for (short s : second) {
+            bytes[n++] = (byte) (s >> 8);
+            bytes[n++] = (byte) s;
+        }
+        return bytes;
+    }
+
+    /**
+     * Unpack the first (@a column 0) or second (@a column 1) array
+     * packed into @a bytes by toBytes().
+     */
+    static short[] toShorts(byte[] bytes, int column) {
+        final short[] shorts = new short[bytes.length / 4];
+        int n = column * 2 * shorts.length;
+        for (int i = 0; i < shorts.length; i++, n += 2) {
+            shorts[i] = (short) ((bytes[n] << 8) | (bytes[n + 1] & 0xff));
+        }
+        return shorts;
+    }
+
+    public static final Creator<WeatherForecast> CREATOR =
+        new Creator<WeatherForecast>() {
+            public WeatherForecast createFromParcel(Parcel in) {
+                return readFromParcel(in);
+            }
+
+            public WeatherForecast[] newArray(int size) {
+                return new WeatherForecast[size];
+            }
+        };
+}
@@ -0,0 +1,112 @@
+package com.example.weatherservice;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Summarizes a streamed lookup, and is passed to
+ * WeatherResults.onComplete() once every location has been reported.
+ * Also defines the codes passed to WeatherResults.onError().
+ */
+public class WeatherStats implements Parcelable {
+    /**
+     * The Weather Service web service doesn't know the location.
+     */
+    public static final int ERROR_NOT_FOUND = 1;
+
+    /**
+     * The download failed, e.g., because the network is down.  The
+     * lookup may succeed if retried later.
+     */
+    public static final int ERROR_FAILED = 2;
+
+    /*
+     * How many locations were answered from the cache, downloaded,
+     * or reported through onError(), and how long the whole lookup
+     * took.
+     */
+    private int mCached;
+    private int mDownloaded;
+    private int mErrors;
+    private long mElapsedMillis;
+
+    /**
+     * Constructor
+     *
+     * @param cached
+     * @param downloaded
+     * @param errors
+     * @param elapsedMillis
+     */
+    public WeatherStats(int cached,
+                        int downloaded,
+                        int errors,
+                        long elapsedMillis) {
+        mCached = cached;
+        mDownloaded = downloaded;
+        mErrors = errors;
+        mElapsedMillis = elapsedMillis;
+    }
+
+    public int getCached() {
+        return mCached;
+    }
+
+    public int getDownloaded() {
+        return mDownloaded;
+    }
+
+    public int getErrors() {
+        return mErrors;
+    }
+
+    public long getElapsedMillis() {
+        return mElapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "WeatherStats [cached=" + mCached
+            + ", downloaded=" + mDownloaded
+            + ", errors=" + mErrors
+            + ", elapsedMillis=" + mElapsedMillis + "]";
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    /**
+     * Write this instance out to byte contiguous memory.
+     */
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(mCached);
+        dest.writeInt(mDownloaded);
+        dest.writeInt(mErrors);
+        dest.writeLong(mElapsedMillis);
+    }
+
+    /**
+     * Private constructor provided for the CREATOR interface.  The
+     * order of reading HAS TO MATCH writeToParcel(Parcel, int).
+     */
+    private WeatherStats(Parcel in) {
+        mCached = in.readInt();
+        mDownloaded = in.readInt();
+        mErrors = in.readInt();
+        mElapsedMillis = in.readLong();
+    }
+
+    public static final Creator<WeatherStats> CREATOR =
+        new Creator<WeatherStats>() {
+            public WeatherStats createFromParcel(Parcel in) {
+                return new WeatherStats(in);
+            }
+
+            public WeatherStats[] newArray(int size) {
+                return new WeatherStats[size];
+            }
+        };
+}
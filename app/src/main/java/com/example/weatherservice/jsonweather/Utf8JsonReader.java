@@ -0,0 +1,590 @@
+package com.example.weatherservice.jsonweather;
+
+import com.example.weatherservice.utils.StringPool;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A pull tokenizer that reads Json straight from the UTF-8 bytes of
+ * an InputStream, for the small, trusted replies of the Weather
+ * Services API.  Unlike android.util.JsonReader it never turns a
+ * property name into a String: nextName() matches the raw bytes
+ * against a Keys set and returns the index of the key, so callers
+ * can switch on it.  Numbers are decoded straight from the bytes,
+ * values nobody asked for are skipped by counting brackets, and only
+ * nextString() allocates.
+ * <p/>
+ * The byte buffer is pooled per thread and returned by close().
+ * Commas are only checked loosely, so malformed input may be read as
+ * though it were well-formed.  Instances are not thread-safe.
+ */
+public class Utf8JsonReader implements Closeable {
+    private final static Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Size of the pooled byte buffer, which also bounds the length
+     * of a property name that can match a key.
+     */
+    final static int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * How many bytes of a number must be buffered before it is
+     * decoded, so it never straddles a refill.
+     */
+    private final static int MAX_NUMBER_LENGTH = 64;
+
+    /**
+     * Powers of ten that are exact as doubles.
+     */
+    private final static double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * A buffer for each thread, so a thread parsing one reply after
+     * another reuses the same one.
+     */
+    private final static ThreadLocal<byte[]> sBuffers = new ThreadLocal<>();
+
+    private final InputStream mIn;
+    private byte[] mBuffer;
+    private int mPos;
+    private int mLimit;
+    private char[] mChars = new char[64];
+
+    /*
+     * The last number scanned by scanNumber().
+     */
+    private long mMantissa;
+    private int mScale;
+    private boolean mNegative;
+    private boolean mIntegral;
+    private boolean mExact;
+    private int mNumberStart;
+
+    public Utf8JsonReader(InputStream in) {
+        this(in, acquireBuffer());
+    }
+
+    /**
+     * Constructor that reads through @a buffer, which tests use to
+     * force tokens to straddle refills.
+     */
+    Utf8JsonReader(InputStream in, byte[] buffer) {
+        mIn = in;
+        mBuffer = buffer;
+    }
+
+    public void beginObject() throws IOException {
+        expect('{');
+    }
+
+    public void endObject() throws IOException {
+        expect('}');
+    }
+
+    public void beginArray() throws IOException {
+        expect('[');
+    }
+
+    public void endArray() throws IOException {
+        expect(']');
+    }
+
+    /**
+     * Returns true if the current object or array has another
+     * member, consuming the comma before it.
+     */
+    public boolean hasNext() throws IOException {
+        int b = peek();
+        if (b == ',') {
+            mPos++;
+            b = peek();
+        }
+        return b != '}' && b != ']' && b != -1;
+    }
+
+    /**
+     * Read a property name and its colon, and return the index of
+     * the name in @a keys, or -1 if it isn't one of them.
+     */
+    public int nextName(Keys keys) throws IOException {
+        expect('"');
+        int start = mPos;
+        int hash = 0;
+        while (true) {
+            if (mPos == mLimit) {
+                int scanned = mPos - start;
+                if (start == 0 && mLimit == mBuffer.length) {
+                    // Longer than the buffer, so it can't be a key.
+                    skipRestOfString();
+                    expect(':');
+                    return -1;
+                }
+                mPos = start;
+                if (!fill()) {
+                    throw new EOFException("Unterminated name");
+                }
+                start = 0;
+                mPos = scanned;
+                continue;
+            }
+            byte b = mBuffer[mPos];
+            if (b == '"') {
+                break;
+            }
+            if (b == '\\') {
+                // None of the keys need escaping.
+                skipRestOfString();
+                expect(':');
+                return -1;
+            }
+            hash = 31 * hash + (b & 0xff);
+            mPos++;
+        }
+        int length = mPos - start;
+        int index = keys.indexOf(mBuffer, start, length, hash);
+        mPos++;
+        expect(':');
+        return index;
+    }
+
+    /**
+     * Read a string value, decoding escapes and UTF-8.
+     */
+    public String nextString() throws IOException {
+        return new String(mChars, 0, decodeString());
+    }
+
+    /**
+     * Like nextString(), but return the instance in @a pool for
+     * values that repeat, so no String is allocated for them.
+     */
+    public String nextString(StringPool pool) throws IOException {
+        return pool.intern(mChars, 0, decodeString());
+    }
+
+    /**
+     * Decode a string value into mChars and return its length.
+     */
+    private int decodeString() throws IOException {
+        expect('"');
+        char[] chars = mChars;
+        int n = 0;
+        while (true) {
+            if (n + 2 > chars.length) {
+                chars = mChars = Arrays.copyOf(chars, chars.length * 2);
+            }
+            int b = read();
+            if (b == '"') {
+                break;
+            } else if (b == '\\') {
+                chars[n++] = readEscape();
+            } else if (b < 0x80) {
+                chars[n++] = (char) b;
+            } else if ((b & 0xe0) == 0xc0) {
+                chars[n++] = (char) (((b & 0x1f) << 6) | readContinuation());
+            } else if ((b & 0xf0) == 0xe0) {
+                int c = ((b & 0x0f) << 12) | (readContinuation() << 6);
+                chars[n++] = (char) (c | readContinuation());
+            } else if ((b & 0xf8) == 0xf0) {
+                int c = ((b & 0x07) << 18) | (readContinuation() << 12);
+                c |= readContinuation() << 6;
+                c |= readContinuation();
+                if (c > Character.MAX_CODE_POINT) {
+                    // Leads 0xf4 with 0x90 or more, and 0xf5-0xf7,
+                    // encode nothing Unicode has.
+                    chars[n++] = '\uFFFD';
+                } else {
+                    n += Character.toChars(c, chars, n);
+                }
+            } else {
+                chars[n++] = '\uFFFD';
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Read a number, which may have a fraction and an exponent.
+     */
+    public double nextDouble() throws IOException {
+        scanNumber();
+        return numberValue();
+    }
+
+    /**
+     * Read a number, dropping any fraction.
+     */
+    public long nextLong() throws IOException {
+        scanNumber();
+        if (!mIntegral) {
+            return (long) numberValue();
+        }
+        if (!mExact) {
+            return Long.parseLong(numberText());
+        }
+        return mNegative ? -mMantissa : mMantissa;
+    }
+
+    /**
+     * If the next value is null, consume it and return true.
+     */
+    public boolean skipNull() throws IOException {
+        if (peek() != 'n') {
+            return false;
+        }
+        for (int i = 0; i < 4; i++) {
+            if (read() != "null".charAt(i)) {
+                throw syntaxError("Expected null");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Skip the next value.  Objects and arrays are skipped by
+     * counting brackets, without decoding what is inside them.
+     */
+    public void skipValue() throws IOException {
+        int b = peek();
+        if (b == '"') {
+            mPos++;
+            skipRestOfString();
+        } else if (b == '{' || b == '[') {
+            int depth = 0;
+            do {
+                b = read();
+                if (b == '"') {
+                    skipRestOfString();
+                } else if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    depth--;
+                }
+            } while (depth > 0);
+        } else {
+            while (true) {
+                if (mPos == mLimit && !fill()) {
+                    return;
+                }
+                byte next = mBuffer[mPos];
+                if (next == ',' || next == '}' || next == ']' || isWhitespace(next)) {
+                    return;
+                }
+                mPos++;
+            }
+        }
+    }
+
+    /**
+     * Return the buffer to the pool and close the stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (mBuffer != null) {
+            if (mBuffer.length == BUFFER_SIZE) {
+                sBuffers.set(mBuffer);
+            }
+            mBuffer = null;
+        }
+        mIn.close();
+    }
+
+    /**
+     * Scan the number at the current position into mMantissa and
+     * friends.  mExact is false if there were too many digits for
+     * mMantissa, in which case numberText() is parsed instead.
+     */
+    private void scanNumber() throws IOException {
+        peek();
+        if (mLimit - mPos < MAX_NUMBER_LENGTH) {
+            fill();
+        }
+        int pos = mPos;
+        mNumberStart = pos;
+        mNegative = false;
+        mIntegral = true;
+        mExact = true;
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+
+        if (pos < mLimit && mBuffer[pos] == '-') {
+            mNegative = true;
+            pos++;
+        }
+        int firstDigit = pos;
+        for (; pos < mLimit && isDigit(mBuffer[pos]); pos++) {
+            if (digits < 18) {
+                mantissa = mantissa * 10 + (mBuffer[pos] - '0');
+                digits++;
+            } else {
+                mExact = false;
+                scale++;
+            }
+        }
+        if (pos == firstDigit) {
+            throw syntaxError("Expected a number");
+        }
+        if (pos < mLimit && mBuffer[pos] == '.') {
+            mIntegral = false;
+            for (pos++; pos < mLimit && isDigit(mBuffer[pos]); pos++) {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (mBuffer[pos] - '0');
+                    digits++;
+                    scale--;
+                } else {
+                    mExact = false;
+                }
+            }
+        }
+        if (pos < mLimit && (mBuffer[pos] == 'e' || mBuffer[pos] == 'E')) {
+            mIntegral = false;
+            pos++;
+            boolean negativeExponent = false;
+            if (pos < mLimit && (mBuffer[pos] == '-' || mBuffer[pos] == '+')) {
+                negativeExponent = mBuffer[pos] == '-';
+                pos++;
+            }
+            int exponent = 0;
+            for (; pos < mLimit && isDigit(mBuffer[pos]); pos++) {
+                if (exponent < 10000) {
+                    exponent = exponent * 10 + (mBuffer[pos] - '0');
+                }
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        if (pos == mLimit && pos - mNumberStart >= MAX_NUMBER_LENGTH) {
+            throw syntaxError("Number too long");
+        }
+        mPos = pos;
+        mMantissa = mantissa;
+        mScale = scale;
+    }
+
+    /**
+     * The value of the number scanned by scanNumber().
+     */
+    private double numberValue() {
+        double value;
+        if (mExact
+            && mMantissa < (1L << 53)
+            && mScale >= -22
+            && mScale <= 22) {
+            // Both operands are exact, so the result is correctly
+            // rounded.
+            value = mScale < 0
+                ? mMantissa / POWERS_OF_TEN[-mScale]
+                : mMantissa * POWERS_OF_TEN[mScale];
+        } else {
+            value = Double.parseDouble(numberText());
+        }
+        return mNegative ? -value : value;
+    }
+
+    /**
+     * The text of the number scanned by scanNumber(), for the
+     * rare numbers it can't decode exactly.
+     */
+    private String numberText() {
+        return new String(mBuffer, mNumberStart, mPos - mNumberStart, UTF_8);
+    }
+
+    /**
+     * Consume bytes up to and including the closing quote of the
+     * current string.
+     */
+    private void skipRestOfString() throws IOException {
+        while (true) {
+            int b = read();
+            if (b == '"') {
+                return;
+            }
+            if (b == '\\') {
+                read();
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        int b = read();
+        switch (b) {
+        case 'b':
+            return '\b';
+        case 'f':
+            return '\f';
+        case 'n':
+            return '\n';
+        case 'r':
+            return '\r';
+        case 't':
+            return '\t';
+        case 'u':
+            int c = 0;
+            for (int i = 0; i < 4; i++) {
+                c = (c << 4) | Character.digit(read(), 16);
+            }
+            if (c < 0) {
+                throw syntaxError("Malformed \\u escape");
+            }
+            return (char) c;
+        default:
+            // '"', '\\' and '/' stand for themselves.
+            return (char) b;
+        }
+    }
+
+    private int readContinuation() throws IOException {
+        return read() & 0x3f;
+    }
+
+    /**
+     * Consume @a c, which must be the next byte other than
+     * whitespace.
+     */
+    private void expect(char c) throws IOException {
+        if (peek() != c) {
+            throw syntaxError("Expected '" + c + "'");
+        }
+        mPos++;
+    }
+
+    /**
+     * Skip whitespace and return the next byte without consuming it,
+     * or -1 at the end of the stream.
+     */
+    private int peek() throws IOException {
+        while (true) {
+            if (mPos == mLimit && !fill()) {
+                return -1;
+            }
+            byte b = mBuffer[mPos];
+            if (!isWhitespace(b)) {
+                return b & 0xff;
+            }
+            mPos++;
+        }
+    }
+
+    /**
+     * Consume and return the next byte.
+     */
+    private int read() throws IOException {
+        if (mPos == mLimit && !fill()) {
+            throw new EOFException("Unexpected end of Json");
+        }
+        return mBuffer[mPos++] & 0xff;
+    }
+
+    /**
+     * Move the unread bytes to the front of the buffer and read more
+     * after them.  Returns false if no more could be read.
+     */
+    private boolean fill() throws IOException {
+        if (mPos > 0) {
+            System.arraycopy(mBuffer, mPos, mBuffer, 0, mLimit - mPos);
+            mLimit -= mPos;
+            mPos = 0;
+        }
+        boolean filled = false;
+        while (mLimit < mBuffer.length) {
+            int n = mIn.read(mBuffer, mLimit, mBuffer.length - mLimit);
+            if (n <= 0) {
+                break;
+            }
+            mLimit += n;
+            filled = true;
+            if (mLimit - mPos >= MAX_NUMBER_LENGTH) {
+                break;
+            }
+        }
+        return filled;
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException(message + " at byte " + mPos);
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private static byte[] acquireBuffer() {
+        byte[] buffer = sBuffers.get();
+        if (buffer == null) {
+            return new byte[BUFFER_SIZE];
+        }
+        // Nested readers on the same thread get a buffer of their own.
+        sBuffers.set(null);
+        return buffer;
+    }
+
+    /**
+     * A fixed set of property names that nextName() matches by
+     * length and hash, then byte by byte, without allocating.
+     */
+    public static final class Keys {
+        private final byte[][] mKeys;
+        private final int[] mHashes;
+        /**
+         * Open-addressed table of key index + 1, indexed by hash;
+         * 0 marks an empty slot.
+         */
+        private final int[] mSlots;
+
+        public Keys(String... keys) {
+            mKeys = new byte[keys.length][];
+            mHashes = new int[keys.length];
+            mSlots = new int[Integer.highestOneBit(Math.max(keys.length, 2) * 2) * 2];
+            int mask = mSlots.length - 1;
+            for (int k = 0; k < keys.length; k++) {
+                byte[] key = keys[k].getBytes(UTF_8);
+                int hash = 0;
+                for (byte b : key) {
+                    hash = 31 * hash + (b & 0xff);
+                }
+                mKeys[k] = key;
+                mHashes[k] = hash;
+                int i = hash & mask;
+                while (mSlots[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                mSlots[i] = k + 1;
+            }
+        }
+
+        int indexOf(byte[] buffer, int offset, int length, int hash) {
+            int mask = mSlots.length - 1;
+            for (int i = hash & mask; mSlots[i] != 0; i = (i + 1) & mask) {
+                int k = mSlots[i] - 1;
+                if (mHashes[k] == hash && matches(mKeys[k], buffer, offset, length)) {
+                    return k;
+                }
+            }
+            return -1;
+        }
+
+        private static boolean matches(byte[] key, byte[] buffer, int offset, int length) {
+            if (key.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (key[i] != buffer[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -2,15 +2,32 @@ package com.example.weatherservice.jsonweather;
 
 import android.util.JsonReader;
 
+import com.example.weatherservice.WeatherData;
+import com.example.weatherservice.WeatherForecast;
+import com.example.weatherservice.utils.StringPool;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * Parses the Json weather data returned from the Weather Services API
  * and returns a List of JsonWeather objects that contain this data.
+ * Understands both the single-city reply of /data/2.5/weather and
+ * the multi-city reply of /data/2.5/group, which wraps the cities in
+ * a "list" array, and the lines of the OpenWeatherMap bulk files,
+ * which carry the name and country in a "city" object instead.
+ * <p/>
+ * parseWeatherData() skips the JsonWeather object graph and reads
+ * the fields WeatherData needs straight into a builder that is
+ * reused for every city, so each city costs just its WeatherData
+ * and strings.  It reads with Utf8JsonReader rather than
+ * android.util.JsonReader, and takes countries and descriptions from
+ * StringPool.WEATHER_VALUES, so the common ones aren't allocated at
+ * all.  Instances are not thread-safe.
  */
 public class WeatherJSONParser {
     /**
@@ -18,6 +35,714 @@ public class WeatherJSONParser {
      */
     private final String TAG = this.getClass().getCanonicalName();
 
+    /**
+     * The object that holds the name and country in the lines of
+     * the bulk files, in place of the "name" and "sys" members.
+     */
+    private static final String city_JSON = "city";
+
+    /**
+     * The object that holds a city's coordinates, and its members.
+     */
+    private static final String coord_JSON = "coord";
+    private static final String lat_JSON = "lat";
+    private static final String lon_JSON = "lon";
+
+    /*
+     * The property names parseWeatherData() looks for, and their
+     * indices, which Utf8JsonReader.nextName() returns.
+     */
+    private static final Utf8JsonReader.Keys CITY_KEYS =
+        new Utf8JsonReader.Keys(JsonWeather.name_JSON,
+                                JsonWeather.main_JSON,
+                                JsonWeather.wind_JSON,
+                                JsonWeather.sys_JSON,
+                                JsonWeather.weather_JSON,
+                                JsonWeather.list_JSON,
+                                city_JSON,
+                                JsonWeather.id_JSON,
+                                coord_JSON);
+    private static final int CITY_NAME = 0;
+    private static final int CITY_MAIN = 1;
+    private static final int CITY_WIND = 2;
+    private static final int CITY_SYS = 3;
+    private static final int CITY_WEATHER = 4;
+    private static final int CITY_LIST = 5;
+    private static final int CITY_CITY = 6;
+    private static final int CITY_ID = 7;
+    private static final int CITY_COORD = 8;
+
+    /*
+     * The members of the "city" object of a bulk file line.
+     */
+    private static final Utf8JsonReader.Keys BULK_CITY_KEYS =
+        new Utf8JsonReader.Keys(JsonWeather.name_JSON,
+                                Sys.country_JSON,
+                                JsonWeather.id_JSON,
+                                coord_JSON);
+    private static final int BULK_CITY_NAME = 0;
+    private static final int BULK_CITY_COUNTRY = 1;
+    private static final int BULK_CITY_ID = 2;
+    private static final int BULK_CITY_COORD = 3;
+
+    private static final Utf8JsonReader.Keys COORD_KEYS =
+        new Utf8JsonReader.Keys(lat_JSON,
+                                lon_JSON);
+    private static final int COORD_LAT = 0;
+    private static final int COORD_LON = 1;
+
+    private static final Utf8JsonReader.Keys MAIN_KEYS =
+        new Utf8JsonReader.Keys(Main.temp_JSON,
+                                Main.humidity_JSON);
+    private static final int MAIN_TEMP = 0;
+    private static final int MAIN_HUMIDITY = 1;
+
+    private static final Utf8JsonReader.Keys WIND_KEYS =
+        new Utf8JsonReader.Keys(Wind.speed_JSON,
+                                Wind.deg_JSON);
+    private static final int WIND_SPEED = 0;
+    private static final int WIND_DEG = 1;
+
+    private static final Utf8JsonReader.Keys SYS_KEYS =
+        new Utf8JsonReader.Keys(Sys.country_JSON,
+                                Sys.sunrise_JSON,
+                                Sys.sunset_JSON);
+    private static final int SYS_COUNTRY = 0;
+    private static final int SYS_SUNRISE = 1;
+    private static final int SYS_SUNSET = 2;
+
+    private static final Utf8JsonReader.Keys WEATHER_KEYS =
+        new Utf8JsonReader.Keys(Weather.description_JSON);
+    private static final int WEATHER_DESCRIPTION = 0;
+
+    /*
+     * The property names parseForecast() looks for: those of the
+     * reply, of each slot in its "list" and of the slot's "weather"
+     * entries.
+     */
+    private static final Utf8JsonReader.Keys FORECAST_KEYS =
+        new Utf8JsonReader.Keys(city_JSON,
+                                JsonWeather.list_JSON);
+    private static final int FORECAST_CITY = 0;
+    private static final int FORECAST_LIST = 1;
+
+    private static final Utf8JsonReader.Keys SLOT_KEYS =
+        new Utf8JsonReader.Keys(JsonWeather.dt_JSON,
+                                JsonWeather.main_JSON,
+                                JsonWeather.wind_JSON,
+                                JsonWeather.weather_JSON);
+    private static final int SLOT_DT = 0;
+    private static final int SLOT_MAIN = 1;
+    private static final int SLOT_WIND = 2;
+    private static final int SLOT_WEATHER = 3;
+
+    private static final Utf8JsonReader.Keys CONDITION_KEYS =
+        new Utf8JsonReader.Keys(Weather.id_JSON);
+    private static final int CONDITION_ID = 0;
+
+    /**
+     * Collects the fields of the city being parsed by
+     * parseWeatherData().
+     */
+    private final WeatherDataBuilder mBuilder = new WeatherDataBuilder();
+
+    /**
+     * Collects the slots of the forecast being parsed by
+     * parseForecast().
+     */
+    private final ForecastBuilder mForecastBuilder = new ForecastBuilder();
+
+    /**
+     * Parse the @a inputStream in a single pass and return a
+     * WeatherData for each city in it.  Replies without a name or a
+     * "main" section, e.g. {"cod":"404","message":"city not found"},
+     * contribute nothing.  Reads the UTF-8 bytes with
+     * Utf8JsonReader, so only the strings kept in the WeatherData are
+     * allocated.
+     */
+    public List<WeatherData> parseWeatherData(InputStream inputStream) throws IOException {
+        return parseWeatherData(inputStream, WeatherData.ALL_FIELDS);
+    }
+
+    /**
+     * Like parseWeatherData(InputStream), but only decode the
+     * WeatherData @a fields given by a mask of WeatherData.FIELD_*
+     * bits.  Sections holding none of them are skipped without being
+     * decoded.  The name is always read, to tell cities from error
+     * replies, but is only kept if it was asked for.
+     */
+    public List<WeatherData> parseWeatherData(InputStream inputStream, int fields) throws IOException {
+        Utf8JsonReader reader = new Utf8JsonReader(inputStream);
+        mBuilder.mFields = fields;
+        try {
+            List<WeatherData> results = new ArrayList<>(1);
+            reader.beginObject();
+            parseCity(reader, results, true);
+            reader.endObject();
+            return results;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Parse the members of one city object into mBuilder and add the
+     * resulting WeatherData to @a results.  At the @a topLevel, the
+     * cities of a multi-city "list" array are added instead.
+     */
+    private void parseCity(Utf8JsonReader reader,
+                           List<WeatherData> results,
+                           boolean topLevel) throws IOException {
+        WeatherDataBuilder builder = mBuilder.reset();
+        boolean isGroup = false;
+
+        while (reader.hasNext()) {
+            switch (reader.nextName(CITY_KEYS)) {
+            case CITY_NAME:
+                builder.mName = reader.skipNull() ? null : reader.nextString();
+                break;
+            case CITY_MAIN:
+                if (builder.wants(WeatherData.FIELD_TEMP | WeatherData.FIELD_HUMIDITY)) {
+                    parseMainInto(reader, builder);
+                } else if (!reader.skipNull()) {
+                    // Still needed to tell a city from an error reply.
+                    builder.mHasMain = true;
+                    reader.skipValue();
+                }
+                break;
+            case CITY_WIND:
+                if (builder.wants(WeatherData.FIELD_SPEED | WeatherData.FIELD_DEG)) {
+                    parseWindInto(reader, builder);
+                } else {
+                    reader.skipValue();
+                }
+                break;
+            case CITY_SYS:
+                if (builder.wants(WeatherData.FIELD_COUNTRY
+                                  | WeatherData.FIELD_SUNRISE
+                                  | WeatherData.FIELD_SUNSET)) {
+                    parseSysInto(reader, builder);
+                } else {
+                    reader.skipValue();
+                }
+                break;
+            case CITY_WEATHER:
+                if (builder.wants(WeatherData.FIELD_DESCRIPTION)) {
+                    parseWeathersInto(reader, builder);
+                } else {
+                    reader.skipValue();
+                }
+                break;
+            case CITY_LIST:
+                if (topLevel && !reader.skipNull()) {
+                    isGroup = true;
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        reader.beginObject();
+                        parseCity(reader, results, false);
+                        reader.endObject();
+                    }
+                    reader.endArray();
+                    break;
+                }
+                reader.skipValue();
+                break;
+            case CITY_CITY:
+                parseBulkCityInto(reader, builder);
+                break;
+            case CITY_ID:
+                // Always read, since the cache keys cities by it.
+                builder.mCityId = reader.skipNull() ? 0 : reader.nextLong();
+                break;
+            case CITY_COORD:
+                parseCoordInto(reader, builder);
+                break;
+            default:
+                reader.skipValue();
+                break;
+            }
+        }
+
+        if (!isGroup && builder.mName != null && builder.mHasMain) {
+            results.add(builder.build());
+        }
+    }
+
+    /**
+     * Read the name, country, city id and coordinates from the
+     * "city" object of a bulk file line.
+     */
+    private void parseBulkCityInto(Utf8JsonReader reader, WeatherDataBuilder builder) throws IOException {
+        if (reader.skipNull()) {
+            return;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName(BULK_CITY_KEYS)) {
+            case BULK_CITY_NAME:
+                builder.mName = reader.skipNull() ? null : reader.nextString();
+                break;
+            case BULK_CITY_COUNTRY:
+                if (builder.wants(WeatherData.FIELD_COUNTRY)) {
+                    builder.mCountry = reader.skipNull() ? null : reader.nextString(StringPool.WEATHER_VALUES);
+                } else {
+                    reader.skipValue();
+                }
+                break;
+            case BULK_CITY_ID:
+                builder.mCityId = reader.skipNull() ? 0 : reader.nextLong();
+                break;
+            case BULK_CITY_COORD:
+                parseCoordInto(reader, builder);
+                break;
+            default:
+                reader.skipValue();
+                break;
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Read the latitude and longitude from a "coord" object.  Like
+     * the id they are always read, since the cache indexes cities by
+     * them.
+     */
+    private void parseCoordInto(Utf8JsonReader reader, WeatherDataBuilder builder) throws IOException {
+        if (reader.skipNull()) {
+            return;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName(COORD_KEYS)) {
+            case COORD_LAT:
+                builder.mLat = reader.skipNull() ? Double.NaN : reader.nextDouble();
+                break;
+            case COORD_LON:
+                builder.mLon = reader.skipNull() ? Double.NaN : reader.nextDouble();
+                break;
+            default:
+                reader.skipValue();
+                break;
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Read the temperature and humidity from a "main" object.
+     */
+    private void parseMainInto(Utf8JsonReader reader, WeatherDataBuilder builder) throws IOException {
+        if (reader.skipNull()) {
+            return;
+        }
+        builder.mHasMain = true;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName(MAIN_KEYS)) {
+            case MAIN_TEMP:
+                if (builder.wants(WeatherData.FIELD_TEMP)) {
+                    builder.mTemp = reader.nextDouble();
+                } else {
+                    reader.skipValue();
+                }
+                break;
+            case MAIN_HUMIDITY:
+                if (builder.wants(WeatherData.FIELD_HUMIDITY)) {
+                    builder.mHumidity = reader.nextLong();
+                } else {
+                    reader.skipValue();
+                }
+                break;
+            default:
+                reader.skipValue();
+                break;
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Read the speed and direction from a "wind" object.
+     */
+    private void parseWindInto(Utf8JsonReader reader, WeatherDataBuilder builder) throws IOException {
+        if (reader.skipNull()) {
+            return;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName(WIND_KEYS)) {
+            case WIND_SPEED:
+                if (builder.wants(WeatherData.FIELD_SPEED)) {
+                    builder.mSpeed = reader.nextDouble();
+                } else {
+                    reader.skipValue();
+                }
+                break;
+            case WIND_DEG:
+                if (builder.wants(WeatherData.FIELD_DEG)) {
+                    builder.mDeg = reader.nextDouble();
+                } else {
+                    reader.skipValue();
+                }
+                break;
+            default:
+                reader.skipValue();
+                break;
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Read the country, sunrise and sunset from a "sys" object.
+     */
+    private void parseSysInto(Utf8JsonReader reader, WeatherDataBuilder builder) throws IOException {
+        if (reader.skipNull()) {
+            return;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName(SYS_KEYS)) {
+            case SYS_COUNTRY:
+                if (builder.wants(WeatherData.FIELD_COUNTRY)) {
+                    builder.mCountry = reader.skipNull() ? null : reader.nextString(StringPool.WEATHER_VALUES);
+                } else {
+                    reader.skipValue();
+                }
+                break;
+            case SYS_SUNRISE:
+                if (builder.wants(WeatherData.FIELD_SUNRISE)) {
+                    builder.mSunrise = reader.nextLong();
+                } else {
+                    reader.skipValue();
+                }
+                break;
+            case SYS_SUNSET:
+                if (builder.wants(WeatherData.FIELD_SUNSET)) {
+                    builder.mSunset = reader.nextLong();
+                } else {
+                    reader.skipValue();
+                }
+                break;
+            default:
+                reader.skipValue();
+                break;
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Read the description of the first entry of a "weather" array
+     * and skip the rest.
+     */
+    private void parseWeathersInto(Utf8JsonReader reader, WeatherDataBuilder builder) throws IOException {
+        if (reader.skipNull()) {
+            return;
+        }
+        reader.beginArray();
+        boolean first = true;
+        while (reader.hasNext()) {
+            if (!first) {
+                reader.skipValue();
+                continue;
+            }
+            first = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName(WEATHER_KEYS) == WEATHER_DESCRIPTION) {
+                    builder.mDescription = reader.skipNull() ? null : reader.nextString(StringPool.WEATHER_VALUES);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+    }
+
+    /**
+     * Parse a /data/2.5/forecast reply from @a inputStream in a single
+     * pass into a WeatherForecast, or return null if it holds no
+     * forecast, e.g. {"cod":"404","message":"city not found"}.  The
+     * slots are read straight into primitive arrays that are reused
+     * from one call to the next, so the only allocations are the
+     * right-sized copies kept by the WeatherForecast.
+     */
+    public WeatherForecast parseForecast(InputStream inputStream) throws IOException {
+        Utf8JsonReader reader = new Utf8JsonReader(inputStream);
+        ForecastBuilder builder = mForecastBuilder.reset();
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName(FORECAST_KEYS)) {
+                case FORECAST_CITY:
+                    parseForecastCityInto(reader, builder);
+                    break;
+                case FORECAST_LIST:
+                    if (reader.skipNull()) {
+                        break;
+                    }
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        reader.beginObject();
+                        parseSlotInto(reader, builder);
+                        reader.endObject();
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+                }
+            }
+            reader.endObject();
+        } finally {
+            reader.close();
+        }
+        return builder.mName == null || builder.mSize == 0 ? null : builder.build();
+    }
+
+    /**
+     * Read the name and country from the "city" object of a forecast
+     * reply.
+     */
+    private void parseForecastCityInto(Utf8JsonReader reader, ForecastBuilder builder) throws IOException {
+        if (reader.skipNull()) {
+            return;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName(BULK_CITY_KEYS)) {
+            case BULK_CITY_NAME:
+                builder.mName = reader.skipNull() ? null : reader.nextString();
+                break;
+            case BULK_CITY_COUNTRY:
+                builder.mCountry = reader.skipNull()
+                    ? null
+                    : reader.nextString(StringPool.WEATHER_VALUES);
+                break;
+            default:
+                reader.skipValue();
+                break;
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Read the members of one object of a forecast's "list" into the
+     * next slot of @a builder.
+     */
+    private void parseSlotInto(Utf8JsonReader reader, ForecastBuilder builder) throws IOException {
+        final int slot = builder.addSlot();
+        while (reader.hasNext()) {
+            switch (reader.nextName(SLOT_KEYS)) {
+            case SLOT_DT:
+                builder.mTimes[slot] = reader.nextLong();
+                break;
+            case SLOT_MAIN:
+                if (reader.skipNull()) {
+                    break;
+                }
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName(MAIN_KEYS)) {
+                    case MAIN_TEMP:
+                        builder.mTemps[slot] = (float) reader.nextDouble();
+                        break;
+                    case MAIN_HUMIDITY:
+                        builder.mHumidities[slot] = (float) reader.nextDouble();
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                    }
+                }
+                reader.endObject();
+                break;
+            case SLOT_WIND:
+                if (reader.skipNull()) {
+                    break;
+                }
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName(WIND_KEYS)) {
+                    case WIND_SPEED:
+                        builder.mWindSpeeds[slot] = (float) reader.nextDouble();
+                        break;
+                    case WIND_DEG:
+                        builder.mWindDegs[slot] = (short) reader.nextLong();
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                    }
+                }
+                reader.endObject();
+                break;
+            case SLOT_WEATHER:
+                parseConditionInto(reader, builder, slot);
+                break;
+            default:
+                reader.skipValue();
+                break;
+            }
+        }
+    }
+
+    /**
+     * Read the condition id of the first entry of a slot's "weather"
+     * array and skip the rest.
+     */
+    private void parseConditionInto(Utf8JsonReader reader,
+                                    ForecastBuilder builder,
+                                    int slot) throws IOException {
+        if (reader.skipNull()) {
+            return;
+        }
+        reader.beginArray();
+        boolean first = true;
+        while (reader.hasNext()) {
+            if (!first) {
+                reader.skipValue();
+                continue;
+            }
+            first = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName(CONDITION_KEYS) == CONDITION_ID) {
+                    builder.mConditionIds[slot] = (short) reader.nextLong();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+    }
+
+    /**
+     * The slots of the forecast being parsed, in arrays that grow as
+     * needed and are kept for the next forecast.
+     */
+    private static class ForecastBuilder {
+        /**
+         * The number of slots in a full 5 day / 3 hour forecast.
+         */
+        static final int SLOTS = 40;
+
+        String mName;
+        String mCountry;
+        int mSize;
+        long[] mTimes = new long[SLOTS];
+        float[] mTemps = new float[SLOTS];
+        float[] mHumidities = new float[SLOTS];
+        float[] mWindSpeeds = new float[SLOTS];
+        short[] mWindDegs = new short[SLOTS];
+        short[] mConditionIds = new short[SLOTS];
+
+        ForecastBuilder reset() {
+            mName = null;
+            mCountry = null;
+            mSize = 0;
+            return this;
+        }
+
+        /**
+         * Clear the next slot, growing the arrays if they are full,
+         * and return its index.
+         */
+        int addSlot() {
+            if (mSize == mTimes.length) {
+                final int capacity = mSize * 2;
+                mTimes = Arrays.copyOf(mTimes, capacity);
+                mTemps = Arrays.copyOf(mTemps, capacity);
+                mHumidities = Arrays.copyOf(mHumidities, capacity);
+                mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+                mWindDegs = Arrays.copyOf(mWindDegs, capacity);
+                mConditionIds = Arrays.copyOf(mConditionIds, capacity);
+            }
+            final int slot = mSize++;
+            mTimes[slot] = 0;
+            mTemps[slot] = 0;
+            mHumidities[slot] = 0;
+            mWindSpeeds[slot] = 0;
+            mWindDegs[slot] = 0;
+            mConditionIds[slot] = 0;
+            return slot;
+        }
+
+        WeatherForecast build() {
+            return new WeatherForecast(mName,
+                                       mCountry,
+                                       Arrays.copyOf(mTimes, mSize),
+                                       Arrays.copyOf(mTemps, mSize),
+                                       Arrays.copyOf(mHumidities, mSize),
+                                       Arrays.copyOf(mWindSpeeds, mSize),
+                                       Arrays.copyOf(mWindDegs, mSize),
+                                       Arrays.copyOf(mConditionIds, mSize));
+        }
+    }
+
+    /**
+     * The WeatherData fields of the city being parsed.
+     */
+    private static class WeatherDataBuilder {
+        String mName;
+        double mSpeed;
+        double mDeg;
+        double mTemp;
+        long mHumidity;
+        long mSunrise;
+        long mSunset;
+        String mDescription;
+        String mCountry;
+        long mCityId;
+        double mLat;
+        double mLon;
+        boolean mHasMain;
+        int mFields = WeatherData.ALL_FIELDS;
+
+        boolean wants(int fields) {
+            return (mFields & fields) != 0;
+        }
+
+        WeatherDataBuilder reset() {
+            mName = null;
+            mSpeed = 0;
+            mDeg = 0;
+            mTemp = 0;
+            mHumidity = 0;
+            mSunrise = 0;
+            mSunset = 0;
+            mDescription = null;
+            mCountry = null;
+            mCityId = 0;
+            mLat = Double.NaN;
+            mLon = Double.NaN;
+            mHasMain = false;
+            return this;
+        }
+
+        WeatherData build() {
+            return new WeatherData(mName,
+                                   mSpeed,
+                                   mDeg,
+                                   mTemp,
+                                   mHumidity,
+                                   mSunrise,
+                                   mSunset,
+                                   mDescription,
+                                   mCountry,
+                                   mFields,
+                                   mCityId,
+                                   mLat,
+                                   mLon);
+        }
+    }
+
     /**
      * Parse the @a inputStream and convert it into a List of JsonWeather
      * objects.
@@ -38,10 +763,12 @@ public class WeatherJSONParser {
     public List<JsonWeather> parseJsonWeatherArray(JsonReader reader) throws IOException {
         List<JsonWeather> messages = new ArrayList();
         reader.beginObject();
-        while (reader.hasNext()) {
-            messages.add(parseJsonWeather(reader));
-        }
+        JsonWeather jsonWeather = parseJsonWeather(reader, messages);
         reader.endObject();
+        if (messages.isEmpty()) {
+            // Not a multi-city reply.
+            messages.add(jsonWeather);
+        }
         return messages;
     }
 
@@ -49,6 +776,15 @@ public class WeatherJSONParser {
      * Parse a Json stream and return a JsonWeather object.
      */
     public JsonWeather parseJsonWeather(JsonReader reader) throws IOException {
+        return parseJsonWeather(reader, null);
+    }
+
+    /**
+     * Parse a Json stream and return a JsonWeather object.  If
+     * @a list is non-null, the cities in a multi-city "list" array
+     * are parsed and added to it.
+     */
+    private JsonWeather parseJsonWeather(JsonReader reader, List<JsonWeather> list) throws IOException {
         Sys sys = null;
         String base = null;
         Main main = null;
@@ -79,6 +815,14 @@ public class WeatherJSONParser {
                 name = reader.nextString();
             } else if (propertyName.equals(JsonWeather.cod_JSON)) {
                 cod = reader.nextLong();
+            } else if (list != null && propertyName.equals(JsonWeather.list_JSON)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    reader.beginObject();
+                    list.add(parseJsonWeather(reader, null));
+                    reader.endObject();
+                }
+                reader.endArray();
             } else {
                 reader.skipValue();
             }
@@ -12,16 +12,22 @@ import android.widget.TextView;
 import com.example.weatherservice.R;
 import com.example.weatherservice.WeatherCall;
 import com.example.weatherservice.WeatherData;
+import com.example.weatherservice.WeatherDataList;
+import com.example.weatherservice.WeatherDelta;
+import com.example.weatherservice.WeatherForecast;
 import com.example.weatherservice.WeatherRequest;
 import com.example.weatherservice.WeatherResults;
+import com.example.weatherservice.WeatherStats;
 import com.example.weatherservice.activities.MainActivity;
 import com.example.weatherservice.services.WeatherServiceAsync;
 import com.example.weatherservice.services.WeatherServiceSync;
 import com.example.weatherservice.utils.GenericServiceConnection;
 import com.example.weatherservice.utils.Utils;
+import com.example.weatherservice.utils.WeatherDeltaClient;
 
 import java.lang.ref.WeakReference;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -69,6 +75,12 @@ public class WeatherOperationsImpl implements WeatherOperations {
     private GenericServiceConnection<WeatherRequest> mServiceConnectionAsync;
 
 
+    /**
+     * Holds the results last shown for each location, so looking a
+     * location up again only transfers what has changed.
+     */
+    private final WeatherDeltaClient mDeltaClient = new WeatherDeltaClient();
+
     /**
      * This Handler is used to post Runnables to the UI from the
      * mWeatherResults callback methods to avoid a dependency on the
@@ -89,11 +101,74 @@ public class WeatherOperationsImpl implements WeatherOperations {
     private final WeatherResults.Stub mWeatherResults = new WeatherResults.Stub() {
 
         @Override
-        public void sendResults(final List<com.example.weatherservice.WeatherData> results) throws RemoteException {
+        public void sendResults(final WeatherDataList results) throws RemoteException {
+            mDisplayHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (results == null || results.isEmpty()) {
+                        Utils.showToast(mActivity.get(), "No weather found");
+                    } else {
+                        displayResults(results);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onPartial(String location,
+                              final com.example.weatherservice.WeatherData result) throws RemoteException {
+            mDisplayHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    displayResults(Collections.singletonList(result));
+                }
+            });
+        }
+
+        @Override
+        public void onError(final String location, final int code) throws RemoteException {
             mDisplayHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    displayResults(results);
+                    Utils.showToast(mActivity.get(),
+                                    code == WeatherStats.ERROR_NOT_FOUND
+                                    ? "No weather found for " + location
+                                    : "Unable to get weather for " + location);
+                }
+            });
+        }
+
+        @Override
+        public void onComplete(WeatherStats stats) throws RemoteException {
+            Log.d(TAG, "Streamed weather " + stats);
+        }
+
+        @Override
+        public void sendForecast(String location,
+                                 WeatherForecast forecast) throws RemoteException {
+            Log.d(TAG, "Forecast for " + location + ": " + forecast);
+        }
+
+        @Override
+        public void sendDelta(final String location,
+                              WeatherDelta delta) throws RemoteException {
+            final List<WeatherData> results = mDeltaClient.apply(location, delta);
+            if (results == null) {
+                // Another reply got there first; ask for it whole.
+                final WeatherRequest request = mServiceConnectionAsync.getInterface();
+                if (request != null) {
+                    request.getCurrentWeatherSince(location, WeatherDelta.NO_VERSION, this);
+                }
+                return;
+            }
+            mDisplayHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (results.isEmpty()) {
+                        Utils.showToast(mActivity.get(), "No weather found for " + location);
+                    } else {
+                        displayResults(results);
+                    }
                 }
             });
         }
@@ -220,10 +295,14 @@ public class WeatherOperationsImpl implements WeatherOperations {
             try {
                 // Invoke a one-way AIDL call, which does not block
                 // the client.  The results are returned via the
-                // sendResults() method of the mAcronymResults
+                // sendDelta() method of the mWeatherResults
                 // callback object, which runs in a Thread from the
-                // Thread pool managed by the Binder framework.
-                request.getCurrentWeather(location, mWeatherResults);
+                // Thread pool managed by the Binder framework.  Only
+                // what changed since the results held for the
+                // location is sent.
+                request.getCurrentWeatherSince(location,
+                                               mDeltaClient.getVersion(location),
+                                               mWeatherResults);
             } catch (Exception e) {
                 Log.e(TAG, e.getMessage(), e);
             }
@@ -258,7 +337,7 @@ public class WeatherOperationsImpl implements WeatherOperations {
                 protected List<WeatherData> doInBackground(String... locations) {
                     try {
                         location = locations[0];
-                        return weatherCall.getCurrentWeather(location);
+                        return mDeltaClient.getCurrentWeather(weatherCall, location);
                     } catch (Exception e) {
                         Log.e(TAG, e.getMessage(), e);
                     }
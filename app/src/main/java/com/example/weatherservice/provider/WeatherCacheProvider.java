@@ -0,0 +1,313 @@
+package com.example.weatherservice.provider;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.weatherservice.WeatherData;
+import com.example.weatherservice.utils.WeatherCache;
+import com.example.weatherservice.utils.WeatherDiskCache;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This ContentProvider hosts the weather cache tier that is shared
+ * by WeatherServiceAsync (running in :remote1) and
+ * WeatherServiceSync (running in :remote2).  It runs in its own
+ * :cache process and keeps the entries in that process's
+ * WeatherCache, so a result downloaded by either service is
+ * visible to the other one.
+ * <p/>
+ * The provider also persists the entries to an append-only log
+ * (see WeatherDiskCache) so the shared tier survives Android killing
+ * its process.  The log is replayed lazily on the first call().
+ * <p/>
+ * Clients talk to it via ContentResolver.call(), which costs a
+ * single binder transaction and skips the Cursor machinery
+ * entirely.  The query()/insert()/update()/delete() methods are
+ * therefore not supported.
+ */
+public class WeatherCacheProvider extends ContentProvider {
+    private static final String TAG = WeatherCacheProvider.class.getSimpleName();
+
+    public static final String AUTHORITY = "com.example.weatherservice.cache";
+    public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY);
+
+    /**
+     * Methods understood by call().  In both cases the arg is the
+     * location used as the cache key.  A location that is an alias
+     * is got from the key it is an alias of, which keyOf() returns.
+     */
+    public static final String METHOD_GET = "get";
+    public static final String METHOD_PUT = "put";
+
+    /**
+     * Store many entries at once, e.g. after a bulk load, along with
+     * the aliases learned from them.  The arg is unused; the extras
+     * come from toBundle(Map, Map).
+     */
+    public static final String METHOD_PUT_ALL = "putAll";
+
+    /**
+     * Make the arg, a location, an alias of the key in the extras,
+     * which come from toBundle(String).  Aliases aren't persisted;
+     * they are relearned by the next download of the location.
+     */
+    public static final String METHOD_ALIAS = "alias";
+
+    /**
+     * Keys used in the Bundles exchanged with call().
+     */
+    private static final String EXTRA_RESULTS = "results";
+    private static final String EXTRA_CACHED_AT = "cachedAt";
+    private static final String EXTRA_KIND = "kind";
+    private static final String EXTRA_LOCATIONS = "locations";
+    private static final String EXTRA_ENTRIES = "entries";
+    private static final String EXTRA_KEY = "key";
+    private static final String EXTRA_ALIASES = "aliases";
+    private static final String EXTRA_ALIAS_KEYS = "aliasKeys";
+
+    /**
+     * Name of the WeatherDiskCache log in the app's files directory.
+     */
+    private static final String DISK_CACHE_FILE = "weather-cache.log";
+
+    private WeatherDiskCache mDiskCache;
+
+    /**
+     * Set once the disk cache has been replayed into the
+     * WeatherCache.
+     */
+    private volatile boolean mLoaded;
+
+    @Override
+    public boolean onCreate() {
+        mDiskCache = new WeatherDiskCache(new File(getContext().getFilesDir(),
+                                                   DISK_CACHE_FILE));
+        return true;
+    }
+
+    /**
+     * Hook method called by the Android framework (on a binder
+     * thread) when a client calls ContentResolver.call().
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (!mLoaded) {
+            loadDiskCache();
+        }
+        if (METHOD_GET.equals(method)) {
+            final String key = WeatherCache.INSTANCE.resolve(arg);
+            final WeatherCache.Entry entry = WeatherCache.INSTANCE.getEntry(key);
+            if (entry == null) {
+                return null;
+            }
+            final Bundle reply = toBundle(entry);
+            if (!key.equals(arg)) {
+                reply.putString(EXTRA_KEY, key);
+            }
+            return reply;
+        } else if (METHOD_PUT.equals(method)) {
+            final WeatherCache.Entry entry = toEntry(extras);
+            if (entry != null) {
+                WeatherCache.INSTANCE.putEntry(arg, entry);
+                // Negative entries are short-lived; not worth persisting.
+                if (entry.getKind() == WeatherCache.Kind.FOUND) {
+                    synchronized (this) {
+                        mDiskCache.append(arg, entry);
+                    }
+                }
+            }
+            return null;
+        } else if (METHOD_PUT_ALL.equals(method)) {
+            final Map<String, WeatherCache.Entry> entries = toEntries(extras);
+            for (Map.Entry<String, WeatherCache.Entry> e : entries.entrySet()) {
+                WeatherCache.INSTANCE.putEntry(e.getKey(), e.getValue());
+            }
+            synchronized (this) {
+                for (Map.Entry<String, WeatherCache.Entry> e : entries.entrySet()) {
+                    if (e.getValue().getKind() == WeatherCache.Kind.FOUND) {
+                        mDiskCache.append(e.getKey(), e.getValue());
+                    }
+                }
+            }
+            for (Map.Entry<String, String> alias : toAliases(extras).entrySet()) {
+                WeatherCache.INSTANCE.putAlias(alias.getKey(), alias.getValue());
+            }
+            return null;
+        } else if (METHOD_ALIAS.equals(method)) {
+            final String key = extras == null ? null : extras.getString(EXTRA_KEY);
+            if (key != null) {
+                WeatherCache.INSTANCE.putAlias(arg, key);
+            }
+            return null;
+        }
+        throw new IllegalArgumentException("Unknown method " + method);
+    }
+
+    /**
+     * Replay the disk cache into this process's WeatherCache, which
+     * then applies its usual TTLs to the restored entries.
+     */
+    private synchronized void loadDiskCache() {
+        if (mLoaded) {
+            return;
+        }
+        final Map<String, WeatherCache.Entry> entries =
+            mDiskCache.load(WeatherCache.INSTANCE.getHardTtl());
+        for (Map.Entry<String, WeatherCache.Entry> e : entries.entrySet()) {
+            WeatherCache.INSTANCE.putEntry(e.getKey(), e.getValue());
+        }
+        Log.d(TAG, "Restored " + entries.size() + " locations from disk");
+        mLoaded = true;
+    }
+
+    /**
+     * Convert a WeatherCache.Entry into a Bundle for call().
+     */
+    public static Bundle toBundle(WeatherCache.Entry entry) {
+        final Bundle bundle = new Bundle();
+        bundle.putParcelableArrayList(EXTRA_RESULTS,
+                                      new ArrayList<>(entry.getData()));
+        bundle.putLong(EXTRA_CACHED_AT, entry.getCachedAt());
+        bundle.putString(EXTRA_KIND, entry.getKind().name());
+        return bundle;
+    }
+
+    /**
+     * Return the key the entry in @a reply, the reply to a METHOD_GET
+     * of @a name, is cached under.
+     */
+    public static String keyOf(Bundle reply, String name) {
+        final String key = reply == null ? null : reply.getString(EXTRA_KEY);
+        return key == null ? name : key;
+    }
+
+    /**
+     * Convert the @a key an alias is of into a Bundle for call().
+     */
+    public static Bundle toBundle(String key) {
+        final Bundle bundle = new Bundle();
+        bundle.putString(EXTRA_KEY, key);
+        return bundle;
+    }
+
+    /**
+     * Convert a Bundle from call() back into a WeatherCache.Entry,
+     * returning null if there's nothing in it.
+     */
+    public static WeatherCache.Entry toEntry(Bundle bundle) {
+        if (bundle == null) {
+            return null;
+        }
+        bundle.setClassLoader(WeatherData.class.getClassLoader());
+        final List<WeatherData> results = bundle.getParcelableArrayList(EXTRA_RESULTS);
+        if (results == null) {
+            return null;
+        }
+        final String kind = bundle.getString(EXTRA_KIND);
+        return new WeatherCache.Entry(results,
+                                      bundle.getLong(EXTRA_CACHED_AT),
+                                      kind == null
+                                      ? WeatherCache.Kind.FOUND
+                                      : WeatherCache.Kind.valueOf(kind));
+    }
+
+    /**
+     * Convert several WeatherCache.Entry objects, keyed by location,
+     * and @a aliases, the keys they are aliases of keyed by location,
+     * into a Bundle for call().
+     */
+    public static Bundle toBundle(Map<String, WeatherCache.Entry> entries,
+                                  Map<String, String> aliases) {
+        final ArrayList<String> locations = new ArrayList<>(entries.size());
+        final ArrayList<Bundle> bundles = new ArrayList<>(entries.size());
+        for (Map.Entry<String, WeatherCache.Entry> e : entries.entrySet()) {
+            locations.add(e.getKey());
+            bundles.add(toBundle(e.getValue()));
+        }
+        final Bundle bundle = new Bundle();
+        bundle.putStringArrayList(EXTRA_LOCATIONS, locations);
+        bundle.putParcelableArrayList(EXTRA_ENTRIES, bundles);
+        bundle.putStringArrayList(EXTRA_ALIAS_KEYS, new ArrayList<>(aliases.keySet()));
+        bundle.putStringArrayList(EXTRA_ALIASES, new ArrayList<>(aliases.values()));
+        return bundle;
+    }
+
+    /**
+     * Convert a Bundle made by toBundle(Map) back into the entries it
+     * holds, keyed by location.
+     */
+    public static Map<String, WeatherCache.Entry> toEntries(Bundle bundle) {
+        final Map<String, WeatherCache.Entry> entries = new LinkedHashMap<>();
+        if (bundle == null) {
+            return entries;
+        }
+        bundle.setClassLoader(WeatherCacheProvider.class.getClassLoader());
+        final List<String> locations = bundle.getStringArrayList(EXTRA_LOCATIONS);
+        final List<Bundle> bundles = bundle.getParcelableArrayList(EXTRA_ENTRIES);
+        if (locations == null || bundles == null) {
+            return entries;
+        }
+        for (int i = 0; i < locations.size() && i < bundles.size(); i++) {
+            final WeatherCache.Entry entry = toEntry(bundles.get(i));
+            if (entry != null) {
+                entries.put(locations.get(i), entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Return the aliases in a Bundle made by toBundle(Map, Map).
+     */
+    public static Map<String, String> toAliases(Bundle bundle) {
+        final Map<String, String> aliases = new LinkedHashMap<>();
+        if (bundle == null) {
+            return aliases;
+        }
+        final List<String> keys = bundle.getStringArrayList(EXTRA_ALIAS_KEYS);
+        final List<String> values = bundle.getStringArrayList(EXTRA_ALIASES);
+        if (keys == null || values == null) {
+            return aliases;
+        }
+        for (int i = 0; i < keys.size() && i < values.size(); i++) {
+            aliases.put(keys.get(i), values.get(i));
+        }
+        return aliases;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection,
+                        String[] selectionArgs, String sortOrder) {
+        throw new UnsupportedOperationException("Use call() instead");
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return null;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("Use call() instead");
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Use call() instead");
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection,
+                      String[] selectionArgs) {
+        throw new UnsupportedOperationException("Use call() instead");
+    }
+}
@@ -4,15 +4,25 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.IBinder;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.example.weatherservice.WeatherData;
+import com.example.weatherservice.WeatherDataList;
+import com.example.weatherservice.WeatherDelta;
+import com.example.weatherservice.WeatherForecast;
 import com.example.weatherservice.WeatherRequest;
 import com.example.weatherservice.WeatherResults;
-import com.example.weatherservice.utils.Utils;
+import com.example.weatherservice.WeatherStats;
+import com.example.weatherservice.WeatherSubscription;
+import com.example.weatherservice.utils.ForecastCache;
+import com.example.weatherservice.utils.UnknownLocationException;
 import com.example.weatherservice.utils.WeatherCache;
+import com.example.weatherservice.utils.WeatherSubscriptions;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class WeatherServiceAsync extends LifecycleLoggingService {
@@ -26,17 +36,89 @@ public class WeatherServiceAsync extends LifecycleLoggingService {
         return new Intent(context, WeatherServiceAsync.class);
     }
 
+    /**
+     * The action of the Intent that binds to WeatherSubscription
+     * rather than WeatherRequest.
+     */
+    public static final String ACTION_SUBSCRIBE =
+        "com.example.weatherservice.action.SUBSCRIBE";
+
+    /**
+     * Factory method that makes an Intent used to bind to the
+     * WeatherSubscription interface of the WeatherServiceAsync when
+     * passed to bindService().
+     *
+     * @param context The context of the calling component.
+     */
+    public static Intent makeSubscriptionIntent(Context context) {
+        return makeIntent(context).setAction(ACTION_SUBSCRIBE);
+    }
+
+    /**
+     * Polls subscribed locations and pushes their weather to the
+     * subscribers.
+     */
+    private WeatherSubscriptions mSubscriptions;
+
+    /**
+     * Hook method called when the Service is created.  Connects
+     * this process's WeatherCache to the tier shared with the other
+     * service process.
+     */
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        WeatherCache.INSTANCE.attachSharedTier(this);
+        mSubscriptions = new WeatherSubscriptions(WeatherCache.INSTANCE);
+    }
+
+    /**
+     * Hook method called when the last client unbinds.  Stops
+     * polling for subscribers.
+     */
+    @Override
+    public void onDestroy() {
+        mSubscriptions.shutdown();
+        super.onDestroy();
+    }
+
     /**
      * Called when a client (e.g., MainActivity) calls
      * bindService() with the proper Intent.  Returns the
-     * implementation of WeatherRequest, which is implicitly cast as
-     * an IBinder.
+     * implementation of WeatherSubscription for an Intent made by
+     * makeSubscriptionIntent(), and otherwise of WeatherRequest,
+     * which is implicitly cast as an IBinder.
      */
     @Override
     public IBinder onBind(Intent intent) {
+        if(ACTION_SUBSCRIBE.equals(intent.getAction())) {
+            return mSubscriptionImpl;
+        }
         return mWeatherResultsImpl;
     }
 
+    /**
+     * The concrete implementation of the AIDL Interface
+     * WeatherSubscription, which hands each call to mSubscriptions.
+     */
+    private final WeatherSubscription.Stub mSubscriptionImpl = new WeatherSubscription.Stub() {
+        @Override
+        public void subscribe(String location,
+                              long minInterval,
+                              WeatherResults callback) throws RemoteException {
+            Log.d(TAG, "subscribe");
+
+            mSubscriptions.subscribe(location, minInterval, callback);
+        }
+
+        @Override
+        public void unsubscribe(String location, WeatherResults callback) throws RemoteException {
+            Log.d(TAG, "unsubscribe");
+
+            mSubscriptions.unsubscribe(location, callback);
+        }
+    };
+
     /**
      * The concrete implementation of the AIDL Interface
      * WeatherRequest, which extends the Stub class that implements
@@ -53,17 +135,141 @@ public class WeatherServiceAsync extends LifecycleLoggingService {
         public void getCurrentWeather(String location, WeatherResults callback) throws RemoteException {
             Log.d(TAG, "getCurrentWeather");
 
-            List<WeatherData> results = WeatherCache.INSTANCE.get(location);
+            WeatherDataList results = WeatherCache.INSTANCE.getReply(location);
+            Log.d(TAG, "WeatherData results = " + results);
+
+            // Always reply, so the client isn't left waiting when
+            // the location is unknown or the lookup failed.
             if(results == null) {
-                results = Utils.getWeather(location);
-                WeatherCache.INSTANCE.put(location, results);
+                results = new WeatherDataList();
             }
-            Log.d(TAG, "WeatherData results = " + results);
+            callback.sendResults(results);
+        }
+
+        @Override
+        public void getCurrentWeatherBatch(List<String> locations, WeatherResults callback) throws RemoteException {
+            Log.d(TAG, "getCurrentWeatherBatch");
+
+            callback.sendResults(new WeatherDataList(WeatherCache.INSTANCE.getOrFetchAll(locations)));
+        }
+
+        @Override
+        public void getCurrentWeatherFields(String location,
+                                            int fields,
+                                            WeatherResults callback) throws RemoteException {
+            Log.d(TAG, "getCurrentWeatherFields");
 
-            if(results != null) {
-                callback.sendResults(results);
+            WeatherDataList results = WeatherCache.INSTANCE.getReply(location, fields);
+            if(results == null) {
+                results = new WeatherDataList();
             }
+            callback.sendResults(results);
+        }
+
+        @Override
+        public void streamCurrentWeather(List<String> locations,
+                                         final WeatherResults callback) throws RemoteException {
+            Log.d(TAG, "streamCurrentWeather");
+
+            final long start = SystemClock.elapsedRealtime();
+            final AtomicInteger cached = new AtomicInteger();
+            final AtomicInteger downloaded = new AtomicInteger();
+            final AtomicInteger errors = new AtomicInteger();
+
+            // Each location is sent as soon as the cache has it, so
+            // the calls below run on several threads at once.
+            // WeatherResults is oneway, so none of them block.
+            WeatherCache.INSTANCE.lookupAll(locations, new WeatherCache.LookupListener() {
+                    @Override
+                    public void onLookup(String location,
+                                         WeatherCache.Entry entry,
+                                         boolean fromCache) {
+                        try {
+                            final int code = errorCodeOf(entry);
+                            if(code != 0) {
+                                errors.incrementAndGet();
+                                callback.onError(location, code);
+                                return;
+                            }
+                            (fromCache ? cached : downloaded).incrementAndGet();
+                            for(WeatherData result : entry.getData()) {
+                                callback.onPartial(location, result);
+                            }
+                        } catch (RemoteException e) {
+                            Log.w(TAG, "Unable to send results for " + location, e);
+                        }
+                    }
+                });
+
+            // lookupAll() reports every location before it returns,
+            // even when interrupted, so this is the last call.
+            callback.onComplete(new WeatherStats(cached.get(),
+                                                 downloaded.get(),
+                                                 errors.get(),
+                                                 SystemClock.elapsedRealtime() - start));
+        }
+
+        @Override
+        public void getForecast(String location, WeatherResults callback) throws RemoteException {
+            Log.d(TAG, "getForecast");
+
+            final WeatherForecast forecast;
+            try {
+                forecast = ForecastCache.INSTANCE.getOrFetch(location);
+            } catch (UnknownLocationException e) {
+                callback.onError(location, WeatherStats.ERROR_NOT_FOUND);
+                return;
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to get the forecast for " + location, e);
+                callback.onError(location, WeatherStats.ERROR_FAILED);
+                return;
+            }
+            callback.sendForecast(location, forecast);
+        }
+
+        @Override
+        public void getCurrentWeatherSince(String location,
+                                           long version,
+                                           WeatherResults callback) throws RemoteException {
+            Log.d(TAG, "getCurrentWeatherSince");
+
+            WeatherDelta delta = WeatherCache.INSTANCE.getDelta(location, version);
+            if(delta == null) {
+                delta = WeatherDelta.full(WeatherDelta.NO_VERSION, new WeatherDataList());
+            }
+            callback.sendDelta(location, delta);
+        }
+
+        @Override
+        public void getCurrentWeatherAt(double lat,
+                                        double lon,
+                                        WeatherResults callback) throws RemoteException {
+            Log.d(TAG, "getCurrentWeatherAt");
+
+            WeatherDataList results = WeatherCache.INSTANCE.getReplyAt(lat, lon);
+            if(results == null) {
+                results = new WeatherDataList();
+            }
+            callback.sendResults(results);
         }
     };
 
+    /**
+     * Return the WeatherStats.ERROR_* code to report for @a entry,
+     * or 0 if it holds results.
+     */
+    private static int errorCodeOf(WeatherCache.Entry entry) {
+        if(entry == null) {
+            return WeatherStats.ERROR_FAILED;
+        }
+        switch(entry.getKind()) {
+        case NOT_FOUND:
+            return WeatherStats.ERROR_NOT_FOUND;
+        case FAILED:
+            return WeatherStats.ERROR_FAILED;
+        default:
+            return 0;
+        }
+    }
+
 }
@@ -7,11 +7,13 @@ import android.os.RemoteException;
 import android.util.Log;
 
 import com.example.weatherservice.WeatherCall;
-import com.example.weatherservice.WeatherData;
-import com.example.weatherservice.utils.Utils;
+import com.example.weatherservice.WeatherDataList;
+import com.example.weatherservice.WeatherDelta;
+import com.example.weatherservice.WeatherForecast;
+import com.example.weatherservice.utils.ForecastCache;
 import com.example.weatherservice.utils.WeatherCache;
 
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.List;
 
 public class WeatherServiceSync extends LifecycleLoggingService {
@@ -25,6 +27,17 @@ public class WeatherServiceSync extends LifecycleLoggingService {
         return new Intent(context, WeatherServiceSync.class);
     }
 
+    /**
+     * Hook method called when the Service is created.  Connects
+     * this process's WeatherCache to the tier shared with the other
+     * service process.
+     */
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        WeatherCache.INSTANCE.attachSharedTier(this);
+    }
+
     /**
      * Called when a client (e.g., AcronymActivity) calls
      * bindService() with the proper Intent.  Returns the
@@ -48,17 +61,65 @@ public class WeatherServiceSync extends LifecycleLoggingService {
      */
     private final WeatherCall.Stub mWeatherResultsImpl = new WeatherCall.Stub() {
         @Override
-        public List<WeatherData> getCurrentWeather(String location) throws RemoteException {
+        public WeatherDataList getCurrentWeather(String location) throws RemoteException {
             Log.d(TAG, "getCurrentWeather");
 
-            List<WeatherData> results = WeatherCache.INSTANCE.get(location);
+            WeatherDataList results = WeatherCache.INSTANCE.getReply(location);
+            Log.d(TAG, "WeatherData results = " + results);
             if(results == null) {
-                results = Utils.getWeather(location);
-                WeatherCache.INSTANCE.put(location, results);
+                return new WeatherDataList();
             }
-            Log.d(TAG, "WeatherData results = " + results);
+            return results;
+        }
+
+        @Override
+        public WeatherDataList getCurrentWeatherBatch(List<String> locations) throws RemoteException {
+            Log.d(TAG, "getCurrentWeatherBatch");
+
+            return new WeatherDataList(WeatherCache.INSTANCE.getOrFetchAll(locations));
+        }
+
+        @Override
+        public WeatherDataList getCurrentWeatherFields(String location, int fields) throws RemoteException {
+            Log.d(TAG, "getCurrentWeatherFields");
+
+            WeatherDataList results = WeatherCache.INSTANCE.getReply(location, fields);
+            if(results == null) {
+                return new WeatherDataList();
+            }
+            return results;
+        }
+
+        @Override
+        public WeatherForecast getForecast(String location) throws RemoteException {
+            Log.d(TAG, "getForecast");
+
+            try {
+                return ForecastCache.INSTANCE.getOrFetch(location);
+            } catch (IOException e) {
+                Log.d(TAG, "No forecast for " + location, e);
+                return null;
+            }
+        }
+
+        @Override
+        public WeatherDelta getCurrentWeatherSince(String location, long version) throws RemoteException {
+            Log.d(TAG, "getCurrentWeatherSince");
+
+            WeatherDelta delta = WeatherCache.INSTANCE.getDelta(location, version);
+            if(delta == null) {
+                return WeatherDelta.full(WeatherDelta.NO_VERSION, new WeatherDataList());
+            }
+            return delta;
+        }
+
+        @Override
+        public WeatherDataList getCurrentWeatherAt(double lat, double lon) throws RemoteException {
+            Log.d(TAG, "getCurrentWeatherAt");
+
+            WeatherDataList results = WeatherCache.INSTANCE.getReplyAt(lat, lon);
             if(results == null) {
-                return new ArrayList<>();
+                return new WeatherDataList();
             }
             return results;
         }
@@ -0,0 +1,189 @@
+package com.example.weatherservice.utils;
+
+import android.text.TextUtils;
+
+import com.example.weatherservice.WeatherForecast;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Process-local cache of WeatherForecasts, keyed like WeatherCache by
+ * normalized location.  Forecasts only change every three hours and
+ * are immutable, so each is simply kept for a TTL and the cached
+ * instance is handed to every caller.  Concurrent misses on the same
+ * location share one download, as in WeatherCache.  Failed lookups
+ * aren't cached.
+ */
+public enum ForecastCache {
+    INSTANCE;
+
+    private final static long DEFAULT_TTL = 30 * 60 * 1000; // 30 minutes
+    private final static int DEFAULT_MAX_ENTRIES = 100;
+
+    /**
+     * Downloads the forecast for a location on a cache miss.
+     */
+    public interface Loader {
+        /**
+         * Returns the forecast for @a location.  Throws
+         * UnknownLocationException if there is no such location, or
+         * another IOException if the download failed.
+         */
+        WeatherForecast load(String location) throws IOException;
+    }
+
+    /**
+     * The default Loader, which goes to the Weather Service.
+     */
+    private static class NetworkLoader implements Loader {
+        @Override
+        public WeatherForecast load(String location) throws IOException {
+            return Utils.fetchForecast(location);
+        }
+    }
+
+    /**
+     * A cached forecast and the time at which it was downloaded.
+     */
+    private static class Entry {
+        final WeatherForecast mForecast;
+        final long mCachedAt;
+
+        Entry(WeatherForecast forecast, long cachedAt) {
+            mForecast = forecast;
+            mCachedAt = cachedAt;
+        }
+    }
+
+    private volatile Loader mLoader = new NetworkLoader();
+    private volatile long mTtl = DEFAULT_TTL;
+    private volatile int mMaxEntries = DEFAULT_MAX_ENTRIES;
+
+    private final ConcurrentHashMap<String, Entry> mForecasts = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, FutureTask<WeatherForecast>> mInFlight =
+        new ConcurrentHashMap<>();
+
+    /**
+     * Replace the Loader used on a miss, e.g., for testing.  Null
+     * restores the default.
+     */
+    public void setLoader(Loader loader) {
+        mLoader = loader == null ? new NetworkLoader() : loader;
+    }
+
+    public void setTtl(long ttl) {
+        mTtl = ttl;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        mMaxEntries = maxEntries;
+    }
+
+    /**
+     * Return the forecast for @a location, downloading it if it
+     * isn't cached.  Throws UnknownLocationException if the Weather
+     * Service doesn't know the location, or some other IOException
+     * if the download failed.
+     */
+    public WeatherForecast getOrFetch(String location) throws IOException {
+        final String key = WeatherCache.normalizeLocation(location);
+        if (TextUtils.isEmpty(key)) {
+            throw new UnknownLocationException(location);
+        }
+        final WeatherForecast cached = get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final FutureTask<WeatherForecast> task =
+            new FutureTask<>(new Callable<WeatherForecast>() {
+                    @Override
+                    public WeatherForecast call() throws IOException {
+                        // A download that finished after the miss
+                        // above, and left mInFlight before this task
+                        // entered it, has already done the work.
+                        final WeatherForecast settled = get(key);
+                        if (settled != null) {
+                            return settled;
+                        }
+                        final WeatherForecast forecast = mLoader.load(key);
+                        put(key, forecast);
+                        return forecast;
+                    }
+                });
+        FutureTask<WeatherForecast> download = mInFlight.putIfAbsent(key, task);
+        if (download == null) {
+            download = task;
+            try {
+                task.run();
+            } finally {
+                mInFlight.remove(key, task);
+            }
+        }
+
+        try {
+            return download.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for the forecast for " + location);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Return the cached forecast for the normalized @a key, or null if
+     * there is none within the TTL.  Never downloads.
+     */
+    public WeatherForecast get(String key) {
+        final Entry entry = mForecasts.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - mTtl > entry.mCachedAt) {
+            mForecasts.remove(key, entry);
+            return null;
+        }
+        return entry.mForecast;
+    }
+
+    /**
+     * Cache @a forecast for the normalized @a key, making room by
+     * evicting the oldest forecast if the cache is full.
+     */
+    public void put(String key, WeatherForecast forecast) {
+        mForecasts.put(key, new Entry(forecast, System.currentTimeMillis()));
+        while (mForecasts.size() > mMaxEntries) {
+            Map.Entry<String, Entry> oldest = null;
+            for (Map.Entry<String, Entry> e : mForecasts.entrySet()) {
+                if (oldest == null || e.getValue().mCachedAt < oldest.getValue().mCachedAt) {
+                    oldest = e;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            mForecasts.remove(oldest.getKey(), oldest.getValue());
+        }
+    }
+
+    public int size() {
+        return mForecasts.size();
+    }
+
+    public void clear() {
+        mForecasts.clear();
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.weatherservice.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * Performs the HTTP GETs made to the Weather Service.  Utils uses
+ * UrlConnectionTransport unless another implementation is supplied
+ * via Utils.setTransport(), e.g., for testing.
+ */
+public interface HttpTransport {
+    /**
+     * Issue a GET for @a url.  The caller must close the Response,
+     * which lets the connection be reused.
+     */
+    Response get(URL url) throws IOException;
+
+    /**
+     * The status code and body of a reply.  The body has already
+     * been decompressed if the server compressed it.
+     */
+    class Response implements Closeable {
+        private final int mStatusCode;
+        private final InputStream mBody;
+
+        public Response(int statusCode, InputStream body) {
+            mStatusCode = statusCode;
+            mBody = body;
+        }
+
+        public int getStatusCode() {
+            return mStatusCode;
+        }
+
+        public InputStream getBody() {
+            return mBody;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mBody != null) {
+                mBody.close();
+            }
+        }
+    }
+}
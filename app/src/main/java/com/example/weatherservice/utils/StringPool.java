@@ -0,0 +1,132 @@
+package com.example.weatherservice.utils;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded pool of canonical String instances, so that the many
+ * WeatherData holding the same country code or description ("US",
+ * "clear sky", ...) share one String rather than each keeping its
+ * own copy.
+ * <p/>
+ * Unlike String.intern() the pool has a fixed number of slots and
+ * holds its Strings weakly, so it neither grows without bound nor
+ * keeps values alive that nothing else uses.  A value hashes to two
+ * adjacent slots; when both are taken by other values one of them
+ * is replaced, which only costs some sharing.  Slots are read and
+ * written without locks, and a lost race just means two equal
+ * Strings briefly coexist.
+ */
+public final class StringPool {
+    /**
+     * The pool used for the repeated values of WeatherData.
+     */
+    public static final StringPool WEATHER_VALUES = new StringPool(1024, 48);
+
+    private final AtomicReferenceArray<WeakReference<String>> mSlots;
+    private final int mMask;
+
+    /**
+     * Values longer than this are unlikely to repeat, so they are
+     * returned as they are rather than displacing ones that do.
+     */
+    private final int mMaxLength;
+
+    /**
+     * Create a pool of @a capacity slots, rounded up to a power of
+     * two, for values of up to @a maxLength chars.
+     */
+    public StringPool(int capacity, int maxLength) {
+        int size = 2;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        mSlots = new AtomicReferenceArray<>(size);
+        mMask = size - 1;
+        mMaxLength = maxLength;
+    }
+
+    /**
+     * Return the pooled String equal to @a s, adding @a s to the pool
+     * if there is none.
+     */
+    public String intern(String s) {
+        if (s == null || s.length() > mMaxLength) {
+            return s;
+        }
+        final int slot = slotOf(s.hashCode());
+        for (int i = 0; i < 2; i++) {
+            final String pooled = get(slot ^ i);
+            if (pooled != null && (pooled == s || pooled.equals(s))) {
+                return pooled;
+            }
+        }
+        add(slot, s);
+        return s;
+    }
+
+    /**
+     * Return the pooled String holding the @a length chars of @a
+     * chars starting at @a offset.  Only allocates a String if there
+     * is none in the pool.
+     */
+    public String intern(char[] chars, int offset, int length) {
+        if (length > mMaxLength) {
+            return new String(chars, offset, length);
+        }
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + chars[offset + i];
+        }
+        final int slot = slotOf(hash);
+        for (int i = 0; i < 2; i++) {
+            final String pooled = get(slot ^ i);
+            if (pooled != null && regionEquals(pooled, chars, offset, length)) {
+                return pooled;
+            }
+        }
+        final String s = new String(chars, offset, length);
+        add(slot, s);
+        return s;
+    }
+
+    /**
+     * Spread String.hashCode() @a hash and return the first of its
+     * two slots.
+     */
+    private int slotOf(int hash) {
+        hash *= 0x9e3779b9;
+        return (hash ^ (hash >>> 16)) & mMask & ~1;
+    }
+
+    private String get(int slot) {
+        final WeakReference<String> ref = mSlots.get(slot);
+        return ref == null ? null : ref.get();
+    }
+
+    /**
+     * Put @a s in whichever of the two slots at @a slot is empty or
+     * cleared, or else in the second one, which always takes the
+     * newest arrival while the first keeps the older value.
+     */
+    private void add(int slot, String s) {
+        final WeakReference<String> ref = new WeakReference<>(s);
+        if (get(slot) == null) {
+            mSlots.set(slot, ref);
+        } else {
+            mSlots.set(slot + 1, ref);
+        }
+    }
+
+    private static boolean regionEquals(String s, char[] chars, int offset, int length) {
+        if (s.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (s.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.weatherservice.utils;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the Weather Service doesn't recognize a location, as
+ * opposed to failing to answer at all.
+ */
+public class UnknownLocationException extends IOException {
+    public UnknownLocationException(String location) {
+        super("Unknown location " + location);
+    }
+}
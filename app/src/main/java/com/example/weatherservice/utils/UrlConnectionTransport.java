@@ -0,0 +1,106 @@
+package com.example.weatherservice.utils;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * An HttpTransport built on HttpURLConnection that keeps connections
+ * alive between requests.  HttpURLConnection returns a connection to
+ * its pool once the response body has been read to the end and
+ * closed, as long as disconnect() isn't called, so Response.close()
+ * drains the body rather than disconnecting.  Keep-alive is on by
+ * default; the size of the pool is left to the app's setup (the
+ * http.maxConnections system property).
+ * <p/>
+ * Asks for gzip explicitly, which also means decompressing
+ * explicitly; the body is decompressed as it streams into the
+ * parser.
+ */
+public class UrlConnectionTransport implements HttpTransport {
+    private final static int DEFAULT_CONNECT_TIMEOUT = 5 * 1000; // 5 seconds
+    private final static int DEFAULT_READ_TIMEOUT = 10 * 1000; // 10 seconds
+
+    private final int mConnectTimeout;
+    private final int mReadTimeout;
+
+    public UrlConnectionTransport() {
+        this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * @param connectTimeout milliseconds to wait for a connection
+     * @param readTimeout milliseconds to wait for each read
+     */
+    public UrlConnectionTransport(int connectTimeout, int readTimeout) {
+        mConnectTimeout = connectTimeout;
+        mReadTimeout = readTimeout;
+    }
+
+    @Override
+    public Response get(URL url) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(mConnectTimeout);
+        connection.setReadTimeout(mReadTimeout);
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+
+        final int statusCode = connection.getResponseCode();
+        InputStream body = statusCode >= HttpURLConnection.HTTP_BAD_REQUEST
+            ? connection.getErrorStream()
+            : connection.getInputStream();
+        if (body == null) {
+            return new Response(statusCode, null);
+        }
+        body = new DrainingInputStream(new BufferedInputStream(body));
+        if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+            try {
+                body = new GZIPInputStream(body);
+            } catch (IOException e) {
+                // A bad gzip header; don't leak the connection.
+                closeQuietly(body);
+                throw e;
+            }
+        }
+        return new Response(statusCode, body);
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            // Already failing.
+        }
+    }
+
+    /**
+     * Reads whatever the consumer left unread before closing, so the
+     * connection can go back to the pool.
+     */
+    private static class DrainingInputStream extends FilterInputStream {
+        private boolean mClosed;
+
+        DrainingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            try {
+                final byte[] buffer = new byte[1024];
+                while (in.read(buffer) != -1) {
+                    // Discard.
+                }
+            } finally {
+                super.close();
+            }
+        }
+    }
+}
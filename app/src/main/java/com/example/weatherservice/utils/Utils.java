@@ -8,16 +8,19 @@ import android.view.inputmethod.InputMethodManager;
 import android.widget.Toast;
 
 import com.example.weatherservice.WeatherData;
-import com.example.weatherservice.jsonweather.JsonWeather;
+import com.example.weatherservice.WeatherForecast;
 import com.example.weatherservice.jsonweather.WeatherJSONParser;
 
-import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static com.example.weatherservice.BuildConfig.DEBUG;
@@ -28,48 +31,304 @@ public class Utils {
      */
     private final static String TAG = Utils.class.getCanonicalName();
 
+    /**
+     * Used for all requests to the Weather Service.
+     */
+    private static volatile HttpTransport sTransport = new UrlConnectionTransport();
+
     private Utils() {
     }
 
-    public static List<WeatherData> getWeather(String location) {
-
-        List<JsonWeather> jsonWeatherList = null;
-        List<WeatherData> weatherDataList = new ArrayList<>();
+    /**
+     * Replace the HttpTransport used to reach the Weather Service,
+     * e.g., for testing.  Null restores the default.
+     */
+    public static void setTransport(HttpTransport transport) {
+        sTransport = transport == null ? new UrlConnectionTransport() : transport;
+    }
 
+    /**
+     * Download the current weather for @a location, returning an
+     * empty List if it can't be found or the download fails.
+     */
+    public static List<WeatherData> getWeather(String location) {
         try {
-            StringBuilder sb = new StringBuilder();
-            sb.append("http://api.openweathermap.org/data/2.5/weather?units=imperial&q=");
-            sb.append(URLEncoder.encode(location, "UTF-8"));
-            sb.append("&appid=da3b9dcfcc850a80c9df6a08c030a0fc");
-
-            if(DEBUG) Log.d(TAG, "Weather URL: " + sb.toString());
-
-            final URL url = new URL(sb.toString());
-            HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-            try (InputStream in = new BufferedInputStream(urlConnection.getInputStream())) {
-                jsonWeatherList = new WeatherJSONParser().parseJsonStream(in);
-            } finally {
-                urlConnection.disconnect();
-            }
+            return fetchWeather(location);
         } catch (IOException e) {
             Log.d(TAG, e.getMessage(), e);
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Download the current weather for @a location.  Throws
+     * UnknownLocationException if the Weather Service doesn't know
+     * the location, or some other IOException if it couldn't be
+     * reached.
+     */
+    public static List<WeatherData> fetchWeather(String location) throws IOException {
+        return fetchWeather(location, WeatherData.ALL_FIELDS);
+    }
+
+    /**
+     * Like fetchWeather(String), but only decode the WeatherData
+     * @a fields given by a mask of WeatherData.FIELD_* bits.
+     */
+    public static List<WeatherData> fetchWeather(String location, int fields) throws IOException {
+        return fetchWeather(location, fields, WeatherCache.Download.NO_HASH).getData();
+    }
+
+    /**
+     * Like fetchWeather(String, int), but also hash the reply, and
+     * if the hash is @a knownHash, the hash of an earlier reply
+     * whose results the caller still has, don't parse it: the
+     * Download then has no data.  The Weather Service only updates a
+     * station every several minutes, so most polls get the same
+     * reply back.  Such a reply is read whole before it is parsed;
+     * without a @a knownHash it is parsed as it streams in.
+     */
+    public static WeatherCache.Download fetchWeather(String location, int fields, long knownHash)
+        throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("http://api.openweathermap.org/data/2.5/weather?units=imperial&q=");
+        sb.append(URLEncoder.encode(location, "UTF-8"));
+        sb.append("&appid=da3b9dcfcc850a80c9df6a08c030a0fc");
+
+        return fetchWeather(sb.toString(), location, fields, knownHash);
+    }
+
+    /**
+     * Download the current weather at latitude @a lat and longitude
+     * @a lon, in degrees, which the Weather Service answers with the
+     * nearest city it knows.  Throws UnknownLocationException if
+     * there is none, or some other IOException if it couldn't be
+     * reached.
+     */
+    public static List<WeatherData> fetchWeatherAt(double lat, double lon) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("http://api.openweathermap.org/data/2.5/weather?units=imperial&lat=");
+        sb.append(lat);
+        sb.append("&lon=");
+        sb.append(lon);
+        sb.append("&appid=da3b9dcfcc850a80c9df6a08c030a0fc");
+
+        return fetchWeather(sb.toString(),
+                            lat + "," + lon,
+                            WeatherData.ALL_FIELDS,
+                            WeatherCache.Download.NO_HASH).getData();
+    }
+
+    /**
+     * Download the current weather for @a location from @a url, as
+     * fetchWeather(String, int, long) describes.
+     */
+    private static WeatherCache.Download fetchWeather(String url,
+                                                      String location,
+                                                      int fields,
+                                                      long knownHash) throws IOException {
+        List<WeatherData> weatherDataList;
+        long bodyHash;
+
+        if(DEBUG) Log.d(TAG, "Weather URL: " + url);
+
+        try (HttpTransport.Response response = sTransport.get(new URL(url))) {
+            if (response.getStatusCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+                throw new UnknownLocationException(location);
+            }
+            if (response.getStatusCode() != HttpURLConnection.HTTP_OK
+                || response.getBody() == null) {
+                throw new IOException("Weather Service returned HTTP " + response.getStatusCode());
+            }
+            // Error replies, e.g. {"cod":"404","message":"city not
+            // found"}, are dropped by the parser.
+            if (knownHash == WeatherCache.Download.NO_HASH) {
+                // Nothing to compare with, so parse the reply as it
+                // streams in and hash it on the way.
+                final HashingInputStream body = new HashingInputStream(response.getBody());
+                weatherDataList = new WeatherJSONParser().parseWeatherData(body, fields);
+                bodyHash = body.finish();
+            } else {
+                // Only a whole reply can be compared, and an unchanged
+                // one isn't parsed at all, which saves far more than
+                // the copy costs.
+                final BodyBuffer body = BodyBuffer.acquire();
+                body.readFrom(response.getBody());
+                bodyHash = body.hash();
+                if (bodyHash == knownHash) {
+                    if(DEBUG) Log.d(TAG, "Weather for " + location + " is unchanged");
+                    return new WeatherCache.Download(null, bodyHash);
+                }
+                weatherDataList = new WeatherJSONParser().parseWeatherData(body.toInputStream(), fields);
+            }
+        }
+
+        if (weatherDataList.isEmpty()) {
+            throw new UnknownLocationException(location);
+        }
+        return new WeatherCache.Download(weatherDataList, bodyHash);
+    }
+
+    /*
+     * 64-bit FNV-1a, which hashes the replies.
+     */
+    private final static long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private final static long FNV_PRIME = 0x100000001b3L;
+
+    private static long hash(long hash, byte[] b, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            hash ^= b[i] & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Return @a hash, or another value if it is
+     * WeatherCache.Download.NO_HASH.
+     */
+    private static long finishHash(long hash) {
+        return hash == WeatherCache.Download.NO_HASH ? 1 : hash;
+    }
+
+    /**
+     * Hashes a reply as it is read.
+     */
+    private static class HashingInputStream extends FilterInputStream {
+        private long mHash = FNV_OFFSET_BASIS;
+
+        HashingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = in.read();
+            if (b >= 0) {
+                mHash = (mHash ^ b) * FNV_PRIME;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int n = in.read(b, off, len);
+            if (n > 0) {
+                mHash = hash(mHash, b, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes must still be hashed.
+            final byte[] skipped = new byte[(int) Math.min(n, 512)];
+            final int read = read(skipped, 0, skipped.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * Read whatever the parser left, e.g., trailing whitespace,
+         * and return the hash of the whole reply, which is never
+         * WeatherCache.Download.NO_HASH.
+         */
+        long finish() throws IOException {
+            final byte[] rest = new byte[512];
+            while (read(rest, 0, rest.length) >= 0) {
+                // Hashed by read().
+            }
+            return finishHash(mHash);
+        }
+    }
+
+    /**
+     * Holds a whole reply so it can be hashed before it is parsed.
+     * Each thread reuses its own, unless a reply made it grow past
+     * MAX_KEPT_SIZE.
+     */
+    private static class BodyBuffer extends ByteArrayOutputStream {
+        private final static int MAX_KEPT_SIZE = 64 * 1024;
+
+        private final static ThreadLocal<BodyBuffer> sBuffers = new ThreadLocal<>();
+
+        BodyBuffer() {
+            super(4096);
+        }
+
+        static BodyBuffer acquire() {
+            BodyBuffer buffer = sBuffers.get();
+            if (buffer == null || buffer.buf.length > MAX_KEPT_SIZE) {
+                buffer = new BodyBuffer();
+                sBuffers.set(buffer);
+            }
+            buffer.reset();
+            return buffer;
+        }
+
+        /**
+         * Read all of @a in, straight into the buffer.
+         */
+        void readFrom(InputStream in) throws IOException {
+            while (true) {
+                if (count == buf.length) {
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                }
+                final int n = in.read(buf, count, buf.length - count);
+                if (n < 0) {
+                    return;
+                }
+                count += n;
+            }
+        }
+
+        /**
+         * 64-bit FNV-1a hash of the contents, which is never
+         * WeatherCache.Download.NO_HASH.
+         */
+        long hash() {
+            return finishHash(Utils.hash(FNV_OFFSET_BASIS, buf, 0, count));
+        }
+
+        InputStream toInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
         }
+    }
+
+    /**
+     * Download the 5 day / 3 hour forecast for @a location.  Throws
+     * UnknownLocationException if the Weather Service doesn't know
+     * the location, or some other IOException if it couldn't be
+     * reached.
+     */
+    public static WeatherForecast fetchForecast(String location) throws IOException {
+        WeatherForecast forecast;
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("http://api.openweathermap.org/data/2.5/forecast?units=imperial&q=");
+        sb.append(URLEncoder.encode(location, "UTF-8"));
+        sb.append("&appid=da3b9dcfcc850a80c9df6a08c030a0fc");
+
+        if(DEBUG) Log.d(TAG, "Forecast URL: " + sb.toString());
 
-        if (jsonWeatherList != null) {
-            for (JsonWeather w : jsonWeatherList) {
-                weatherDataList.add(new WeatherData(
-                        w.getName(),
-                        w.getWind().getSpeed(),
-                        w.getWind().getDeg(),
-                        w.getMain().getTemp(),
-                        w.getMain().getHumidity(),
-                        w.getSys().getSunrise(),
-                        w.getSys().getSunset(),
-                        w.getWeather().get(0).getDescription(),
-                        w.getSys().getCountry()));
+        try (HttpTransport.Response response = sTransport.get(new URL(sb.toString()))) {
+            if (response.getStatusCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+                throw new UnknownLocationException(location);
             }
+            if (response.getStatusCode() != HttpURLConnection.HTTP_OK
+                || response.getBody() == null) {
+                throw new IOException("Weather Service returned HTTP " + response.getStatusCode());
+            }
+            forecast = new WeatherJSONParser().parseForecast(response.getBody());
+        }
+
+        if (forecast == null) {
+            throw new UnknownLocationException(location);
         }
-        return weatherDataList;
+        return forecast;
     }
 
     /**
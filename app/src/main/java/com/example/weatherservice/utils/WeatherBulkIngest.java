@@ -0,0 +1,348 @@
+package com.example.weatherservice.utils;
+
+import android.util.Log;
+
+import com.example.weatherservice.WeatherData;
+import com.example.weatherservice.jsonweather.WeatherJSONParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Pre-populates a WeatherCache from one of the OpenWeatherMap bulk
+ * files of current conditions: gzip'd text with one JSON object per
+ * line.  Thousands of cities arrive in one file rather than one
+ * HTTP request each.
+ * <p/>
+ * The file is decompressed as a stream and cut into chunks of whole
+ * lines.  While a ForkJoinPool parses one chunk, splitting it into
+ * runs of lines for its workers, the next chunk is read; the
+ * finished chunk is then loaded into the cache with
+ * WeatherCache.putAll().  At most two chunks are held at once, so
+ * memory use doesn't grow with the size of the file.  Every city is
+ * stamped with the time the ingest started.
+ * <p/>
+ * Cities are keyed by their normalized name, so when a file has
+ * several cities of the same name only one of them is kept.
+ */
+public class WeatherBulkIngest {
+    private final static String TAG = WeatherBulkIngest.class.getSimpleName();
+
+    /**
+     * Bytes of whole lines read per chunk.  Lines longer than this
+     * get a chunk of their own.
+     */
+    private final static int CHUNK_SIZE = 256 * 1024;
+
+    /**
+     * Runs of lines no longer than this many bytes are parsed by a
+     * single worker rather than split further.
+     */
+    private final static int SPLIT_SIZE = 16 * 1024;
+
+    private final WeatherCache mCache;
+    private final int mParallelism;
+
+    /**
+     * Ingest into @a cache using one worker per CPU.
+     */
+    public WeatherBulkIngest(WeatherCache cache) {
+        this(cache, Runtime.getRuntime().availableProcessors());
+    }
+
+    public WeatherBulkIngest(WeatherCache cache, int parallelism) {
+        mCache = cache;
+        mParallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * What an ingest did, and how fast.
+     */
+    public static class Report {
+        private final int mLines;
+        private final int mCities;
+        private final int mSkipped;
+        private final long mElapsedNanos;
+
+        Report(int lines, int cities, int skipped, long elapsedNanos) {
+            mLines = lines;
+            mCities = cities;
+            mSkipped = skipped;
+            mElapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * Number of non-blank lines read.
+         */
+        public int getLines() {
+            return mLines;
+        }
+
+        /**
+         * Number of cities loaded into the cache.
+         */
+        public int getCities() {
+            return mCities;
+        }
+
+        /**
+         * Number of lines that couldn't be parsed or held no city.
+         */
+        public int getSkipped() {
+            return mSkipped;
+        }
+
+        public long getElapsedMillis() {
+            return mElapsedNanos / 1000000;
+        }
+
+        public double getCitiesPerSecond() {
+            return mElapsedNanos == 0 ? 0 : mCities * 1e9 / mElapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                                 "%d cities from %d lines (%d skipped) in %d ms, %.0f cities/s",
+                                 mCities, mLines, mSkipped, getElapsedMillis(),
+                                 getCitiesPerSecond());
+        }
+    }
+
+    /**
+     * Ingest the gzip'd bulk @a file.
+     */
+    public Report ingest(File file) throws IOException {
+        final InputStream in = new GZIPInputStream(new FileInputStream(file), 64 * 1024);
+        try {
+            return ingest(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Ingest the already decompressed lines of @a in, which is not
+     * closed.
+     */
+    public Report ingest(InputStream in) throws IOException {
+        final long start = System.nanoTime();
+        final long cachedAt = System.currentTimeMillis();
+        final Counts counts = new Counts();
+        final ChunkReader chunks = new ChunkReader(in);
+        final ForkJoinPool pool = new ForkJoinPool(mParallelism);
+        try {
+            ParseChunk pending = null;
+            Chunk chunk;
+            while ((chunk = chunks.next()) != null) {
+                final ParseChunk next =
+                    new ParseChunk(chunk, 0, chunk.mLength, counts,
+                                   new ConcurrentHashMap<String, List<WeatherData>>());
+                pool.execute(next);
+                if (pending != null) {
+                    load(pending, cachedAt, counts);
+                }
+                pending = next;
+            }
+            if (pending != null) {
+                load(pending, cachedAt, counts);
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        final Report report = new Report(counts.mLines.get(),
+                                         counts.mCities,
+                                         counts.mSkipped.get(),
+                                         System.nanoTime() - start);
+        Log.i(TAG, "Ingested " + report);
+        return report;
+    }
+
+    /**
+     * Wait for @a task and put the cities it parsed into the cache.
+     */
+    private void load(ParseChunk task, long cachedAt, Counts counts) {
+        task.join();
+        mCache.putAll(task.mResults, cachedAt);
+        counts.mCities += task.mResults.size();
+    }
+
+    /**
+     * Totals for one ingest.  mCities is only touched by the thread
+     * running ingest().
+     */
+    private static class Counts {
+        final AtomicInteger mLines = new AtomicInteger();
+        final AtomicInteger mSkipped = new AtomicInteger();
+        int mCities;
+    }
+
+    /**
+     * A run of whole lines: the first mLength bytes of mData.
+     */
+    private static class Chunk {
+        final byte[] mData;
+        final int mLength;
+
+        Chunk(byte[] data, int length) {
+            mData = data;
+            mLength = length;
+        }
+    }
+
+    /**
+     * Cuts a stream into Chunks, carrying the partial line at the end
+     * of each read over to the next Chunk.
+     */
+    private static class ChunkReader {
+        private final InputStream mIn;
+        private byte[] mCarry = new byte[0];
+        private boolean mEof;
+
+        ChunkReader(InputStream in) {
+            mIn = in;
+        }
+
+        /**
+         * Return the next Chunk, or null at the end of the stream.
+         */
+        Chunk next() throws IOException {
+            if (mEof && mCarry.length == 0) {
+                return null;
+            }
+            byte[] data = new byte[Math.max(CHUNK_SIZE, mCarry.length * 2)];
+            System.arraycopy(mCarry, 0, data, 0, mCarry.length);
+            int length = mCarry.length;
+            int end;
+            for (;;) {
+                while (!mEof && length < data.length) {
+                    final int n = mIn.read(data, length, data.length - length);
+                    if (n < 0) {
+                        mEof = true;
+                    } else {
+                        length += n;
+                    }
+                }
+                end = mEof ? length : lastLineEnd(data, length);
+                if (end > 0 || mEof) {
+                    break;
+                }
+                // A single line is longer than the chunk.
+                final byte[] bigger = new byte[data.length * 2];
+                System.arraycopy(data, 0, bigger, 0, length);
+                data = bigger;
+            }
+            mCarry = new byte[length - end];
+            System.arraycopy(data, end, mCarry, 0, mCarry.length);
+            return end == 0 ? null : new Chunk(data, end);
+        }
+
+        private static int lastLineEnd(byte[] data, int length) {
+            for (int i = length - 1; i >= 0; i--) {
+                if (data[i] == '\n') {
+                    return i + 1;
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Parses the lines in [mFrom, mTo) of a Chunk into mResults,
+     * splitting the range in two at a line boundary until it is no
+     * longer than SPLIT_SIZE.
+     */
+    private static class ParseChunk extends RecursiveAction {
+        private final Chunk mChunk;
+        private final int mFrom;
+        private final int mTo;
+        private final Counts mCounts;
+        final Map<String, List<WeatherData>> mResults;
+
+        ParseChunk(Chunk chunk,
+                   int from,
+                   int to,
+                   Counts counts,
+                   Map<String, List<WeatherData>> results) {
+            mChunk = chunk;
+            mFrom = from;
+            mTo = to;
+            mCounts = counts;
+            mResults = results;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom > SPLIT_SIZE) {
+                final int mid = nextLineStart(mFrom + (mTo - mFrom) / 2);
+                if (mid < mTo) {
+                    ForkJoinTask.invokeAll(new ParseChunk(mChunk, mFrom, mid, mCounts, mResults),
+                                           new ParseChunk(mChunk, mid, mTo, mCounts, mResults));
+                    return;
+                }
+            }
+            parseLines();
+        }
+
+        private int nextLineStart(int i) {
+            final byte[] data = mChunk.mData;
+            while (i < mTo && data[i] != '\n') {
+                i++;
+            }
+            return Math.min(i + 1, mTo);
+        }
+
+        private void parseLines() {
+            final WeatherJSONParser parser = new WeatherJSONParser();
+            final byte[] data = mChunk.mData;
+            int start = mFrom;
+            while (start < mTo) {
+                final int end = nextLineStart(start);
+                if (!isBlank(data, start, end)) {
+                    mCounts.mLines.incrementAndGet();
+                    parseLine(parser, start, end);
+                }
+                start = end;
+            }
+        }
+
+        private void parseLine(WeatherJSONParser parser, int start, int end) {
+            try {
+                final List<WeatherData> results =
+                    parser.parseWeatherData(new ByteArrayInputStream(mChunk.mData,
+                                                                     start,
+                                                                     end - start));
+                if (!results.isEmpty()) {
+                    mResults.put(WeatherCache.normalizeLocation(results.get(0).getmName()),
+                                 results);
+                    return;
+                }
+            } catch (IOException | RuntimeException e) {
+                // Fall through and count the line as skipped.
+            }
+            mCounts.mSkipped.incrementAndGet();
+        }
+
+        private static boolean isBlank(byte[] data, int start, int end) {
+            for (int i = start; i < end; i++) {
+                if (data[i] > ' ') {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
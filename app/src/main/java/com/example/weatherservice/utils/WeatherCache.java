@@ -1,52 +1,1893 @@
 package com.example.weatherservice.utils;
 
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Bundle;
 import android.text.TextUtils;
 import android.util.Log;
 
 import com.example.weatherservice.WeatherData;
+import com.example.weatherservice.WeatherDataList;
+import com.example.weatherservice.WeatherDelta;
+import com.example.weatherservice.provider.WeatherCacheProvider;
 
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
+import static com.example.weatherservice.BuildConfig.DEBUG;
+
+/**
+ * Process-local cache of WeatherData results.  The cache holds
+ * roughly getMaxEntries() locations and evicts approximately the
+ * least recently used one to make room; expired entries are also
+ * swept out a few at a time on each put() rather than lingering
+ * until they are next read.  When a shared tier has been attached
+ * (see attachSharedTier()) local misses fall through to the
+ * WeatherCacheProvider, which holds the one cache that all the
+ * service processes have in common.
+ * <p/>
+ * Entries have a soft and a hard TTL.  Up to the soft TTL an entry
+ * is fresh.  Between the two getOrFetch() still returns it
+ * immediately but schedules a background refresh, so callers don't
+ * wait on the network for a location that is merely a little old.
+ * Entries that are read often as they approach the soft TTL are
+ * refreshed ahead of time.  Past the hard TTL an entry is gone.
+ * <p/>
+ * Failed lookups are cached too, as empty negative entries: a
+ * location the Weather Service doesn't know is remembered for
+ * NOT_FOUND_TTL so typos don't keep going upstream, while a download
+ * that failed is remembered only briefly, for FAILURE_TTL, so a
+ * transient outage isn't pinned.
+ * <p/>
+ * Cities are cached under their Weather Service id once a download
+ * has revealed it, see cityKey(), and the locations that led to
+ * them are remembered as aliases of that key.  So "San Diego", "San
+ * Diego,US" and "92101" share one entry, and one download, after
+ * each has been looked up once.
+ * <p/>
+ * Cities whose coordinates are known are also indexed by a grid of
+ * cells getGeoRadius() kilometers on a side, so lookupAt() can
+ * answer a point near a freshly cached city without going upstream.
+ * <p/>
+ * Reads take no locks: entries live in a ConcurrentHashMap and
+ * carry their own timestamps.  Eviction and sweeping happen on the
+ * put() path under a separate lock that readers never touch.
+ */
 public enum  WeatherCache {
     INSTANCE;
 
     private final static String TAG =  WeatherCache.class.getSimpleName();
-    private final static long MAX_AGE = 10 * 1000; // 10 seconds
+    private final static long DEFAULT_SOFT_TTL = 10 * 1000; // 10 seconds
+    private final static long DEFAULT_HARD_TTL = 5 * 60 * 1000; // 5 minutes
 
-    private HashMap<String, List<WeatherData>> weatherDataMap = new HashMap<>();
-    private HashMap<String, Long> weatherDataDateMap = new HashMap<>();
+    /**
+     * Entries read at least this many times after
+     * REFRESH_AHEAD_FRACTION of their soft TTL are refreshed before
+     * the soft TTL is reached.
+     */
+    private final static int DEFAULT_REFRESH_AHEAD_HITS = 3;
+    private final static double REFRESH_AHEAD_FRACTION = 0.8;
 
-    public synchronized List<WeatherData> get(final String name) {
-        if(TextUtils.isEmpty(name)) {
+    private final static long DEFAULT_NOT_FOUND_TTL = 10 * 60 * 1000; // 10 minutes
+    private final static long DEFAULT_FAILURE_TTL = 5 * 1000; // 5 seconds
+
+    private final static int DEFAULT_MAX_ENTRIES = 500;
+
+    /**
+     * The alias table is cleared once it holds this many aliases per
+     * entry the cache may hold.
+     */
+    private final static int MAX_ALIASES_PER_ENTRY = 4;
+
+    /**
+     * Default radius, in kilometers, within which lookupAt() answers
+     * from a fresh cached city.
+     */
+    private final static double DEFAULT_GEO_RADIUS = 5;
+
+    private final static double EARTH_RADIUS_KM = 6371;
+    private final static double KM_PER_DEGREE = EARTH_RADIUS_KM * Math.PI / 180;
+
+    /**
+     * lookupAt() searches at most this many grid columns on either
+     * side of a point, which only limits it near the poles.
+     */
+    private final static int MAX_GRID_SPAN = 8;
+
+    /**
+     * Number of entries examined for expiry on each put().
+     */
+    private final static int SWEEP_BATCH = 8;
+
+    /**
+     * Number of entries sampled when choosing a victim to evict.
+     * The one accessed longest ago is evicted.
+     */
+    private final static int EVICTION_SAMPLE = 8;
+
+    private volatile int mMaxEntries = DEFAULT_MAX_ENTRIES;
+    private volatile long mSoftTtl = DEFAULT_SOFT_TTL;
+    private volatile long mHardTtl = DEFAULT_HARD_TTL;
+    private volatile long mNotFoundTtl = DEFAULT_NOT_FOUND_TTL;
+    private volatile long mFailureTtl = DEFAULT_FAILURE_TTL;
+    private volatile int mRefreshAheadHits = DEFAULT_REFRESH_AHEAD_HITS;
+    private volatile double mGeoRadius = DEFAULT_GEO_RADIUS;
+
+    private final ConcurrentHashMap<String, Entry> weatherDataMap = new ConcurrentHashMap<>();
+
+    /**
+     * The cityKey() each normalized location was found to refer to.
+     * Lookups of a location go to the entry under its alias, if it
+     * has one.
+     */
+    private final ConcurrentHashMap<String, String> mAliases = new ConcurrentHashMap<>();
+
+    /**
+     * The cityKey()s of cities with known coordinates, by the grid
+     * cell they lie in, see gridCell().  Keys whose entries have gone
+     * are dropped when lookupAt() comes across them.
+     */
+    private final ConcurrentHashMap<Long, Set<String>> mGrid = new ConcurrentHashMap<>();
+
+    /**
+     * Guards mCursor, which walks round-robin through
+     * weatherDataMap so that sweeping and eviction sampling
+     * eventually visit every entry.
+     */
+    private final ReentrantLock mMaintenanceLock = new ReentrantLock();
+    private Iterator<Map.Entry<String, Entry>> mCursor;
+
+    /**
+     * The tier shared with the other service processes, or null if
+     * this process has none (e.g., the provider's own process).
+     */
+    private volatile SharedTier mSharedTier;
+
+    /**
+     * The cache that all the service processes have in common.  The
+     * aliases each process learns are published to it along with the
+     * entries, so a location looked up by one process is found under
+     * its city by the others.
+     */
+    public interface SharedTier {
+        /**
+         * Returns the entry cached for @a name, following its alias
+         * if it has one, keyed by the name it is cached under, or
+         * null if there is none.
+         */
+        Map.Entry<String, Entry> get(String name);
+
+        void put(String name, Entry entry);
+
+        /**
+         * Store @a entries, keyed by name, and make each key of
+         * @a aliases an alias of its value, in one call.
+         */
+        void putAll(Map<String, Entry> entries, Map<String, String> aliases);
+
+        /**
+         * Make @a key an alias of the city cached under @a cityKey.
+         */
+        void putAlias(String key, String cityKey);
+    }
+
+    /**
+     * The SharedTier kept by the WeatherCacheProvider.  It is an
+     * optimization, so calls that fail are logged and otherwise
+     * ignored.
+     */
+    private static class ProviderTier implements SharedTier {
+        private final ContentResolver mResolver;
+
+        ProviderTier(ContentResolver resolver) {
+            mResolver = resolver;
+        }
+
+        @Override
+        public Map.Entry<String, Entry> get(final String name) {
+            try {
+                final Bundle reply = mResolver.call(WeatherCacheProvider.CONTENT_URI,
+                                                    WeatherCacheProvider.METHOD_GET,
+                                                    name,
+                                                    null);
+                final Entry entry = WeatherCacheProvider.toEntry(reply);
+                if(entry == null) {
+                    return null;
+                }
+                return new AbstractMap.SimpleImmutableEntry<>(
+                    WeatherCacheProvider.keyOf(reply, name), entry);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Shared cache lookup failed for " + name, e);
+                return null;
+            }
+        }
+
+        @Override
+        public void put(final String name, final Entry entry) {
+            try {
+                mResolver.call(WeatherCacheProvider.CONTENT_URI,
+                               WeatherCacheProvider.METHOD_PUT,
+                               name,
+                               WeatherCacheProvider.toBundle(entry));
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Shared cache update failed for " + name, e);
+            }
+        }
+
+        @Override
+        public void putAll(final Map<String, Entry> entries, final Map<String, String> aliases) {
+            try {
+                mResolver.call(WeatherCacheProvider.CONTENT_URI,
+                               WeatherCacheProvider.METHOD_PUT_ALL,
+                               null,
+                               WeatherCacheProvider.toBundle(entries, aliases));
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Shared cache update failed for " + entries.size() + " locations", e);
+            }
+        }
+
+        @Override
+        public void putAlias(final String key, final String cityKey) {
+            try {
+                mResolver.call(WeatherCacheProvider.CONTENT_URI,
+                               WeatherCacheProvider.METHOD_ALIAS,
+                               key,
+                               WeatherCacheProvider.toBundle(cityKey));
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Shared alias update failed for " + key, e);
+            }
+        }
+    }
+
+    /**
+     * Downloads the WeatherData for a location on a cache miss.
+     */
+    public interface Loader {
+        /**
+         * Returns the WeatherData for @a location.  Throws
+         * UnknownLocationException if there is no such location, or
+         * another IOException if the download failed.
+         */
+        List<WeatherData> load(String location) throws IOException;
+    }
+
+    /**
+     * A Loader that can skip decoding the fields a caller didn't ask
+     * for.  Results from plain Loaders are projected after loading.
+     */
+    public interface ProjectingLoader extends Loader {
+        /**
+         * Like load(String), but the results need only carry the
+         * WeatherData.FIELD_* bits in @a fields.
+         */
+        List<WeatherData> load(String location, int fields) throws IOException;
+    }
+
+    /**
+     * A ProjectingLoader that can tell when a location's reply is the
+     * same as the one the cached results were parsed from, so the
+     * cache can keep its entry instead of parsing the reply again.
+     */
+    public interface ConditionalLoader extends ProjectingLoader {
+        /**
+         * Like load(String, int), but return the results with a hash
+         * of the reply they were parsed from.  If that hash is
+         * @a knownHash the reply isn't parsed, and the Download has
+         * no data.
+         */
+        Download load(String location, int fields, long knownHash) throws IOException;
+    }
+
+    /**
+     * What a ConditionalLoader downloaded.
+     */
+    public static class Download {
+        /**
+         * The hash of no reply.  Never the hash of an actual one.
+         */
+        public final static long NO_HASH = 0;
+
+        private final List<WeatherData> mData;
+        private final long mBodyHash;
+
+        public Download(List<WeatherData> data, long bodyHash) {
+            mData = data;
+            mBodyHash = bodyHash;
+        }
+
+        /**
+         * The results, or null if the reply was unchanged.
+         */
+        public List<WeatherData> getData() {
+            return mData;
+        }
+
+        public long getBodyHash() {
+            return mBodyHash;
+        }
+    }
+
+    /**
+     * A Loader that can also look up coordinates, for lookupAt().
+     */
+    public interface GeoLoader extends Loader {
+        /**
+         * Returns the WeatherData for the city nearest latitude
+         * @a lat and longitude @a lon, in degrees.  Throws as
+         * load(String) does.
+         */
+        List<WeatherData> loadAt(double lat, double lon) throws IOException;
+    }
+
+    /**
+     * The default Loader, which goes to the Weather Service.
+     */
+    private static class NetworkLoader implements ConditionalLoader, GeoLoader {
+        @Override
+        public List<WeatherData> load(String location) throws IOException {
+            return Utils.fetchWeather(location);
+        }
+
+        @Override
+        public List<WeatherData> load(String location, int fields) throws IOException {
+            return Utils.fetchWeather(location, fields);
+        }
+
+        @Override
+        public Download load(String location, int fields, long knownHash) throws IOException {
+            return Utils.fetchWeather(location, fields, knownHash);
+        }
+
+        @Override
+        public List<WeatherData> loadAt(double lat, double lon) throws IOException {
+            return Utils.fetchWeatherAt(lat, lon);
+        }
+    }
+
+    private volatile Loader mLoader = new NetworkLoader();
+
+    /**
+     * Downloads currently in progress, keyed by normalized location.
+     * Callers that miss on a location that is already being
+     * downloaded wait for that download instead of starting their
+     * own.
+     */
+    private final ConcurrentHashMap<String, FutureTask<Entry>> mInFlight =
+        new ConcurrentHashMap<>();
+
+    /**
+     * The cachedAt a load task is given when nothing usable was
+     * cached, so that any entry cached since counts as newer.
+     */
+    private static final long NOT_CACHED = Long.MIN_VALUE;
+
+    /**
+     * Number of downloads started, and number of lookups that were
+     * satisfied by piggybacking on a download already in progress.
+     */
+    private final AtomicLong mLoadCount = new AtomicLong();
+    private final AtomicLong mCoalescedCount = new AtomicLong();
+
+    /**
+     * Number of stale entries returned while a refresh was pending,
+     * and number of background refreshes started.
+     */
+    private final AtomicLong mStaleHitCount = new AtomicLong();
+    private final AtomicLong mRefreshCount = new AtomicLong();
+
+    /**
+     * getOrFetch() lookups answered from a positive entry, answered
+     * from a negative entry, and not answered from the cache.
+     */
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mNegativeHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    /**
+     * Downloads whose reply was the same as the one the entry was
+     * parsed from, so only the entry's timestamp was refreshed.
+     */
+    private final AtomicLong mUnchangedCount = new AtomicLong();
+
+    /**
+     * lookupAt() calls answered from a fresh city within the radius.
+     */
+    private final AtomicLong mNearbyHitCount = new AtomicLong();
+
+    /**
+     * Runs background refreshes so that binder threads never wait on
+     * them.  Its threads exit when idle.
+     */
+    private final ThreadPoolExecutor mRefreshExecutor = createExecutor("WeatherCacheRefresh", 2);
+
+    /**
+     * Downloads the misses of getOrFetchAll() in parallel.  Sized to
+     * match the HTTP connection pool.
+     */
+    private final ThreadPoolExecutor mBatchExecutor = createExecutor("WeatherCacheBatch", 4);
+
+    /**
+     * What a cache entry records about its location.
+     */
+    public enum Kind {
+        /** The location's weather, fetched successfully. */
+        FOUND,
+        /** The Weather Service doesn't know the location. */
+        NOT_FOUND,
+        /** The download failed, e.g., because the network was down. */
+        FAILED
+    }
+
+    /**
+     * A cached List of WeatherData together with the time at which
+     * it was downloaded, or last found to be unchanged, and the time
+     * it was last read.  Negative entries have an empty List.
+     */
+    public static class Entry {
+        private final List<WeatherData> mData;
+        private volatile long mCachedAt;
+        private final Kind mKind;
+        private volatile long mLastAccess;
+
+        /**
+         * The hash of the reply mData was parsed from, or
+         * Download.NO_HASH if it's not known.
+         */
+        private volatile long mBodyHash = Download.NO_HASH;
+
+        /**
+         * The encoded records of mData, made by the first getReply()
+         * so that later hits needn't encode them again, and their
+         * version, which is set first.  Racing callers may each
+         * encode them once, which is harmless.
+         */
+        private volatile byte[] mReplyRecords;
+        private volatile long mVersion = WeatherDelta.NO_VERSION;
+
+        /**
+         * The data and version of the entry this one replaced, if
+         * that was ever sent to a client, so deltaSince() can send
+         * clients still holding it just the fields that changed.
+         * Only one generation is kept.
+         */
+        private volatile List<WeatherData> mPreviousData;
+        private volatile long mPreviousVersion = WeatherDelta.NO_VERSION;
+
+        /**
+         * Don't start another background refresh before this time;
+         * set when one fails.
+         */
+        private volatile long mRetryAfter;
+
+        /**
+         * Reads seen in the refresh-ahead window.  Updated without
+         * synchronization, so it's only approximate, which is all
+         * refresh-ahead needs.
+         */
+        private volatile int mLateHits;
+
+        public Entry(List<WeatherData> data, long cachedAt) {
+            this(data, cachedAt, Kind.FOUND);
+        }
+
+        public Entry(List<WeatherData> data, long cachedAt, Kind kind) {
+            mData = data;
+            mCachedAt = cachedAt;
+            mKind = kind;
+            mLastAccess = cachedAt;
+        }
+
+        /**
+         * Record a read at time @a now.  Skips the write when the
+         * value wouldn't change, so hot entries read by many threads
+         * within the same millisecond don't bounce their cache line.
+         */
+        void touch(long now) {
+            if(mLastAccess != now) {
+                mLastAccess = now;
+            }
+        }
+
+        /**
+         * Mark the entry as fresh again at time @a now, when a
+         * download found its data unchanged.  It can then be
+         * refreshed ahead of time again, too.
+         */
+        void refresh(long now) {
+            mCachedAt = now;
+            mRetryAfter = 0;
+            mLateHits = 0;
+            touch(now);
+        }
+
+        public List<WeatherData> getData() {
+            return mData;
+        }
+
+        public long getCachedAt() {
+            return mCachedAt;
+        }
+
+        public Kind getKind() {
+            return mKind;
+        }
+
+        /**
+         * Return the data as a WeatherDataList whose records were
+         * encoded once for this entry, so sending it to a client is a
+         * single bulk copy.
+         */
+        public WeatherDataList getReply() {
+            return new WeatherDataList(mData, getRecords());
+        }
+
+        private byte[] getRecords() {
+            byte[] records = mReplyRecords;
+            if(records == null) {
+                records = WeatherDataList.encode(mData);
+                mVersion = WeatherDataList.versionOf(records);
+                mReplyRecords = records;
+            }
+            return records;
+        }
+
+        /**
+         * The version of the data, see WeatherDelta.
+         */
+        public long getVersion() {
+            getRecords();
+            return mVersion;
+        }
+
+        /**
+         * Remember the data of @a previous, which this entry
+         * replaces, if a client may hold it.
+         */
+        void follow(Entry previous) {
+            if(previous == this
+               || previous.mKind != Kind.FOUND
+               || mKind != Kind.FOUND
+               || previous.mReplyRecords == null) {
+                return;
+            }
+            mPreviousVersion = previous.mVersion;
+            mPreviousData = previous.mData;
+        }
+
+        /**
+         * Return the reply for a client holding the data of
+         * @a heldVersion: NOT_MODIFIED if that is this entry's
+         * version, a DELTA if it is the version this entry replaced,
+         * and otherwise FULL.
+         */
+        public WeatherDelta deltaSince(long heldVersion) {
+            final WeatherDataList reply = getReply();
+            final long version = mVersion;
+            final List<WeatherData> previous = mPreviousData;
+            if(heldVersion != version
+               && previous != null
+               && heldVersion == mPreviousVersion) {
+                return WeatherDelta.between(heldVersion, previous, version, reply);
+            }
+            return heldVersion == version
+                ? WeatherDelta.notModified(version)
+                : WeatherDelta.full(version, reply);
+        }
+    }
+
+    /**
+     * Route local cache misses to the WeatherCacheProvider and
+     * publish local puts to it.  Called by each service when it is
+     * created.
+     */
+    public void attachSharedTier(Context context) {
+        mSharedTier = new ProviderTier(context.getApplicationContext().getContentResolver());
+    }
+
+    /**
+     * Replace the shared tier, e.g., for testing.  Null detaches it.
+     */
+    public void setSharedTier(SharedTier sharedTier) {
+        mSharedTier = sharedTier;
+    }
+
+    /**
+     * Replace the Loader used by getOrFetch(), e.g., for testing.
+     */
+    public void setLoader(Loader loader) {
+        mLoader = loader == null ? new NetworkLoader() : loader;
+    }
+
+    /**
+     * Change the soft and hard TTLs, in milliseconds.
+     */
+    public void setTtl(final long softTtl, final long hardTtl) {
+        if(softTtl <= 0 || hardTtl < softTtl) {
+            throw new IllegalArgumentException("Need 0 < softTtl <= hardTtl");
+        }
+        mSoftTtl = softTtl;
+        mHardTtl = hardTtl;
+    }
+
+    public long getSoftTtl() {
+        return mSoftTtl;
+    }
+
+    public long getHardTtl() {
+        return mHardTtl;
+    }
+
+    /**
+     * Change how long, in milliseconds, unknown locations and failed
+     * downloads are remembered.
+     */
+    public void setNegativeTtl(final long notFoundTtl, final long failureTtl) {
+        if(notFoundTtl <= 0 || failureTtl <= 0) {
+            throw new IllegalArgumentException("Negative TTLs must be positive");
+        }
+        mNotFoundTtl = notFoundTtl;
+        mFailureTtl = failureTtl;
+    }
+
+    /**
+     * Refresh entries ahead of their soft TTL once they have been
+     * read @a minHits times late in their lifetime.  Zero disables
+     * refresh-ahead.
+     */
+    public void setRefreshAheadHits(final int minHits) {
+        if(minHits < 0) {
+            throw new IllegalArgumentException("minHits must not be negative");
+        }
+        mRefreshAheadHits = minHits;
+    }
+
+    /**
+     * Change the radius, in kilometers, within which lookupAt()
+     * answers from a fresh cached city.  It is also the size of the
+     * grid cells points are quantized to, so the cities cached so far
+     * are indexed again.
+     */
+    public void setGeoRadius(final double radius) {
+        if(!(radius > 0) || radius > KM_PER_DEGREE) {
+            throw new IllegalArgumentException("Need 0 < radius <= " + KM_PER_DEGREE);
+        }
+        mGeoRadius = radius;
+        mGrid.clear();
+        for(Map.Entry<String, Entry> e : weatherDataMap.entrySet()) {
+            final List<WeatherData> data = e.getValue().getData();
+            if(isCityKey(e.getKey()) && data.size() == 1) {
+                index(e.getKey(), data.get(0));
+            }
+        }
+    }
+
+    public double getGeoRadius() {
+        return mGeoRadius;
+    }
+
+    /**
+     * Return the cached WeatherData for @a location, downloading it
+     * if necessary.  Concurrent misses on the same location share a
+     * single download.  A stale entry is returned right away and
+     * refreshed in the background.  Returns null if the calling
+     * thread is interrupted while waiting.
+     */
+    public List<WeatherData> getOrFetch(final String location) {
+        return getOrFetch(location, WeatherData.ALL_FIELDS);
+    }
+
+    /**
+     * Like getOrFetch(String), but the results need only carry the
+     * WeatherData.FIELD_* bits in @a fields.
+     */
+    public List<WeatherData> getOrFetch(final String location, final int fields) {
+        final Entry entry = lookup(location, fields);
+        return entry == null ? null : entry.getData();
+    }
+
+    /**
+     * Like getOrFetch(String), but return the results as a reply for
+     * a client, see Entry.getReply().  Returns null if the calling
+     * thread is interrupted while waiting.
+     */
+    public WeatherDataList getReply(final String location) {
+        return getReply(location, WeatherData.ALL_FIELDS);
+    }
+
+    /**
+     * Like getReply(String), but the results need only carry the
+     * WeatherData.FIELD_* bits in @a fields.
+     */
+    public WeatherDataList getReply(final String location, final int fields) {
+        final Entry entry = lookup(location, fields);
+        return entry == null ? null : entry.getReply();
+    }
+
+    /**
+     * Like getReply(String), but for the city nearest latitude
+     * @a lat and longitude @a lon, in degrees, see lookupAt().
+     */
+    public WeatherDataList getReplyAt(final double lat, final double lon) {
+        final Entry entry = lookupAt(lat, lon);
+        return entry == null ? null : entry.getReply();
+    }
+
+    /**
+     * Like getReply(String), but for a client that holds the results
+     * of @a version, see Entry.deltaSince().  Returns null if the
+     * calling thread is interrupted while waiting.
+     */
+    public WeatherDelta getDelta(final String location, final long version) {
+        final Entry entry = lookup(location);
+        return entry == null ? null : entry.deltaSince(version);
+    }
+
+    /**
+     * Like getOrFetch(), but for the city nearest latitude @a lat
+     * and longitude @a lon, in degrees, see lookupAt().
+     */
+    public List<WeatherData> getWeatherAt(final double lat, final double lon) {
+        final Entry entry = lookupAt(lat, lon);
+        return entry == null ? null : entry.getData();
+    }
+
+    /**
+     * Like lookup(), but for the city nearest latitude @a lat and
+     * longitude @a lon, in degrees.  A fresh entry for a city within
+     * getGeoRadius() kilometers is returned without going upstream.
+     * Otherwise the point is quantized to its grid cell, whose center
+     * is looked up as if it were a location, see cellKey(), so every
+     * caller in the cell shares one download and one entry.
+     * Coordinates out of range give a NOT_FOUND entry.
+     */
+    public Entry lookupAt(final double lat, final double lon) {
+        if(!(Math.abs(lat) <= 90 && Math.abs(lon) <= 180)) {
+            return new Entry(new ArrayList<WeatherData>(),
+                             System.currentTimeMillis(),
+                             Kind.NOT_FOUND);
+        }
+        final double cellSize = mGeoRadius / KM_PER_DEGREE;
+        final int row = rowOf(lat, cellSize);
+        final int column = columnOf(lon, cellSize);
+        final Entry nearby = findNearby(lat, lon, row, column, cellSize);
+        if(nearby != null) {
+            mHitCount.incrementAndGet();
+            mNearbyHitCount.incrementAndGet();
+            nearby.touch(System.currentTimeMillis());
+            return nearby;
+        }
+        final String key = cellKey(row, column, cellSize);
+        return lookup(resolve(key), key, WeatherData.ALL_FIELDS);
+    }
+
+    /**
+     * Return the fresh entry of the indexed city nearest latitude
+     * @a lat and longitude @a lon if it is within the radius, or else
+     * null.  Searches the cell at @a row and @a column and as many
+     * around it as the radius reaches.
+     */
+    private Entry findNearby(final double lat,
+                             final double lon,
+                             final int row,
+                             final int column,
+                             final double cellSize) {
+        final long now = System.currentTimeMillis();
+        final int columns = columnCount(cellSize);
+        // A cell spans fewer kilometers of longitude away from the
+        // equator, so the radius reaches across more of them.
+        final double cosLat = Math.cos(Math.toRadians(lat));
+        final int span = cosLat * MAX_GRID_SPAN <= 1
+            ? MAX_GRID_SPAN
+            : (int) Math.ceil(1 / cosLat);
+
+        Entry nearest = null;
+        double nearestDistance = mGeoRadius;
+        for(int r = row - 1; r <= row + 1; r++) {
+            for(int c = column - span; c <= column + span; c++) {
+                final Set<String> keys = mGrid.get(gridCell(r, ((c % columns) + columns) % columns));
+                if(keys == null) {
+                    continue;
+                }
+                for(String cityKey : keys) {
+                    final Entry entry = weatherDataMap.get(cityKey);
+                    if(entry == null) {
+                        keys.remove(cityKey);
+                        continue;
+                    }
+                    if(entry.getKind() != Kind.FOUND
+                       || now - entry.getCachedAt() > mSoftTtl
+                       || entry.getData().size() != 1) {
+                        continue;
+                    }
+                    final WeatherData city = entry.getData().get(0);
+                    final double distance =
+                        distance(lat, lon, city.getmLat(), city.getmLon());
+                    if(distance <= nearestDistance) {
+                        nearest = entry;
+                        nearestDistance = distance;
+                    }
+                }
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Like getOrFetch(), but return the whole entry so callers can
+     * tell an unknown location or a failed download from a location
+     * with no results.
+     */
+    public Entry lookup(final String location) {
+        return lookup(location, WeatherData.ALL_FIELDS);
+    }
+
+    /**
+     * Like lookup(String), but for just the WeatherData.FIELD_* bits
+     * in @a fields; 0 means all of them.  A full entry answers any
+     * mask.  Otherwise the narrower download is cached under a key
+     * of its own, see projectedKey().  Locations with an alias are
+     * looked up under it.
+     */
+    public Entry lookup(final String location, final int fields) {
+        final String key = normalizeLocation(location);
+        if(key.isEmpty()) {
+            return new Entry(new ArrayList<WeatherData>(),
+                             System.currentTimeMillis(),
+                             Kind.NOT_FOUND);
+        }
+
+        final String cacheKey = resolve(key);
+        final int mask = fields & WeatherData.ALL_FIELDS;
+        if(mask == 0 || mask == WeatherData.ALL_FIELDS) {
+            return lookup(cacheKey, key, WeatherData.ALL_FIELDS);
+        }
+        final Entry full = getUsableEntry(cacheKey);
+        if(full != null) {
+            return project(serve(cacheKey, key, WeatherData.ALL_FIELDS, full), mask);
+        }
+        return lookup(projectedKey(cacheKey, mask), key, mask);
+    }
+
+    /**
+     * Look up @a cacheKey, which holds the @a fields of @a key,
+     * downloading it if necessary.
+     */
+    private Entry lookup(final String cacheKey, final String key, final int fields) {
+        final Entry entry = getUsableEntry(cacheKey);
+        if(entry != null) {
+            return serve(cacheKey, key, fields, entry);
+        }
+        mMissCount.incrementAndGet();
+        return load(cacheKey, key, fields, false, NOT_CACHED);
+    }
+
+    /**
+     * Download the @a fields of @a key into @a cacheKey on the
+     * calling thread and return the new entry, or wait for the
+     * download already under way.  See newLoadTask() for @a refresh
+     * and @a cachedAt.
+     */
+    private Entry load(final String cacheKey,
+                       final String key,
+                       final int fields,
+                       final boolean refresh,
+                       final long cachedAt) {
+        FutureTask<Entry> task = newLoadTask(cacheKey, key, fields, refresh, cachedAt);
+        final FutureTask<Entry> inFlight = mInFlight.putIfAbsent(cacheKey, task);
+        if(inFlight == null) {
+            runLoadTask(cacheKey, task);
+        } else {
+            if(DEBUG) Log.d(TAG, "Location " + cacheKey + " is already being downloaded");
+            mCoalescedCount.incrementAndGet();
+            task = inFlight;
+        }
+        return await(task);
+    }
+
+    /**
+     * Like lookup(String), but an entry past the soft TTL is
+     * refreshed before it is returned rather than in the background,
+     * so the caller gets the current weather.  For callers that look
+     * a location up less often than the soft TTL, e.g., the polls of
+     * WeatherSubscriptions, which would otherwise always get the
+     * weather of the previous poll.  The refresh is coalesced with
+     * any download of the location already under way, and if it fails
+     * the stale entry is returned.  Returns null if the calling
+     * thread is interrupted while waiting.
+     */
+    public Entry lookupFresh(final String location) {
+        final String key = normalizeLocation(location);
+        if(key.isEmpty()) {
+            return lookup(key);
+        }
+        final String cacheKey = resolve(key);
+        final Entry entry = getUsableEntry(cacheKey);
+        final long now = System.currentTimeMillis();
+        if(entry == null
+           || entry.getKind() != Kind.FOUND
+           || now - entry.getCachedAt() <= mSoftTtl
+           || now < entry.mRetryAfter) {
+            return lookup(cacheKey, key, WeatherData.ALL_FIELDS);
+        }
+        return load(cacheKey, key, WeatherData.ALL_FIELDS, true, entry.getCachedAt());
+    }
+
+    /**
+     * Account for a hit on @a entry, cached under @a cacheKey, and
+     * refresh it in the background if it is stale or hot.
+     */
+    private Entry serve(final String cacheKey,
+                        final String key,
+                        final int fields,
+                        final Entry entry) {
+        if(entry.getKind() != Kind.FOUND) {
+            mNegativeHitCount.incrementAndGet();
+            return entry;
+        }
+        mHitCount.incrementAndGet();
+        final long now = System.currentTimeMillis();
+        final long age = now - entry.getCachedAt();
+        if(age > mSoftTtl) {
+            mStaleHitCount.incrementAndGet();
+            if(now >= entry.mRetryAfter) {
+                refreshInBackground(cacheKey, key, fields, entry.getCachedAt());
+            }
+        } else if(isHotLateInLife(entry, age)) {
+            refreshInBackground(cacheKey, key, fields, entry.getCachedAt());
+        }
+        return entry;
+    }
+
+    /**
+     * The key under which the @a fields of @a key are cached when
+     * they were downloaded without the rest.  Normalized locations
+     * never contain a tab, so these keys can't clash with them.
+     */
+    private static String projectedKey(final String key, final int fields) {
+        return key + '\t' + Integer.toHexString(fields);
+    }
+
+    /**
+     * The key under which the city with the Weather Service id
+     * @a cityId is cached.  It starts with a tab, so it can't clash
+     * with a normalized location or a projectedKey() of one.
+     */
+    static String cityKey(final long cityId) {
+        return "\t" + cityId;
+    }
+
+    /**
+     * The key under which the grid cell at @a row and @a column is
+     * looked up and cached, or made an alias of the city found
+     * there.  It names the cell's center, which is what is looked up,
+     * and starts with a tab and an '@', so it can't clash with a
+     * normalized location or a cityKey().
+     */
+    private static String cellKey(final int row, final int column, final double cellSize) {
+        final double lat = Math.min(90, (row + 0.5) * cellSize - 90);
+        final double lon = Math.min(180, (column + 0.5) * cellSize - 180);
+        return String.format(Locale.US, "\t@%.5f,%.5f", lat, lon);
+    }
+
+    private static boolean isCellKey(final String key) {
+        return key.length() > 1 && key.charAt(0) == '\t' && key.charAt(1) == '@';
+    }
+
+    /**
+     * Returns true if @a key is a cityKey().
+     */
+    private static boolean isCityKey(final String key) {
+        return key.length() > 1
+            && key.charAt(0) == '\t'
+            && key.charAt(1) != '@'
+            && key.indexOf('\t', 1) < 0;
+    }
+
+    /*
+     * The grid lookupAt() quantizes points to: rows of @a cellSize
+     * degrees of latitude from the south pole, and columns of as many
+     * degrees of longitude from the antimeridian, the last of them
+     * narrower.
+     */
+
+    private static int rowOf(final double lat, final double cellSize) {
+        return (int) Math.floor((lat + 90) / cellSize);
+    }
+
+    private static int columnOf(final double lon, final double cellSize) {
+        return (int) Math.floor((lon + 180) / cellSize) % columnCount(cellSize);
+    }
+
+    private static int columnCount(final double cellSize) {
+        return (int) Math.ceil(360 / cellSize);
+    }
+
+    private static Long gridCell(final int row, final int column) {
+        return ((long) row << 32) | (column & 0xffffffffL);
+    }
+
+    /**
+     * The distance in kilometers between two points given by their
+     * latitudes and longitudes in degrees.  Uses the equirectangular
+     * approximation, which is close enough over a few cells.
+     */
+    static double distance(final double lat1,
+                           final double lon1,
+                           final double lat2,
+                           final double lon2) {
+        double dLon = Math.abs(lon2 - lon1);
+        if(dLon > 180) {
+            dLon = 360 - dLon;
+        }
+        final double x = Math.toRadians(dLon) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        final double y = Math.toRadians(lat2 - lat1);
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS_KM;
+    }
+
+    /**
+     * Add the key @a cityKey of @a city to mGrid, if its coordinates
+     * are known.
+     */
+    private void index(final String cityKey, final WeatherData city) {
+        if(!city.hasCoordinates()) {
+            return;
+        }
+        final double cellSize = mGeoRadius / KM_PER_DEGREE;
+        final Long cell = gridCell(rowOf(city.getmLat(), cellSize),
+                                   columnOf(city.getmLon(), cellSize));
+        Set<String> keys = mGrid.get(cell);
+        if(keys == null) {
+            if(mGrid.size() >= mMaxEntries * MAX_ALIASES_PER_ENTRY) {
+                // Mostly cells whose cities have gone; the rest are
+                // indexed again when next downloaded.
+                mGrid.clear();
+            }
+            final Set<String> created =
+                Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            keys = mGrid.putIfAbsent(cell, created);
+            if(keys == null) {
+                keys = created;
+            }
+        }
+        keys.add(cityKey);
+    }
+
+    /**
+     * Return the key @a key is cached under: its alias if it has one,
+     * and otherwise itself.
+     */
+    public String resolve(final String key) {
+        final String alias = mAliases.get(key);
+        return alias != null ? alias : key;
+    }
+
+    /**
+     * Make the normalized location @a key an alias of @a cityKey in
+     * this process, so it is looked up under it.  Used for aliases
+     * learned by another process, see SharedTier.
+     */
+    public void putAlias(final String key, final String cityKey) {
+        if(mAliases.size() >= mMaxEntries * MAX_ALIASES_PER_ENTRY) {
+            // Rarely reached, and aliases are cheap to relearn.
+            mAliases.clear();
+        }
+        mAliases.put(key, cityKey);
+    }
+
+    /**
+     * Return the key to cache @a results, the @a fields of @a key, under
+     * in place of @a cacheKey.  If they are a single city with a known
+     * id that is its cityKey(), @a key becomes an alias of it, and
+     * the city is added to the grid.  A new alias is also added to
+     * @a learned, for the caller to publish to the shared tier once
+     * the entry is there.
+     */
+    private String canonicalKey(final String cacheKey,
+                                final String key,
+                                final int fields,
+                                final List<WeatherData> results,
+                                final Map<String, String> learned) {
+        if(results.size() != 1 || results.get(0).getmCityId() == 0) {
+            return cacheKey;
+        }
+        String cityKey = cityKey(results.get(0).getmCityId());
+        final String alias = mAliases.get(key);
+        if(cityKey.equals(alias)) {
+            cityKey = alias;
+        } else {
+            putAlias(key, cityKey);
+            learned.put(key, cityKey);
+        }
+        if(fields != WeatherData.ALL_FIELDS) {
+            return projectedKey(cityKey, fields);
+        }
+        index(cityKey, results.get(0));
+        return cityKey;
+    }
+
+    /**
+     * Return @a entry with its data narrowed to @a fields.  The
+     * result isn't cached.
+     */
+    private static Entry project(final Entry entry, final int fields) {
+        if(entry.getKind() != Kind.FOUND) {
+            return entry;
+        }
+        final List<WeatherData> data = new ArrayList<>(entry.getData().size());
+        for(WeatherData weatherData : entry.getData()) {
+            data.add(weatherData.project(fields));
+        }
+        return new Entry(data, entry.getCachedAt());
+    }
+
+    /**
+     * Receives the outcome of each location in a lookupAll() call as
+     * soon as it is known.  Called on the thread that called
+     * lookupAll() for locations answered from the cache and on a
+     * batch thread for the rest, so implementations must be
+     * thread-safe.
+     */
+    public interface LookupListener {
+        /**
+         * @a entry is null if the lookup of @a location was
+         * interrupted or failed unexpectedly.  @a cached is true if
+         * it was answered without waiting for a download.
+         */
+        void onLookup(String location, Entry entry, boolean cached);
+    }
+
+    /**
+     * Return the WeatherData for each of @a locations, in order.
+     * Locations with a usable cache entry are answered on the calling
+     * thread; the rest are downloaded in parallel, each through
+     * getOrFetch() so they are coalesced with any other lookups.
+     * Locations that can't be found contribute nothing.
+     */
+    public List<WeatherData> getOrFetchAll(final List<String> locations) {
+        final List<WeatherData> results = new ArrayList<>();
+        for(Entry entry : lookupAll(locations, null)) {
+            if(entry != null) {
+                results.addAll(entry.getData());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Look up each of @a locations as getOrFetchAll() does, passing
+     * each outcome to @a listener as soon as it is known.  Locations
+     * are taken in order: a cache hit is reported at once on the
+     * calling thread, and a miss starts a download that is reported
+     * when it finishes.  Returns once every location has been
+     * reported exactly once, with one entry per location, in the
+     * order of the locations; @a listener is never called after
+     * that.
+     *
+     * If the calling thread is interrupted while waiting, stops
+     * waiting for downloads that haven't finished, reports each of
+     * them as null, and returns with null in their place and the
+     * thread's interrupt status set.  Downloads not yet started are
+     * cancelled; those already running still fill the cache.
+     */
+    public List<Entry> lookupAll(final List<String> locations,
+                                 final LookupListener listener) {
+        final List<Entry> entries = new ArrayList<>();
+        if(locations == null) {
+            return entries;
+        }
+
+        final List<Future<Entry>> pending = new ArrayList<>(locations.size());
+        // Set by whichever of the lookup and this thread reports the
+        // location first.
+        final List<AtomicBoolean> reported = new ArrayList<>(locations.size());
+        for(final String location : locations) {
+            final boolean cached =
+                getUsableEntry(resolve(normalizeLocation(location))) != null;
+            final AtomicBoolean claim = new AtomicBoolean();
+            final Callable<Entry> lookup = new Callable<Entry>() {
+                @Override
+                public Entry call() {
+                    Entry entry = null;
+                    try {
+                        entry = lookup(location);
+                    } finally {
+                        if(claim.compareAndSet(false, true) && listener != null) {
+                            listener.onLookup(location, entry, cached);
+                        }
+                    }
+                    return entry;
+                }
+            };
+            reported.add(claim);
+            if(cached) {
+                final FutureTask<Entry> hit = new FutureTask<>(lookup);
+                hit.run();
+                pending.add(hit);
+            } else {
+                pending.add(mBatchExecutor.submit(lookup));
+            }
+        }
+
+        boolean interrupted = false;
+        for(int i = 0; i < pending.size(); ) {
+            final Future<Entry> future = pending.get(i);
+            Entry entry = null;
+            try {
+                if(!interrupted) {
+                    entry = future.get();
+                } else if(reported.get(i).compareAndSet(false, true)) {
+                    future.cancel(false);
+                    if(listener != null) {
+                        listener.onLookup(locations.get(i), null, false);
+                    }
+                } else {
+                    // The lookup has finished, or is reporting now;
+                    // either way it is about to return.
+                    entry = getUninterruptibly(future);
+                }
+            } catch (InterruptedException e) {
+                // Deal with this location again, without waiting.
+                interrupted = true;
+                continue;
+            } catch (ExecutionException e) {
+                Log.w(TAG, "Batch lookup failed", e.getCause());
+            }
+            entries.add(entry);
+            i++;
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return entries;
+    }
+
+    /**
+     * Wait for @a future, which must be about to finish, ignoring
+     * interrupts.
+     */
+    private static Entry getUninterruptibly(final Future<Entry> future)
+        throws ExecutionException {
+        while(true) {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                // Already re-raised by lookupAll().
+            }
+        }
+    }
+
+    /**
+     * Returns true if @a entry, which is @a age milliseconds old,
+     * has been read often enough near the end of its soft TTL to be
+     * worth refreshing early.  Only reads late in an entry's life
+     * are counted, so reads of young entries write nothing.
+     */
+    private boolean isHotLateInLife(final Entry entry, final long age) {
+        final int minHits = mRefreshAheadHits;
+        if(minHits == 0 || age < mSoftTtl * REFRESH_AHEAD_FRACTION) {
+            return false;
+        }
+        if(entry.mLateHits >= minHits) {
+            // Already triggered.
+            return false;
+        }
+        return ++entry.mLateHits >= minHits;
+    }
+
+    /**
+     * Start refreshing @a cacheKey, whose entry was cached at
+     * @a cachedAt, on mRefreshExecutor unless it is already being
+     * downloaded.
+     */
+    private void refreshInBackground(final String cacheKey,
+                                     final String key,
+                                     final int fields,
+                                     final long cachedAt) {
+        if(mInFlight.containsKey(cacheKey)) {
+            return;
+        }
+        final FutureTask<Entry> task = newLoadTask(cacheKey, key, fields, true, cachedAt);
+        if(mInFlight.putIfAbsent(cacheKey, task) != null) {
+            return;
+        }
+        if(DEBUG) Log.d(TAG, "Refreshing " + cacheKey + " in the background");
+        try {
+            mRefreshExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runLoadTask(cacheKey, task);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            mInFlight.remove(cacheKey, task);
+        }
+    }
+
+    /**
+     * Make a task that downloads the @a fields of @a key and caches
+     * the results under @a cacheKey, or under the city's own key, see
+     * canonicalKey().  The caller decided to download after seeing an
+     * entry cached at @a cachedAt, or nothing usable (NOT_CACHED); if
+     * another download has cached a newer entry by the time the task
+     * runs, e.g., one that finished just after the caller missed, the
+     * task returns that entry instead of downloading again.
+     * <p/>
+     * If the Loader finds the reply unchanged since the cached entry
+     * was parsed from it, the entry is just marked fresh again, here
+     * and in the shared tier.  An unknown location is cached as a
+     * NOT_FOUND entry under @a key, since no mask will find it.  A
+     * failed download is cached as a FAILED entry, except that a
+     * failed background @a refresh leaves the stale entry in place
+     * and holds off further refreshes for the failure TTL.  A
+     * refresh that comes back empty likewise keeps the stale entry.
+     */
+    private FutureTask<Entry> newLoadTask(final String cacheKey,
+                                          final String key,
+                                          final int fields,
+                                          final boolean refresh,
+                                          final long cachedAt) {
+        final Loader loader = mLoader;
+        return new FutureTask<>(new Callable<Entry>() {
+                @Override
+                public Entry call() {
+                    final Entry settled = getUsableEntry(cacheKey);
+                    if(settled != null && settled.getCachedAt() > cachedAt) {
+                        if(DEBUG) Log.d(TAG, "Location " + cacheKey + " was downloaded meanwhile");
+                        mCoalescedCount.incrementAndGet();
+                        return settled;
+                    }
+                    mLoadCount.incrementAndGet();
+                    if(refresh) {
+                        mRefreshCount.incrementAndGet();
+                    }
+                    final Entry current = weatherDataMap.get(cacheKey);
+                    List<WeatherData> results;
+                    long bodyHash = Download.NO_HASH;
+                    try {
+                        if(isCellKey(key)) {
+                            results = loadAt(loader, key);
+                        } else if(loader instanceof ConditionalLoader) {
+                            final long knownHash = current != null && current.getKind() == Kind.FOUND
+                                ? current.mBodyHash
+                                : Download.NO_HASH;
+                            final Download download =
+                                ((ConditionalLoader) loader).load(key, fields, knownHash);
+                            if(download.getData() == null && current != null) {
+                                current.refresh(System.currentTimeMillis());
+                                mUnchangedCount.incrementAndGet();
+                                // So the other processes don't download
+                                // it again once their copy expires.
+                                putShared(cacheKey, current);
+                                return current;
+                            }
+                            results = download.getData();
+                            bodyHash = download.getBodyHash();
+                        } else if(fields == WeatherData.ALL_FIELDS) {
+                            results = loader.load(key);
+                        } else if(loader instanceof ProjectingLoader) {
+                            results = ((ProjectingLoader) loader).load(key, fields);
+                        } else {
+                            results = loader.load(key);
+                            if(results != null) {
+                                results = project(new Entry(results, 0), fields).getData();
+                            }
+                        }
+                    } catch (UnknownLocationException e) {
+                        if(DEBUG) Log.d(TAG, e.getMessage());
+                        return put(key, new ArrayList<WeatherData>(), Kind.NOT_FOUND);
+                    } catch (IOException e) {
+                        Log.d(TAG, "Download of " + cacheKey + " failed", e);
+                        final Entry stale = weatherDataMap.get(cacheKey);
+                        if(refresh && stale != null) {
+                            stale.mRetryAfter = System.currentTimeMillis() + mFailureTtl;
+                            return stale;
+                        }
+                        return put(cacheKey, new ArrayList<WeatherData>(), Kind.FAILED);
+                    }
+                    if(refresh && (results == null || results.isEmpty())) {
+                        final Entry stale = weatherDataMap.get(cacheKey);
+                        return stale != null
+                            ? stale
+                            : new Entry(new ArrayList<WeatherData>(),
+                                        System.currentTimeMillis());
+                    }
+                    final Map<String, String> learned = new HashMap<>(2);
+                    final Entry entry = put(canonicalKey(cacheKey, key, fields, results, learned),
+                                            results,
+                                            Kind.FOUND);
+                    entry.mBodyHash = bodyHash;
+                    for(Map.Entry<String, String> alias : learned.entrySet()) {
+                        putSharedAlias(alias.getKey(), alias.getValue());
+                    }
+                    return entry;
+                }
+            });
+    }
+
+    /**
+     * Load the city nearest the center of the cell named by
+     * @a cellKey.  A Loader that can't look up coordinates knows of
+     * no city there.
+     */
+    private static List<WeatherData> loadAt(final Loader loader, final String cellKey)
+        throws IOException {
+        if(!(loader instanceof GeoLoader)) {
+            throw new UnknownLocationException(cellKey.substring(2));
+        }
+        final int comma = cellKey.indexOf(',');
+        return ((GeoLoader) loader).loadAt(Double.parseDouble(cellKey.substring(2, comma)),
+                                           Double.parseDouble(cellKey.substring(comma + 1)));
+    }
+
+    private void runLoadTask(final String key, final FutureTask<Entry> task) {
+        try {
+            task.run();
+        } finally {
+            mInFlight.remove(key, task);
+        }
+    }
+
+    /**
+     * Make an executor of daemon threads that exit when idle.
+     */
+    private static ThreadPoolExecutor createExecutor(final String name, final int threads) {
+        final ThreadPoolExecutor executor =
+            new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                                   new LinkedBlockingQueue<Runnable>(),
+                                   new ThreadFactory() {
+                                       @Override
+                                       public Thread newThread(Runnable r) {
+                                           final Thread t = new Thread(r, name);
+                                           t.setDaemon(true);
+                                           return t;
+                                       }
+                                   });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Number of downloads getOrFetch() has started.
+     */
+    public long getLoadCount() {
+        return mLoadCount.get();
+    }
+
+    /**
+     * Number of getOrFetch() calls that waited on another caller's
+     * download instead of starting their own.
+     */
+    public long getCoalescedCount() {
+        return mCoalescedCount.get();
+    }
+
+    /**
+     * Number of getOrFetch() calls answered with a stale entry.
+     */
+    public long getStaleHitCount() {
+        return mStaleHitCount.get();
+    }
+
+    /**
+     * Number of background refreshes started, whether because an
+     * entry went stale or ahead of time for a hot entry.
+     */
+    public long getRefreshCount() {
+        return mRefreshCount.get();
+    }
+
+    /**
+     * Number of getOrFetch() calls answered from a positive entry,
+     * fresh or stale.
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * Number of getOrFetch() calls answered from a NOT_FOUND or
+     * FAILED entry without going upstream.
+     */
+    public long getNegativeHitCount() {
+        return mNegativeHitCount.get();
+    }
+
+    /**
+     * Number of getOrFetch() calls that found nothing usable in the
+     * cache.
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * Number of downloads that found the location's weather unchanged
+     * and so refreshed its entry without parsing the reply.
+     */
+    public long getUnchangedCount() {
+        return mUnchangedCount.get();
+    }
+
+    /**
+     * Number of lookupAt() calls answered from a fresh city within
+     * the radius, without a download.
+     */
+    public long getNearbyHitCount() {
+        return mNearbyHitCount.get();
+    }
+
+    /**
+     * Number of locations, and grid cells, known to be aliases of a
+     * city's entry.
+     */
+    public int getAliasCount() {
+        return mAliases.size();
+    }
+
+    /**
+     * Reduce a user-entered location to the form used as the cache
+     * key, so trivially different spellings share an entry: case and
+     * runs of whitespace don't matter, and neither does whitespace
+     * around the comma before a country, as in "San Diego, US".
+     */
+    public static String normalizeLocation(final String location) {
+        if(location == null) {
+            return "";
+        }
+        if(isNormalized(location)) {
+            // The common case, which mustn't allocate.
+            return location;
+        }
+        final StringBuilder sb = new StringBuilder(location.length());
+        boolean pendingSpace = false;
+        for(int i = 0; i < location.length(); i++) {
+            final char c = location.charAt(i);
+            if(Character.isWhitespace(c)) {
+                pendingSpace = sb.length() > 0 && sb.charAt(sb.length() - 1) != ',';
+            } else {
+                if(pendingSpace && c != ',') {
+                    sb.append(' ');
+                }
+                pendingSpace = false;
+                sb.append(c);
+            }
+        }
+        return sb.toString().toLowerCase(Locale.US);
+    }
+
+    private static boolean isNormalized(final String location) {
+        final int length = location.length();
+        for(int i = 0; i < length; i++) {
+            final char c = location.charAt(i);
+            if(c == ' ') {
+                if(i == 0
+                   || i == length - 1
+                   || location.charAt(i - 1) == ' '
+                   || location.charAt(i - 1) == ','
+                   || location.charAt(i + 1) == ',') {
+                    return false;
+                }
+            } else if(Character.isWhitespace(c) || Character.isUpperCase(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Entry await(final FutureTask<Entry> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             return null;
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
         }
-        List<WeatherData> weatherData = weatherDataMap.get(name);
-        Log.d(TAG, "Location " + name + (weatherData == null ? " not" : "") + " found in cache");
+    }
+
+    /**
+     * Return the cached WeatherData for @a name, or for the city it
+     * is an alias of, or null if there is none within the hard TTL.
+     * Unlike getOrFetch() this never triggers a download, even if
+     * the entry is stale.
+     */
+    public List<WeatherData> get(final String name) {
+        final Entry entry = getUsableEntry(resolve(name));
+        return entry == null ? null : entry.getData();
+    }
 
-        if(weatherData == null) {
+    /**
+     * Look @a name up in this process and then in the shared tier.
+     */
+    private Entry getUsableEntry(final String name) {
+        if(TextUtils.isEmpty(name)) {
             return null;
         }
+        Entry entry = getEntry(name);
+        if(entry == null) {
+            final Map.Entry<String, Entry> shared = getShared(name);
+            if(shared == null) {
+                return null;
+            }
+            entry = shared.getValue();
+            putEntry(shared.getKey(), entry);
+            if(!shared.getKey().equals(name)) {
+                // Another process learned that @a name is a city.
+                putAlias(name, shared.getKey());
+            }
+        }
+        return entry;
+    }
+
+    public void put(final String name, final List<WeatherData> weatherData) {
+        put(name, weatherData, Kind.FOUND);
+    }
+
+    /**
+     * Cache @a weatherData as an entry of the given @a kind, here and
+     * in the shared tier, and return the new entry.
+     */
+    public Entry put(final String name,
+                     final List<WeatherData> weatherData,
+                     final Kind kind) {
+        final Entry entry = new Entry(weatherData, System.currentTimeMillis(), kind);
+        putEntry(name, entry);
+        putShared(name, entry);
+        return entry;
+    }
+
+    /**
+     * Cache every location in @a weatherData as a FOUND entry stamped
+     * with the same @a cachedAt, here and in the shared tier, which
+     * receives them in a single call.  Cities with a known id are
+     * cached under it, see canonicalKey().  Used to load bulk data,
+     * so it skips the per-entry bookkeeping of put().  Locations past
+     * getMaxEntries() evict each other, so raise it first to keep
+     * them all.
+     */
+    public void putAll(final Map<String, List<WeatherData>> weatherData,
+                       final long cachedAt) {
+        if(weatherData.isEmpty()) {
+            return;
+        }
+        final Map<String, Entry> entries = new LinkedHashMap<>(weatherData.size() * 2);
+        final Map<String, String> learned = new LinkedHashMap<>(weatherData.size() * 2);
+        for(Map.Entry<String, List<WeatherData>> e : weatherData.entrySet()) {
+            final String key = canonicalKey(e.getKey(), e.getKey(),
+                                            WeatherData.ALL_FIELDS, e.getValue(), learned);
+            final Entry entry = new Entry(e.getValue(), cachedAt);
+            weatherDataMap.put(key, entry);
+            entries.put(key, entry);
+        }
+
+        mMaintenanceLock.lock();
+        try {
+            evictOverflow();
+        } finally {
+            mMaintenanceLock.unlock();
+        }
+        putSharedAll(entries, learned);
+    }
 
-        final Long cacheTime = weatherDataDateMap.get(name);
-        if(cacheTime == null) { // shouldn't happen
-            weatherDataMap.remove(name);
+    /**
+     * Look @a name up in this process only.  The entry may be stale
+     * but is within the hard TTL.
+     */
+    public Entry getEntry(final String name) {
+        final Entry entry = weatherDataMap.get(name);
+        if(entry == null) {
+            if(DEBUG) Log.d(TAG, "Location " + name + " not found in cache");
             return null;
         }
 
         final long currentTime = System.currentTimeMillis();
-        if(currentTime - MAX_AGE > cacheTime) {
-            Log.d(TAG, "Location " + name + " has aged out of cache");
-            weatherDataMap.remove(name);
-            weatherDataDateMap.remove(name);
+        if(currentTime - lifetimeOf(entry) > entry.getCachedAt()) {
+            if(DEBUG) Log.d(TAG, "Location " + name + " has aged out of cache");
+            weatherDataMap.remove(name, entry);
             return null;
         }
-        return weatherData;
+        entry.touch(currentTime);
+        return entry;
+    }
+
+    /**
+     * How long @a entry may be used: the hard TTL for positive
+     * entries and the matching negative TTL otherwise.
+     */
+    private long lifetimeOf(final Entry entry) {
+        switch(entry.getKind()) {
+        case NOT_FOUND:
+            return mNotFoundTtl;
+        case FAILED:
+            return mFailureTtl;
+        default:
+            return mHardTtl;
+        }
     }
 
-    public synchronized void put(final String name, final List<WeatherData> weatherData) {
+    /**
+     * Store @a entry in this process only.
+     */
+    public void putEntry(final String name, final Entry entry) {
+        final Entry previous = weatherDataMap.get(name);
+        if(previous != null) {
+            entry.follow(previous);
+        }
+
         // overwrite if it's already there
-        weatherDataMap.put(name, weatherData);
-        weatherDataDateMap.put(name, System.currentTimeMillis());
+        weatherDataMap.put(name, entry);
+
+        // If another thread is already doing maintenance it will
+        // also take care of this put().
+        if(mMaintenanceLock.tryLock()) {
+            try {
+                sweep(SWEEP_BATCH);
+                evictOverflow();
+            } finally {
+                mMaintenanceLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Remove every expired entry in this process.
+     */
+    public void evictExpired() {
+        mMaintenanceLock.lock();
+        try {
+            sweep(weatherDataMap.size());
+        } finally {
+            mMaintenanceLock.unlock();
+        }
+    }
+
+    /**
+     * Remove all entries, aliases and the grid in this process.
+     */
+    public void clear() {
+        weatherDataMap.clear();
+        mAliases.clear();
+        mGrid.clear();
+    }
+
+    /**
+     * Number of entries currently held in this process, including
+     * any that have expired but not yet been swept.
+     */
+    public int size() {
+        return weatherDataMap.size();
+    }
+
+    public int getMaxEntries() {
+        return mMaxEntries;
+    }
+
+    /**
+     * Change the maximum number of entries, evicting entries if the
+     * cache is now over the limit.
+     */
+    public void setMaxEntries(final int maxEntries) {
+        if(maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        mMaintenanceLock.lock();
+        try {
+            mMaxEntries = maxEntries;
+            evictOverflow();
+        } finally {
+            mMaintenanceLock.unlock();
+        }
+    }
+
+    /**
+     * Advance mCursor, wrapping around at the end of the map.
+     * Returns null if the map is empty.  Must hold
+     * mMaintenanceLock.
+     */
+    private Map.Entry<String, Entry> nextCursorEntry() {
+        if(mCursor == null || !mCursor.hasNext()) {
+            mCursor = weatherDataMap.entrySet().iterator();
+            if(!mCursor.hasNext()) {
+                return null;
+            }
+        }
+        return mCursor.next();
+    }
+
+    /**
+     * Examine up to @a limit entries and remove those that have
+     * expired.  Must hold mMaintenanceLock.
+     */
+    private void sweep(final int limit) {
+        final long now = System.currentTimeMillis();
+        for(int i = 0; i < limit; i++) {
+            final Map.Entry<String, Entry> e = nextCursorEntry();
+            if(e == null) {
+                return;
+            }
+            if(e.getValue().getCachedAt() < now - lifetimeOf(e.getValue())) {
+                weatherDataMap.remove(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Evict entries until the cache is within mMaxEntries.  Each
+     * victim is the least recently read of a small sample, which
+     * approximates LRU without any bookkeeping on the read path.
+     * Must hold mMaintenanceLock.
+     */
+    private void evictOverflow() {
+        while(weatherDataMap.size() > mMaxEntries) {
+            Map.Entry<String, Entry> victim = null;
+            final int sample = Math.min(EVICTION_SAMPLE, weatherDataMap.size());
+            for(int i = 0; i < sample; i++) {
+                final Map.Entry<String, Entry> e = nextCursorEntry();
+                if(e == null) {
+                    break;
+                }
+                if(victim == null
+                   || e.getValue().mLastAccess < victim.getValue().mLastAccess) {
+                    victim = e;
+                }
+            }
+            if(victim == null) {
+                return;
+            }
+            weatherDataMap.remove(victim.getKey(), victim.getValue());
+        }
+    }
+
+    private Map.Entry<String, Entry> getShared(final String name) {
+        final SharedTier sharedTier = mSharedTier;
+        return sharedTier == null ? null : sharedTier.get(name);
+    }
+
+    private void putShared(final String name, final Entry entry) {
+        final SharedTier sharedTier = mSharedTier;
+        if(sharedTier != null && entry.getData() != null) {
+            sharedTier.put(name, entry);
+        }
+    }
+
+    private void putSharedAll(final Map<String, Entry> entries,
+                              final Map<String, String> aliases) {
+        final SharedTier sharedTier = mSharedTier;
+        if(sharedTier != null) {
+            sharedTier.putAll(entries, aliases);
+        }
+    }
+
+    private void putSharedAlias(final String key, final String cityKey) {
+        final SharedTier sharedTier = mSharedTier;
+        if(sharedTier != null) {
+            sharedTier.putAlias(key, cityKey);
+        }
     }
 }
@@ -0,0 +1,106 @@
+package com.example.weatherservice.utils;
+
+import android.os.RemoteException;
+
+import com.example.weatherservice.WeatherCall;
+import com.example.weatherservice.WeatherData;
+import com.example.weatherservice.WeatherDelta;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the results a client last received for each location and
+ * their version, so that polling a location with
+ * getCurrentWeatherSince() only transfers what has changed.  While
+ * the weather is steady each poll returns the held List itself, so
+ * it allocates next to nothing on either side of the call.
+ * <p/>
+ * For WeatherCall, getCurrentWeather() does the whole round trip.
+ * For WeatherRequest, pass getVersion() to getCurrentWeatherSince()
+ * and hand the WeatherDelta that comes back via
+ * WeatherResults.sendDelta() to apply().
+ */
+public class WeatherDeltaClient {
+    /**
+     * The results held for a location and their version.
+     */
+    private static class Held {
+        final List<WeatherData> mResults;
+        final long mVersion;
+
+        Held(List<WeatherData> results, long version) {
+            mResults = results;
+            mVersion = version;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Held> mHeld = new ConcurrentHashMap<>();
+
+    /**
+     * Return the version of the results held for @a location, or
+     * WeatherDelta.NO_VERSION if there are none.
+     */
+    public long getVersion(String location) {
+        final Held held = mHeld.get(WeatherCache.normalizeLocation(location));
+        return held == null ? WeatherDelta.NO_VERSION : held.mVersion;
+    }
+
+    /**
+     * Return the results held for @a location, or null if there are
+     * none.
+     */
+    public List<WeatherData> getResults(String location) {
+        final Held held = mHeld.get(WeatherCache.normalizeLocation(location));
+        return held == null ? null : held.mResults;
+    }
+
+    /**
+     * Apply @a delta, the reply to a getCurrentWeatherSince() call
+     * for @a location, to the results held for it, hold the outcome,
+     * and return it.  If the delta is against results no longer held,
+     * e.g., because another reply arrived first, nothing is held, so
+     * the next request fetches the results whole, and null is
+     * returned.
+     */
+    public List<WeatherData> apply(String location, WeatherDelta delta) {
+        final String key = WeatherCache.normalizeLocation(location);
+        final Held held = mHeld.get(key);
+        if (delta.getKind() != WeatherDelta.FULL
+            && (held == null || held.mVersion != delta.getBaseVersion())) {
+            if (held != null) {
+                mHeld.remove(key, held);
+            }
+            return null;
+        }
+        final List<WeatherData> results = delta.applyTo(held == null ? null : held.mResults);
+        if (results != (held == null ? null : held.mResults)) {
+            mHeld.put(key, new Held(results, delta.getVersion()));
+        }
+        return results;
+    }
+
+    /**
+     * Return the current weather for @a location from @a call,
+     * sending the version of the results held for it so that only
+     * what has changed is transferred.  Returns an empty List if the
+     * location is unknown.
+     */
+    public List<WeatherData> getCurrentWeather(WeatherCall call, String location)
+        throws RemoteException {
+        final WeatherDelta delta = call.getCurrentWeatherSince(location, getVersion(location));
+        final List<WeatherData> results = apply(location, delta);
+        if (results != null) {
+            return results;
+        }
+        // What was held changed under us; start over.
+        return apply(location, call.getCurrentWeatherSince(location, WeatherDelta.NO_VERSION));
+    }
+
+    /**
+     * Forget the results held for every location.
+     */
+    public void clear() {
+        mHeld.clear();
+    }
+}
@@ -0,0 +1,278 @@
+package com.example.weatherservice.utils;
+
+import android.util.Log;
+
+import com.example.weatherservice.WeatherData;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An append-only log of WeatherCache entries that lets the cache
+ * survive its process being killed.  Each append() writes one
+ * record; load() replays the log, keeping the newest record for each
+ * location that is still within the hard TTL.  Once the log grows
+ * past MAX_LOG_SIZE, load() rewrites it with just those records.
+ * After load(), append() keeps track of the newest record for each
+ * location too, and compacts the log the same way once it grows past
+ * MAX_LOG_SIZE or twice its size after the last compaction, so a
+ * long-lived process doesn't grow it without limit.
+ * <p/>
+ * Record layout: location (UTF), download time (long), number of
+ * results (int), then each WeatherData as written by
+ * WeatherData.writeTo(), which follows the field order of
+ * writeToParcel().
+ * <p/>
+ * Not thread-safe; WeatherCacheProvider, its only user, serializes
+ * access to it.
+ */
+public class WeatherDiskCache {
+    private final static String TAG = WeatherDiskCache.class.getSimpleName();
+
+    /**
+     * Identifies the file format.  Logs with a different value are
+     * discarded, so change it whenever the layout changes.
+     */
+    private final static int MAGIC = 0x57434c34; // "WCL4"
+
+    final static long MAX_LOG_SIZE = 512 * 1024;
+
+    private final File mFile;
+    private DataOutputStream mOut;
+
+    /**
+     * Set by load(): the newest entry for each location in the log,
+     * oldest first, the maxAge they are kept for, and the log size
+     * at which append() compacts the log.
+     */
+    private final Map<String, WeatherCache.Entry> mLatest = new LinkedHashMap<>();
+    private long mMaxAge;
+    private long mCompactAt = Long.MAX_VALUE;
+
+    public WeatherDiskCache(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Read the log and return the newest entry for each location
+     * downloaded less than @a maxAge milliseconds ago, oldest first.
+     * A record cut short by the process dying mid-write is dropped
+     * and trimmed off the end of the log.
+     */
+    public Map<String, WeatherCache.Entry> load(final long maxAge) {
+        final Map<String, WeatherCache.Entry> entries = new LinkedHashMap<>();
+        mLatest.clear();
+        mMaxAge = maxAge;
+        mCompactAt = MAX_LOG_SIZE;
+        if (!mFile.exists()) {
+            return entries;
+        }
+        final long oldest = System.currentTimeMillis() - maxAge;
+        long goodLength = 0;
+        try (CountingInputStream counter = new CountingInputStream(
+                 new BufferedInputStream(new FileInputStream(mFile)));
+             DataInputStream in = new DataInputStream(counter)) {
+            if (in.readInt() != MAGIC) {
+                Log.w(TAG, "Discarding " + mFile + " with unknown format");
+                mFile.delete();
+                return entries;
+            }
+            goodLength = counter.getCount();
+            while (true) {
+                final String location = in.readUTF();
+                final long cachedAt = in.readLong();
+                final int count = in.readInt();
+                final List<WeatherData> data = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    data.add(WeatherData.readFrom(in));
+                }
+                goodLength = counter.getCount();
+                // Re-insert so the map stays in order of download.
+                entries.remove(location);
+                if (cachedAt >= oldest) {
+                    entries.put(location, new WeatherCache.Entry(data, cachedAt));
+                }
+            }
+        } catch (EOFException e) {
+            // The end of the log, possibly in the middle of a record.
+        } catch (IOException e) {
+            Log.w(TAG, "Stopped reading " + mFile + " at offset " + goodLength, e);
+        }
+
+        if (mFile.length() > MAX_LOG_SIZE) {
+            rewrite(entries);
+        } else if (mFile.length() > goodLength) {
+            truncate(goodLength);
+        }
+        mLatest.putAll(entries);
+        mCompactAt = Math.max(MAX_LOG_SIZE, 2 * mFile.length());
+        return entries;
+    }
+
+    /**
+     * Append a record for @a location to the log, compacting it
+     * first if it has grown too large since load().
+     */
+    public void append(final String location, final WeatherCache.Entry entry) {
+        mLatest.remove(location);
+        mLatest.put(location, entry);
+        if (mFile.length() > mCompactAt && compact()) {
+            return;
+        }
+        try {
+            final DataOutputStream out = openForAppend();
+            writeRecord(out, location, entry);
+            out.flush();
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to append " + location + " to " + mFile, e);
+            closeQuietly();
+        }
+    }
+
+    /**
+     * Rewrite the log with the newest record for each location that
+     * is still within the maxAge given to load().  Returns false if
+     * the log couldn't be rewritten.
+     */
+    private boolean compact() {
+        final long oldest = System.currentTimeMillis() - mMaxAge;
+        final Iterator<WeatherCache.Entry> entries = mLatest.values().iterator();
+        while (entries.hasNext()) {
+            if (entries.next().getCachedAt() < oldest) {
+                entries.remove();
+            }
+        }
+        if (!rewrite(mLatest)) {
+            return false;
+        }
+        mCompactAt = Math.max(MAX_LOG_SIZE, 2 * mFile.length());
+        return true;
+    }
+
+    /**
+     * Replace the log with one holding just @a entries.  The new
+     * log is written to a temporary file and renamed into place, so
+     * a crash part way through leaves the old log intact.  Returns
+     * false if it couldn't be replaced.
+     */
+    private boolean rewrite(final Map<String, WeatherCache.Entry> entries) {
+        closeQuietly();
+        final File tmp = new File(mFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            for (Map.Entry<String, WeatherCache.Entry> e : entries.entrySet()) {
+                writeRecord(out, e.getKey(), e.getValue());
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to compact " + mFile, e);
+            tmp.delete();
+            return false;
+        }
+        if (!tmp.renameTo(mFile)) {
+            Log.w(TAG, "Unable to replace " + mFile);
+            tmp.delete();
+            return false;
+        }
+        return true;
+    }
+
+    private void truncate(final long length) {
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            file.setLength(length);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to truncate " + mFile, e);
+        }
+    }
+
+    private DataOutputStream openForAppend() throws IOException {
+        if (mOut == null) {
+            final boolean isNew = !mFile.exists() || mFile.length() == 0;
+            mOut = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(mFile, true)));
+            if (isNew) {
+                mOut.writeInt(MAGIC);
+            }
+        }
+        return mOut;
+    }
+
+    private void closeQuietly() {
+        if (mOut != null) {
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                // Nothing more can be done.
+            }
+            mOut = null;
+        }
+    }
+
+    private static void writeRecord(final DataOutputStream out,
+                                    final String location,
+                                    final WeatherCache.Entry entry) throws IOException {
+        final List<WeatherData> data = entry.getData();
+        out.writeUTF(location);
+        out.writeLong(entry.getCachedAt());
+        out.writeInt(data.size());
+        for (WeatherData weatherData : data) {
+            weatherData.writeTo(out);
+        }
+    }
+
+    /**
+     * Keeps track of how many bytes have been read, so load() knows
+     * where the last complete record ends.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b >= 0) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            final int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                mCount += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = super.skip(n);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.example.weatherservice.utils;
+
+import android.os.RemoteCallbackList;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.weatherservice.WeatherDataList;
+import com.example.weatherservice.WeatherResults;
+import com.example.weatherservice.WeatherStats;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pushes the current weather to subscribed clients.  Each subscribed
+ * location is a topic, polled on a shared scheduler at the shortest
+ * interval any of its subscribers asked for, and every poll's result
+ * is fanned out to all of them.  So the lookups scale with the number
+ * of distinct locations, not of clients, and the lookups themselves
+ * go through WeatherCache, which only downloads when its entry is
+ * stale.  Polls are further apart than the soft TTL, so a stale
+ * entry is refreshed before it is sent rather than after, see
+ * WeatherCache.lookupFresh().
+ * <p/>
+ * A subscriber is only sent results that differ from the last ones
+ * it was sent, and no more often than its own interval.  Each
+ * result is encoded once per entry (see WeatherCache.Entry.getReply())
+ * however many subscribers receive it.  The subscribers of a topic
+ * are kept in a RemoteCallbackList, which drops those whose process
+ * dies; a topic that loses its last subscriber stops being polled.
+ */
+public class WeatherSubscriptions {
+    private final static String TAG = WeatherSubscriptions.class.getSimpleName();
+
+    /**
+     * Shorter intervals are raised to this, in milliseconds.
+     */
+    public final static long MIN_INTERVAL = 60 * 1000;
+
+    /**
+     * What a topic records about each subscriber, as its cookie in
+     * the RemoteCallbackList.  Only touched during a broadcast, which
+     * holds the topic's lock.
+     */
+    private static class Subscriber {
+        final long mMinInterval;
+        long mLastSent;
+        long mLastVersion;
+
+        /**
+         * The kind of entry last sent, or null if nothing has been.
+         */
+        WeatherCache.Kind mLastKind;
+
+        Subscriber(long minInterval) {
+            mMinInterval = minInterval;
+        }
+    }
+
+    /**
+     * The subscribers of one location, and its poll.
+     */
+    private class Topic extends RemoteCallbackList<WeatherResults> implements Runnable {
+        final String mKey;
+
+        /*
+         * The poll's interval and its scheduled task.  Guarded by
+         * WeatherSubscriptions.this.
+         */
+        long mInterval = Long.MAX_VALUE;
+        ScheduledFuture<?> mPoll;
+
+        Topic(String key) {
+            mKey = key;
+        }
+
+        @Override
+        public void run() {
+            try {
+                poll(this);
+            } catch (RuntimeException e) {
+                // Don't let one failure cancel the periodic poll.
+                Log.w(TAG, "Poll of " + mKey + " failed", e);
+            }
+        }
+
+        @Override
+        public void onCallbackDied(WeatherResults callback, Object cookie) {
+            removeIfUnused(this);
+        }
+    }
+
+    private final WeatherCache mCache;
+    private final ScheduledThreadPoolExecutor mScheduler;
+
+    /**
+     * The topics by normalized location.  Guarded by this.
+     */
+    private final Map<String, Topic> mTopics = new HashMap<>();
+
+    private final AtomicLong mPollCount = new AtomicLong();
+
+    public WeatherSubscriptions(WeatherCache cache) {
+        mCache = cache;
+        mScheduler = new ScheduledThreadPoolExecutor(2, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "WeatherSubscriptions");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        mScheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Send @a callback the current weather for @a location now, and
+     * again whenever it changes, but no more often than every
+     * @a minInterval milliseconds.  Subscribing again replaces the
+     * interval.  An empty location is reported via onError().
+     */
+    public void subscribe(String location, long minInterval, WeatherResults callback)
+        throws RemoteException {
+        final String key = WeatherCache.normalizeLocation(location);
+        if (key.isEmpty()) {
+            callback.onError(location, WeatherStats.ERROR_NOT_FOUND);
+            return;
+        }
+        final long interval = Math.max(minInterval, MIN_INTERVAL);
+
+        final Topic topic;
+        synchronized (this) {
+            Topic existing = mTopics.get(key);
+            if (existing == null) {
+                existing = new Topic(key);
+                mTopics.put(key, existing);
+            }
+            topic = existing;
+            topic.unregister(callback);
+            if (!topic.register(callback, new Subscriber(interval))) {
+                // Its process has already died.
+                removeIfUnused(topic);
+                return;
+            }
+            if (interval < topic.mInterval) {
+                schedule(topic, interval);
+            }
+        }
+        // Answer the new subscriber right away; the others are only
+        // sent anything if it's news to them.
+        mScheduler.execute(topic);
+    }
+
+    /**
+     * Stop sending @a callback the weather for @a location.
+     */
+    public void unsubscribe(String location, WeatherResults callback) {
+        final Topic topic;
+        synchronized (this) {
+            topic = mTopics.get(WeatherCache.normalizeLocation(location));
+        }
+        if (topic != null) {
+            topic.unregister(callback);
+            removeIfUnused(topic);
+        }
+    }
+
+    /**
+     * Stop every poll and drop every subscriber.  Called when the
+     * service is destroyed.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            for (Topic topic : mTopics.values()) {
+                topic.kill();
+            }
+            mTopics.clear();
+        }
+        mScheduler.shutdownNow();
+    }
+
+    /**
+     * Number of locations with subscribers.
+     */
+    public synchronized int getTopicCount() {
+        return mTopics.size();
+    }
+
+    /**
+     * Number of polls made so far, on schedule or for new
+     * subscribers.
+     */
+    public long getPollCount() {
+        return mPollCount.get();
+    }
+
+    /**
+     * (Re)schedule @a topic's poll every @a interval milliseconds.
+     * Must hold this.
+     */
+    private void schedule(Topic topic, long interval) {
+        if (topic.mPoll != null) {
+            topic.mPoll.cancel(false);
+        }
+        topic.mInterval = interval;
+        topic.mPoll = mScheduler.scheduleWithFixedDelay(topic,
+                                                        interval,
+                                                        interval,
+                                                        TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop polling @a topic if it has no subscribers left.
+     */
+    private synchronized void removeIfUnused(Topic topic) {
+        if (topic.getRegisteredCallbackCount() > 0 || mTopics.get(topic.mKey) != topic) {
+            return;
+        }
+        mTopics.remove(topic.mKey);
+        if (topic.mPoll != null) {
+            topic.mPoll.cancel(false);
+        }
+    }
+
+    /**
+     * Look @a topic's location up, refreshing it first if it is
+     * stale, and send the result to each
+     * subscriber that hasn't had it and is due.  Also slows the poll
+     * down if the subscriber that wanted it fastest has gone.
+     */
+    private void poll(Topic topic) {
+        mPollCount.incrementAndGet();
+        final WeatherCache.Entry entry = mCache.lookupFresh(topic.mKey);
+        if (entry == null) {
+            // Interrupted, e.g., by shutdown().
+            return;
+        }
+        final WeatherCache.Kind kind = entry.getKind();
+        final WeatherDataList reply = kind == WeatherCache.Kind.FOUND ? entry.getReply() : null;
+        final int error = kind == WeatherCache.Kind.NOT_FOUND
+            ? WeatherStats.ERROR_NOT_FOUND
+            : WeatherStats.ERROR_FAILED;
+        final long version = entry.getVersion();
+        final long now = SystemClock.elapsedRealtime();
+
+        long interval = Long.MAX_VALUE;
+        int subscribers;
+        synchronized (topic) {
+            subscribers = topic.beginBroadcast();
+            try {
+                for (int i = 0; i < subscribers; i++) {
+                    final Subscriber subscriber = (Subscriber) topic.getBroadcastCookie(i);
+                    interval = Math.min(interval, subscriber.mMinInterval);
+                    if (subscriber.mLastKind == kind && subscriber.mLastVersion == version) {
+                        continue;
+                    }
+                    if (subscriber.mLastKind != null
+                        && now - subscriber.mLastSent < subscriber.mMinInterval) {
+                        continue;
+                    }
+                    try {
+                        if (reply != null) {
+                            topic.getBroadcastItem(i).sendResults(reply);
+                        } else {
+                            topic.getBroadcastItem(i).onError(topic.mKey, error);
+                        }
+                    } catch (RemoteException e) {
+                        // Its process died; the list drops it.
+                        continue;
+                    }
+                    subscriber.mLastSent = now;
+                    subscriber.mLastVersion = version;
+                    subscriber.mLastKind = kind;
+                }
+            } finally {
+                topic.finishBroadcast();
+            }
+        }
+
+        if (subscribers == 0) {
+            removeIfUnused(topic);
+            return;
+        }
+        synchronized (this) {
+            if (interval != topic.mInterval && mTopics.get(topic.mKey) == topic) {
+                schedule(topic, interval);
+            }
+        }
+    }
+}
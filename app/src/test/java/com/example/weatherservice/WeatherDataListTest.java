@@ -0,0 +1,123 @@
+package com.example.weatherservice;
+
+import android.os.Parcelable;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the records WeatherDataList sends inline or through
+ * a pipe.  The Parcel and the pipe themselves are covered by the
+ * device tests.
+ */
+public class WeatherDataListTest {
+    private static WeatherDataList cities(int count) {
+        final WeatherDataList cities = new WeatherDataList();
+        for (int i = 0; i < count; i++) {
+            cities.add(new WeatherData("City " + i, 2.42, i % 360, 61.2 + i % 40, 76,
+                                       1431427373 + i, 1431477841 + i,
+                                       "scattered clouds", "US"));
+        }
+        return cities;
+    }
+
+    private static byte[] write(List<WeatherData> results) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        WeatherDataList.writeRecords(results, bytes);
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void roundTripsRecords() throws IOException {
+        final WeatherData nashville =
+            new WeatherData("Nashville", 2.42, 310.002, 61.2, 76, 1431427373, 1431477841,
+                            "scattered clouds", "US");
+        final List<WeatherData> results =
+            Arrays.asList(nashville, null, nashville.project(WeatherData.FIELD_TEMP));
+
+        final WeatherDataList copy =
+            WeatherDataList.readRecords(new ByteArrayInputStream(write(results)));
+        assertEquals(results, copy);
+        assertEquals(WeatherData.FIELD_TEMP, copy.get(2).getFields());
+        assertTrue(WeatherDataList.readRecords(
+                       new ByteArrayInputStream(write(new WeatherDataList()))).isEmpty());
+    }
+
+    @Test
+    public void reusesGivenRecordsUntilModified() {
+        final WeatherDataList cities = cities(20);
+        final byte[] records = WeatherDataList.encode(cities);
+        final WeatherDataList reply = new WeatherDataList(cities, records);
+        assertSame(records, reply.getRecords());
+        assertSame(records, reply.getRecords());
+
+        reply.remove(19);
+        assertNotSame(records, reply.getRecords());
+        assertArrayEquals(WeatherDataList.encode(cities.subList(0, 19)), reply.getRecords());
+        // Encoded once more, and then reused again.
+        assertSame(reply.getRecords(), reply.getRecords());
+    }
+
+    @Test
+    public void smallResultsStayInline() throws IOException {
+        // A full page of a dashboard is well under the limit.
+        assertTrue(write(cities(200)).length <= WeatherDataList.MAX_INLINE_BYTES);
+        assertTrue(write(cities(5000)).length > WeatherDataList.MAX_INLINE_BYTES);
+        // Only the larger is written as a file descriptor.
+        assertEquals(0, cities(200).describeContents());
+        assertEquals(Parcelable.CONTENTS_FILE_DESCRIPTOR, cities(5000).describeContents());
+    }
+
+    @Test
+    public void largeResultsStreamThroughPipe() throws Exception {
+        final WeatherDataList cities = cities(50000);
+        final byte[] records = write(cities);
+        assertTrue(records.length > 10 * WeatherDataList.MAX_INLINE_BYTES);
+
+        // As on a device, the writer blocks once the pipe's buffer is
+        // full until the reader catches up.
+        final PipedInputStream in = new PipedInputStream(64 * 1024);
+        final PipedOutputStream out = new PipedOutputStream(in);
+        final AtomicReference<IOException> failure = new AtomicReference<>();
+        final Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        out.write(records);
+                        out.close();
+                    } catch (IOException e) {
+                        failure.set(e);
+                    }
+                }
+            });
+        writer.start();
+
+        final WeatherDataList copy = WeatherDataList.readRecords(in);
+        writer.join();
+        assertNull(failure.get());
+        assertEquals(cities, copy);
+    }
+
+    @Test
+    public void truncatedRecordsFail() throws IOException {
+        final byte[] records = write(cities(10));
+        try {
+            WeatherDataList.readRecords(
+                new ByteArrayInputStream(Arrays.copyOf(records, records.length - 1)));
+            fail("Expected EOFException");
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+}
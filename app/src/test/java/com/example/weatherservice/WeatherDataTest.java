@@ -0,0 +1,180 @@
+package com.example.weatherservice;
+
+import com.example.weatherservice.jsonweather.WeatherJSONParser;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the compact encoding WeatherData is marshaled with.
+ * The Parcel itself is covered by the device tests.
+ */
+public class WeatherDataTest {
+    private static final WeatherData NASHVILLE =
+        new WeatherData("Nashville", 2.42, 310.002, 61.2, 76, 1431427373, 1431477841,
+                        "scattered clouds", "US");
+
+    private static WeatherData roundTrip(WeatherData data) {
+        return WeatherData.fromCompactBytes(data.toCompactBytes());
+    }
+
+    @Test
+    public void roundTripsEveryField() {
+        final WeatherData copy = roundTrip(NASHVILLE);
+        assertEquals(NASHVILLE, copy);
+        assertEquals("Nashville", copy.getmName());
+        assertEquals(310.002, copy.getmDeg(), 0);
+        assertEquals(1431477841, copy.getmSunset());
+        assertSame(NASHVILLE.getmCountry(), copy.getmCountry());
+    }
+
+    @Test
+    public void roundTripsAwkwardValues() {
+        final WeatherData[] values = {
+            new WeatherData(null, Double.NaN, -0.0, 1e300, -5, 0, -1431477841, null, null),
+            new WeatherData("\u6771\u4eac\u90fd", 0.1 + 0.2, -273.15, Double.MIN_VALUE,
+                            Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE,
+                            "light drizzle", "XX"),
+            new WeatherData("S\u00e3o Paulo", 1e15, 123.4567, Double.NEGATIVE_INFINITY,
+                            100, 1431427373, 1431427373, "", "BR"),
+        };
+        for (WeatherData data : values) {
+            assertEquals(data, roundTrip(data));
+            assertEquals(data.getmName(), roundTrip(data).getmName());
+        }
+    }
+
+    @Test
+    public void roundTripsProjections() {
+        final WeatherData tempOnly = NASHVILLE.project(WeatherData.FIELD_TEMP | WeatherData.FIELD_SUNSET);
+        final WeatherData copy = roundTrip(tempOnly);
+        assertEquals(tempOnly, copy);
+        assertEquals(WeatherData.FIELD_TEMP | WeatherData.FIELD_SUNSET, copy.getFields());
+        assertEquals(1431477841, copy.getmSunset());
+        assertNull(copy.getmName());
+        // Nothing is written for fields outside the mask.
+        assertTrue(tempOnly.toCompactBytes().length < NASHVILLE.toCompactBytes().length / 2);
+    }
+
+    @Test
+    public void keepsCityIdAndDecodesVersion1() {
+        final WeatherData withId =
+            new WeatherData("Nashville", 2.42, 310.002, 61.2, 76, 1431427373, 1431477841,
+                            "scattered clouds", "US", WeatherData.ALL_FIELDS, 4644585);
+        assertEquals(4644585, roundTrip(withId).getmCityId());
+        assertEquals(4644585, roundTrip(withId.project(WeatherData.FIELD_TEMP)).getmCityId());
+        assertFalse(withId.equals(NASHVILLE));
+
+        // Version 1 ended with the fields; its cities have no id or
+        // coordinates.
+        final byte[] current = NASHVILLE.toCompactBytes();
+        final byte[] v1 = Arrays.copyOf(current, current.length - 2);
+        v1[0] = 1;
+        assertEquals(NASHVILLE, WeatherData.fromCompactBytes(v1));
+    }
+
+    @Test
+    public void keepsCoordinatesWithTheName() {
+        final WeatherData placed =
+            new WeatherData("Nashville", 2.42, 310.002, 61.2, 76, 1431427373, 1431477841,
+                            "scattered clouds", "US", WeatherData.ALL_FIELDS, 4644585,
+                            36.17, -86.78);
+        final WeatherData copy = roundTrip(placed);
+        assertEquals(placed, copy);
+        assertTrue(copy.hasCoordinates());
+        assertEquals(-86.78, copy.getmLon(), 0);
+        assertFalse(NASHVILLE.hasCoordinates());
+
+        // A projection without the name leaves them to apply().
+        final WeatherData temp = placed.project(WeatherData.FIELD_TEMP);
+        assertFalse(roundTrip(temp).hasCoordinates());
+        assertEquals(placed, placed.apply(temp));
+        assertTrue(roundTrip(placed.project(WeatherData.FIELD_NAME)).hasCoordinates());
+    }
+
+    @Test
+    public void decodesLaterVersions() {
+        final byte[] current = NASHVILLE.toCompactBytes();
+        final byte[] later = Arrays.copyOf(current, current.length + 2);
+        later[0] = WeatherData.COMPACT_VERSION + 1;
+        // The mask 0x1ff is the varint ff 03.  Add bit 9, which this
+        // version doesn't know, and append a value for it.
+        assertEquals((byte) 0x03, current[2]);
+        later[2] = 0x07;
+        later[current.length] = 42;
+        later[current.length + 1] = 7;
+
+        final WeatherData data = WeatherData.fromCompactBytes(later);
+        assertEquals(NASHVILLE, data);
+        // Passed on as is until decoded, so nothing is lost on the way.
+        assertArrayEquals(later, WeatherData.fromCompactBytes(later).toCompactBytes());
+    }
+
+    @Test
+    public void malformedBytesFailOnFirstAccess() {
+        final byte[] truncated = Arrays.copyOf(NASHVILLE.toCompactBytes(), 8);
+        final WeatherData data = WeatherData.fromCompactBytes(truncated);
+        try {
+            data.getmTemp();
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            WeatherData.fromCompactBytes(new byte[] { 0, 0 }).getmName();
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Bytes the layout writeToParcel() used before the compact
+     * encoding takes in a Parcel: an int mask, then each String as a
+     * length and NUL-terminated UTF-16 padded to 4 bytes, and 8
+     * bytes per double and long.
+     */
+    private static int legacyParcelSize(WeatherData data) {
+        return 4
+            + stringSize(data.getmName())
+            + 3 * 8
+            + 3 * 8
+            + stringSize(data.getmDescription())
+            + stringSize(data.getmCountry());
+    }
+
+    private static int stringSize(String s) {
+        return s == null ? 4 : 4 + ((s.length() + 1) * 2 + 3) / 4 * 4;
+    }
+
+    /**
+     * Bytes the compact encoding takes in a Parcel, written with
+     * writeByteArray(): a length, then the bytes padded to 4.
+     */
+    private static int compactParcelSize(WeatherData data) {
+        return 4 + (data.toCompactBytes().length + 3) / 4 * 4;
+    }
+
+    @Test
+    public void halvesParcelSizeOfGroupReply() throws IOException {
+        final List<WeatherData> cities;
+        try (InputStream in = getClass().getResourceAsStream("/fixtures/group-20.json")) {
+            cities = new WeatherJSONParser().parseWeatherData(in);
+        }
+        int legacy = 0;
+        int compact = 0;
+        for (WeatherData city : cities) {
+            legacy += legacyParcelSize(city);
+            compact += compactParcelSize(city);
+            assertEquals(city, roundTrip(city));
+        }
+        assertTrue(compact + " bytes compact, " + legacy + " bytes before",
+                   compact * 2 <= legacy);
+    }
+}
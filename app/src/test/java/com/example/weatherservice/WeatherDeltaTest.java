@@ -0,0 +1,155 @@
+package com.example.weatherservice;
+
+import android.os.Parcelable;
+
+import com.example.weatherservice.jsonweather.WeatherJSONParser;
+import com.example.weatherservice.utils.WeatherDeltaClient;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for WeatherDelta, the field-level diffs it is made of,
+ * and WeatherDeltaClient.
+ */
+public class WeatherDeltaTest {
+    private static final WeatherData NASHVILLE =
+        new WeatherData("Nashville", 2.42, 310.002, 61.2, 76, 1431427373, 1431477841,
+                        "scattered clouds", "US");
+
+    private static List<WeatherData> group() throws IOException {
+        try (InputStream in = WeatherDeltaTest.class.getResourceAsStream("/fixtures/group-20.json")) {
+            return new WeatherJSONParser().parseWeatherData(in);
+        }
+    }
+
+    /**
+     * Return @a results as the next poll might see them: the first
+     * city a degree warmer, everything else the same.
+     */
+    private static WeatherDataList warmer(List<WeatherData> results) {
+        final WeatherDataList warmer = new WeatherDataList(results);
+        final WeatherData first = results.get(0);
+        warmer.set(0, new WeatherData(first.getmName(), first.getmSpeed(), first.getmDeg(),
+                                      first.getmTemp() + 1, first.getmHumidity(),
+                                      first.getmSunrise(), first.getmSunset(),
+                                      first.getmDescription(), first.getmCountry(),
+                                      first.getFields(), first.getmCityId(),
+                                      first.getmLat(), first.getmLon()));
+        return warmer;
+    }
+
+    private static long versionOf(List<WeatherData> results) {
+        return WeatherDataList.versionOf(WeatherDataList.encode(results));
+    }
+
+    @Test
+    public void diffsAndAppliesFields() {
+        final WeatherData rainy =
+            new WeatherData("Nashville", 2.42, 310.002, 58.0, 76, 1431427373, 1431477841,
+                            "light rain", "US");
+        final int changed = rainy.diff(NASHVILLE);
+        assertEquals(WeatherData.FIELD_TEMP | WeatherData.FIELD_DESCRIPTION, changed);
+        assertEquals(0, NASHVILLE.diff(NASHVILLE));
+
+        assertEquals(rainy, NASHVILLE.apply(rainy.project(changed)));
+        assertSame(NASHVILLE, NASHVILLE.apply(rainy.project(0)));
+        assertEquals(WeatherData.FIELD_SPEED | WeatherData.FIELD_DEG,
+                     NASHVILLE.diff(NASHVILLE.project(~(WeatherData.FIELD_SPEED
+                                                        | WeatherData.FIELD_DEG))));
+    }
+
+    @Test
+    public void sendsOnlyChangedFields() throws IOException {
+        final List<WeatherData> held = group();
+        final WeatherDataList current = warmer(held);
+        final long version = versionOf(current);
+        assertFalse(version == versionOf(held));
+
+        final WeatherDelta delta =
+            WeatherDelta.between(versionOf(held), held, version, current);
+        assertEquals(WeatherDelta.DELTA, delta.getKind());
+        assertEquals(version, delta.getVersion());
+
+        final List<WeatherData> applied = delta.applyTo(held);
+        assertEquals(current, applied);
+        // Unchanged cities are the held instances.
+        assertSame(held.get(1), applied.get(1));
+    }
+
+    @Test
+    public void fallsBackToFullWhenFieldsDiffer() throws IOException {
+        final List<WeatherData> held = group();
+        final WeatherDataList current = new WeatherDataList(held);
+        current.set(3, held.get(3).project(WeatherData.FIELD_NAME | WeatherData.FIELD_TEMP));
+
+        final WeatherDelta delta =
+            WeatherDelta.between(versionOf(held), held, versionOf(current), current);
+        assertEquals(WeatherDelta.FULL, delta.getKind());
+        assertEquals(current, delta.applyTo(held));
+        assertEquals(WeatherDelta.FULL,
+                     WeatherDelta.between(1, held.subList(0, 19), 2, current).getKind());
+    }
+
+    @Test
+    public void clientHoldsResultsBetweenPolls() throws IOException {
+        final WeatherDeltaClient client = new WeatherDeltaClient();
+        final WeatherDataList first = new WeatherDataList(group());
+        final long firstVersion = versionOf(first);
+        assertEquals(WeatherDelta.NO_VERSION, client.getVersion("Nashville"));
+
+        final List<WeatherData> held =
+            client.apply("Nashville", WeatherDelta.full(firstVersion, first));
+        assertEquals(first, held);
+        assertEquals(firstVersion, client.getVersion(" nashville "));
+
+        // Steady weather: the held List itself comes back.
+        assertSame(held, client.apply("Nashville", WeatherDelta.notModified(firstVersion)));
+
+        final WeatherDataList second = warmer(first);
+        final long secondVersion = versionOf(second);
+        final List<WeatherData> updated =
+            client.apply("Nashville",
+                         WeatherDelta.between(firstVersion, first, secondVersion, second));
+        assertEquals(second, updated);
+        assertEquals(secondVersion, client.getVersion("Nashville"));
+
+        // A delta against results that are no longer held is refused,
+        // and the next request starts over.
+        assertNull(client.apply("Nashville",
+                                WeatherDelta.between(firstVersion, first, secondVersion, second)));
+        assertEquals(WeatherDelta.NO_VERSION, client.getVersion("Nashville"));
+    }
+
+    @Test
+    public void deltaIsAFractionOfTheResults() throws IOException {
+        final List<WeatherData> held = group();
+        final WeatherDataList current = warmer(held);
+        final WeatherDelta delta =
+            WeatherDelta.between(versionOf(held), held, versionOf(current), current);
+        final int whole = WeatherDataList.encode(current).length;
+        final int changed = WeatherDataList.encode(delta.getResults()).length;
+        assertTrue(whole + " bytes whole, " + changed + " bytes as a delta",
+                   changed * 4 < whole);
+        assertNull(WeatherDelta.notModified(1).getResults());
+    }
+
+    @Test
+    public void largeFullReplyCarriesFileDescriptor() throws IOException {
+        final WeatherDataList held = new WeatherDataList(group());
+        assertEquals(0, WeatherDelta.full(versionOf(held), held).describeContents());
+        assertEquals(0, WeatherDelta.notModified(versionOf(held)).describeContents());
+
+        final WeatherDataList large = new WeatherDataList();
+        while (WeatherDataList.encode(large).length <= WeatherDataList.MAX_INLINE_BYTES) {
+            large.addAll(held);
+        }
+        assertEquals(Parcelable.CONTENTS_FILE_DESCRIPTOR,
+                     WeatherDelta.full(versionOf(large), large).describeContents());
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.weatherservice;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for how WeatherForecast packs its short columns for a
+ * Parcel.  The Parcel itself is covered by the device tests.
+ */
+public class WeatherForecastTest {
+    @Test
+    public void shortColumnsShareOneByteArray() {
+        final short[] windDegs = { 0, 353, 32, 359 };
+        final short[] conditionIds = { 500, 802, Short.MAX_VALUE, -1 };
+
+        final byte[] bytes = WeatherForecast.toBytes(windDegs, conditionIds);
+        // 2 bytes a value, against 4 for Parcel's char[] and int[].
+        assertEquals(16, bytes.length);
+        assertArrayEquals(windDegs, WeatherForecast.toShorts(bytes, 0));
+        assertArrayEquals(conditionIds, WeatherForecast.toShorts(bytes, 1));
+        assertEquals(0, WeatherForecast.toShorts(new byte[0], 1).length);
+    }
+}
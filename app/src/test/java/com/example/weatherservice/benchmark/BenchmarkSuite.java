@@ -0,0 +1,260 @@
+package com.example.weatherservice.benchmark;
+
+import com.example.weatherservice.WeatherData;
+
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs the JMH benchmarks in this package and compares them with
+ * benchmarks/baseline.csv, and reports the heap each cached city
+ * takes.  Skipped unless the build is run with -Pbenchmark, e.g.
+ * <pre>
+ * ./gradlew testDebugUnitTest -Pbenchmark --tests '*BenchmarkSuite'
+ * </pre>
+ * Each benchmark reports throughput, average time and, through
+ * GCProfiler, bytes allocated per operation.  The results are
+ * written to build/reports/benchmarks/results.csv; copy that over
+ * the baseline to accept a change in performance.
+ */
+public class BenchmarkSuite {
+    private static final File BASELINE = new File("benchmarks/baseline.csv");
+    private static final File RESULTS = new File("build/reports/benchmarks/results.csv");
+
+    /**
+     * The secondary result GCProfiler uses for bytes per operation.
+     */
+    private static final String ALLOCATION = "gc.alloc.rate.norm";
+
+    @Test
+    public void runBenchmarks() throws Exception {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        RESULTS.getParentFile().mkdirs();
+
+        Options options = new OptionsBuilder()
+            .include(getClass().getPackage().getName() + ".*Benchmark")
+            .mode(Mode.Throughput)
+            .mode(Mode.AverageTime)
+            .timeUnit(TimeUnit.MICROSECONDS)
+            .warmupIterations(3)
+            .warmupTime(TimeValue.seconds(1))
+            .measurementIterations(5)
+            .measurementTime(TimeValue.seconds(1))
+            // Gradle's test worker has no class path a fork could
+            // use, so run in this JVM.
+            .forks(0)
+            .addProfiler(GCProfiler.class)
+            .result(RESULTS.getPath())
+            .resultFormat(ResultFormatType.CSV)
+            .build();
+        Collection<RunResult> runs = new Runner(options).run();
+
+        Map<String, Double> baseline = readBaseline();
+        System.out.println();
+        System.out.println(String.format("%-72s %14s %14s %8s",
+                                         "Benchmark", "Baseline", "Score", "Change"));
+        for (RunResult run : runs) {
+            String key = keyOf(run.getParams());
+            report(key, baseline.get(key), run.getPrimaryResult());
+            for (Map.Entry<String, Result> secondary : run.getSecondaryResults().entrySet()) {
+                if (secondary.getKey().endsWith(ALLOCATION)) {
+                    String allocationKey = key + ":" + ALLOCATION;
+                    report(allocationKey, baseline.get(allocationKey), secondary.getValue());
+                }
+            }
+        }
+    }
+
+    private static final String[] DESCRIPTIONS = {
+        "clear sky", "few clouds", "scattered clouds", "broken clouds",
+        "light rain", "moderate rain", "mist", "overcast clouds"
+    };
+    private static final String[] COUNTRIES = { "US", "GB", "DE", "FR", "JP", "IN", "BR", "CA" };
+
+    /**
+     * Holds what WeatherData used to: a String per value.
+     */
+    private static class PlainWeatherData {
+        final String mName;
+        final double mSpeed, mDeg, mTemp;
+        final long mHumidity, mSunrise, mSunset;
+        final String mDescription;
+        final String mCountry;
+
+        PlainWeatherData(String name, String description, String country) {
+            mName = name;
+            mSpeed = mDeg = mTemp = 0;
+            mHumidity = mSunrise = mSunset = 0;
+            mDescription = description;
+            mCountry = country;
+        }
+    }
+
+    /**
+     * Compare the heap 100,000 WeatherData take with what they took
+     * when each value was a String of its own.  JMH can't measure
+     * retained size, so this measures it between full collections.
+     */
+    @Test
+    public void reportHeapPerCity() {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        final int cities = 100000;
+
+        long before = usedHeap();
+        Object[] plain = new Object[cities];
+        for (int i = 0; i < cities; i++) {
+            // Fresh Strings, as a parser without the pool makes them.
+            plain[i] = new PlainWeatherData(new String("City " + i),
+                                            new String(DESCRIPTIONS[i % DESCRIPTIONS.length]),
+                                            new String(COUNTRIES[i % COUNTRIES.length]));
+        }
+        long plainBytes = usedHeap() - before;
+
+        before = usedHeap();
+        Object[] compact = new Object[cities];
+        for (int i = 0; i < cities; i++) {
+            compact[i] = new WeatherData(new String("City " + i), 0, 0, 0, 0, 0, 0,
+                                         new String(DESCRIPTIONS[i % DESCRIPTIONS.length]),
+                                         new String(COUNTRIES[i % COUNTRIES.length]));
+        }
+        long compactBytes = usedHeap() - before;
+
+        System.out.println(String.format("Heap per cached city: %d bytes compact, %d bytes with a String per value",
+                                         compactBytes / cities, plainBytes / cities));
+        // Keeps both arrays reachable until they've been measured.
+        assertEquals(plain.length, compact.length);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void report(String key, Double baseline, Result result) {
+        String change = baseline == null || baseline == 0
+            ? "new"
+            : String.format("%+7.1f%%", 100 * (result.getScore() - baseline) / baseline);
+        System.out.println(String.format("%-72s %14.3f %14.3f %8s %s",
+                                         key,
+                                         baseline == null ? Double.NaN : baseline,
+                                         result.getScore(),
+                                         change,
+                                         result.getScoreUnit()));
+    }
+
+    /**
+     * Identify a run as the baseline does: the short benchmark name,
+     * mode and parameters.
+     */
+    private static String keyOf(BenchmarkParams params) {
+        StringBuilder key = new StringBuilder(shortName(params.getBenchmark()));
+        key.append(' ').append(params.getMode().shortLabel());
+        for (String param : params.getParamsKeys()) {
+            key.append(' ').append(param).append('=').append(params.getParam(param));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Strip this package from @a benchmark, leaving the class and
+     * method, e.g. "ParserBenchmark.parseWeatherData".
+     */
+    private static String shortName(String benchmark) {
+        return benchmark.substring(BenchmarkSuite.class.getPackage().getName().length() + 1);
+    }
+
+    /**
+     * Read the scores in BASELINE, a JMH CSV report.  Lines starting
+     * with '#' are comments.
+     */
+    private static Map<String, Double> readBaseline() throws IOException {
+        Map<String, Double> scores = new HashMap<>();
+        if (!BASELINE.exists()) {
+            return scores;
+        }
+        try (BufferedReader in = new BufferedReader(
+                 new InputStreamReader(new FileInputStream(BASELINE), "UTF-8"))) {
+            List<String> header = null;
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                List<String> fields = splitCsv(line);
+                if (header == null) {
+                    header = fields;
+                    continue;
+                }
+                String benchmark = fields.get(header.indexOf("Benchmark"));
+                String label = "";
+                int colon = benchmark.indexOf(':');
+                if (colon >= 0) {
+                    label = benchmark.substring(colon).replace("\u00b7", "");
+                    benchmark = benchmark.substring(0, colon);
+                }
+                StringBuilder key = new StringBuilder(shortName(benchmark));
+                key.append(' ').append(fields.get(header.indexOf("Mode")));
+                for (int i = 0; i < header.size(); i++) {
+                    if (header.get(i).startsWith("Param: ")) {
+                        key.append(' ').append(header.get(i).substring(7))
+                           .append('=').append(fields.get(i));
+                    }
+                }
+                key.append(label);
+                scores.put(key.toString(),
+                           Double.parseDouble(fields.get(header.indexOf("Score"))));
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Split a line of a CSV file written by JMH, whose fields may be
+     * quoted.
+     */
+    private static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
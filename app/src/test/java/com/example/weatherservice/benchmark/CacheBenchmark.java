@@ -0,0 +1,149 @@
+package com.example.weatherservice.benchmark;
+
+import com.example.weatherservice.WeatherData;
+import com.example.weatherservice.utils.WeatherCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Reads and writes the shared WeatherCache from several threads at
+ * once, with every lookup a hit so nothing is downloaded.  The
+ * monitor benchmarks read a MonitorCache the same way, for
+ * comparison.
+ */
+@State(Scope.Benchmark)
+public class CacheBenchmark {
+    private static final int CITIES = 400;
+
+    private static final List<WeatherData> NASHVILLE = Collections.singletonList(
+        new WeatherData("Nashville", 2.42, 310.0, 61.2, 76, 1431427373, 1431477841, "scattered clouds", "US"));
+
+    private final WeatherCache mCache = WeatherCache.INSTANCE;
+    private final MonitorCache mMonitorCache = new MonitorCache();
+    private final String[] mKeys = new String[CITIES];
+
+    /**
+     * Where each thread is in mKeys.  Threads start at different
+     * places so they don't all touch the same entry.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int mNext = ThreadLocalRandom.current().nextInt(CITIES);
+
+        String next(String[] keys) {
+            mNext = (mNext + 1) % keys.length;
+            return keys[mNext];
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        mCache.clear();
+        mCache.setMaxEntries(CITIES * 2);
+        // Nothing goes stale during a run.
+        mCache.setTtl(60 * 60 * 1000, 2 * 60 * 60 * 1000);
+        mCache.setLoader(new WeatherCache.Loader() {
+            @Override
+            public List<WeatherData> load(String location) throws IOException {
+                return NASHVILLE;
+            }
+        });
+        for (int i = 0; i < CITIES; i++) {
+            mKeys[i] = "city " + i;
+            mCache.put(mKeys[i], NASHVILLE);
+            mMonitorCache.put(mKeys[i], NASHVILLE);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mCache.clear();
+        mCache.setLoader(null);
+        mCache.setTtl(10 * 1000, 5 * 60 * 1000);
+        mCache.setMaxEntries(500);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public List<WeatherData> get(Cursor cursor) {
+        return mCache.get(cursor.next(mKeys));
+    }
+
+    @Benchmark
+    @Threads(16)
+    public List<WeatherData> get16Threads(Cursor cursor) {
+        return mCache.get(cursor.next(mKeys));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public List<WeatherData> monitorGet(Cursor cursor) {
+        return mMonitorCache.get(cursor.next(mKeys));
+    }
+
+    @Benchmark
+    @Threads(16)
+    public List<WeatherData> monitorGet16Threads(Cursor cursor) {
+        return mMonitorCache.get(cursor.next(mKeys));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public List<WeatherData> getOrFetch4Threads(Cursor cursor) {
+        return mCache.getOrFetch(cursor.next(mKeys));
+    }
+
+    @Benchmark
+    @Group("readMostly")
+    @GroupThreads(3)
+    public List<WeatherData> readMostlyGet(Cursor cursor) {
+        return mCache.getOrFetch(cursor.next(mKeys));
+    }
+
+    @Benchmark
+    @Group("readMostly")
+    @GroupThreads(1)
+    public void readMostlyPut(Cursor cursor) {
+        mCache.put(cursor.next(mKeys), NASHVILLE);
+    }
+
+    /**
+     * The original WeatherCache design: one monitor around a
+     * HashMap, with a timestamp check on every read.  Entries last
+     * an hour so nothing expires during a run.
+     */
+    static class MonitorCache {
+        private final HashMap<String, List<WeatherData>> mData = new HashMap<>();
+        private final HashMap<String, Long> mDates = new HashMap<>();
+
+        synchronized List<WeatherData> get(String name) {
+            final List<WeatherData> data = mData.get(name);
+            if (data == null) {
+                return null;
+            }
+            final Long cacheTime = mDates.get(name);
+            if (cacheTime == null || System.currentTimeMillis() - 60 * 60 * 1000 > cacheTime) {
+                return null;
+            }
+            return data;
+        }
+
+        synchronized void put(String name, List<WeatherData> data) {
+            mData.put(name, data);
+            mDates.put(name, System.currentTimeMillis());
+        }
+    }
+}
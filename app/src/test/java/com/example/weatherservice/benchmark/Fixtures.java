@@ -0,0 +1,41 @@
+package com.example.weatherservice.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Loads the OpenWeatherMap replies in src/test/resources/fixtures:
+ * <ul>
+ * <li>current.json: /data/2.5/weather for one city</li>
+ * <li>group-20.json: /data/2.5/group for 20 cities</li>
+ * <li>forecast-40.json: /data/2.5/forecast, 40 three-hour slots</li>
+ * </ul>
+ */
+public final class Fixtures {
+    public static final String CURRENT = "current.json";
+    public static final String GROUP = "group-20.json";
+    public static final String FORECAST = "forecast-40.json";
+
+    private Fixtures() {
+    }
+
+    /**
+     * Return the bytes of the fixture called @a name.
+     */
+    public static byte[] load(String name) throws IOException {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+            if (in == null) {
+                throw new FileNotFoundException("No fixture " + name);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+}
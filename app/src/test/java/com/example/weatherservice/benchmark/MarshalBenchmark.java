@@ -0,0 +1,112 @@
+package com.example.weatherservice.benchmark;
+
+import com.example.weatherservice.WeatherData;
+import com.example.weatherservice.WeatherDataList;
+import com.example.weatherservice.jsonweather.WeatherJSONParser;
+import com.example.weatherservice.utils.WeatherCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Marshals the 20 cities of the group fixture with
+ * WeatherData.writeTo() and readFrom(), which follow the field order
+ * writeToParcel() used before the compact encoding, and with the
+ * compact encoding writeToParcel() uses now.  Parcel itself only
+ * works on a device, where these are the calls it would make.
+ * <p/>
+ * The reply benchmarks compare what a cache hit on one city costs
+ * when its records are encoded for every reply and when the
+ * WeatherCache.Entry keeps them, with a copy into a buffer standing
+ * in for Parcel.writeByteArray().
+ */
+@State(Scope.Thread)
+public class MarshalBenchmark {
+    private List<WeatherData> mCities;
+    private final ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+    private byte[] mMarshalled;
+    private byte[][] mCompact;
+    private WeatherCache.Entry mHotCity;
+    private final byte[] mReply = new byte[4096];
+
+    @Setup
+    public void setUp() throws IOException {
+        mCities = new WeatherJSONParser().parseWeatherData(
+            new ByteArrayInputStream(Fixtures.load(Fixtures.GROUP)));
+        mMarshalled = marshal();
+        mCompact = writeCompact();
+        mHotCity = new WeatherCache.Entry(mCities.subList(0, 1), System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public int replyEncodedPerHit() {
+        return copyReply(WeatherDataList.encode(mHotCity.getData()));
+    }
+
+    @Benchmark
+    public int replyFromCache() {
+        return copyReply(mHotCity.getReply().getRecords());
+    }
+
+    private int copyReply(byte[] records) {
+        System.arraycopy(records, 0, mReply, 0, records.length);
+        return records.length;
+    }
+
+    @Benchmark
+    public byte[] writeTo() throws IOException {
+        return marshal();
+    }
+
+    @Benchmark
+    public WeatherData[] readFrom() throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(mMarshalled));
+        WeatherData[] cities = new WeatherData[mCities.size()];
+        for (int i = 0; i < cities.length; i++) {
+            cities[i] = WeatherData.readFrom(in);
+        }
+        return cities;
+    }
+
+    @Benchmark
+    public byte[][] writeCompact() {
+        byte[][] compact = new byte[mCities.size()][];
+        for (int i = 0; i < compact.length; i++) {
+            compact[i] = mCities.get(i).toCompactBytes();
+        }
+        return compact;
+    }
+
+    /**
+     * Unmarshals and reads every field, since decoding is otherwise
+     * deferred to the first access.
+     */
+    @Benchmark
+    public double readCompact() {
+        double sum = 0;
+        for (byte[] bytes : mCompact) {
+            WeatherData city = WeatherData.fromCompactBytes(bytes);
+            sum += city.getmTemp() + city.getmSunset() + city.getmName().length();
+        }
+        return sum;
+    }
+
+    private byte[] marshal() throws IOException {
+        mBytes.reset();
+        DataOutputStream out = new DataOutputStream(mBytes);
+        for (WeatherData city : mCities) {
+            city.writeTo(out);
+        }
+        out.flush();
+        return mBytes.toByteArray();
+    }
+}
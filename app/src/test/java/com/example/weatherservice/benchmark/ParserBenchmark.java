@@ -0,0 +1,37 @@
+package com.example.weatherservice.benchmark;
+
+import com.example.weatherservice.WeatherData;
+import com.example.weatherservice.jsonweather.WeatherJSONParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Parses each fixture reply the way Utils.fetchWeather() does.  The
+ * forecast has no top-level name, so it yields nothing, but all of
+ * it is still tokenized.
+ */
+@State(Scope.Thread)
+public class ParserBenchmark {
+    @Param({Fixtures.CURRENT, Fixtures.GROUP, Fixtures.FORECAST})
+    public String fixture;
+
+    private byte[] mPayload;
+
+    @Setup
+    public void setUp() throws IOException {
+        mPayload = Fixtures.load(fixture);
+    }
+
+    @Benchmark
+    public List<WeatherData> parseWeatherData() throws IOException {
+        return new WeatherJSONParser().parseWeatherData(new ByteArrayInputStream(mPayload));
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.weatherservice.benchmark;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A minimal local stand-in for the Weather Service: an HTTP/1.1
+ * server that answers every GET with the same body, gzipped if the
+ * request asks for it, honors keep-alive, and counts the connections
+ * it accepts.  Each response goes out in a single write so timings
+ * aren't distorted by delayed ACKs.
+ */
+public class StubServer implements Runnable, Closeable {
+    private final byte[] mBody;
+    private final byte[] mGzippedBody;
+    private final ServerSocket mServerSocket;
+    private final AtomicInteger mAccepted = new AtomicInteger();
+    private volatile boolean mLastRequestAskedForGzip;
+    private volatile boolean mCorruptGzip;
+
+    public StubServer(byte[] body) throws IOException {
+        mBody = body;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(body);
+        }
+        mGzippedBody = bytes.toByteArray();
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        final Thread acceptor = new Thread(this, "StubServer");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return mServerSocket.getLocalPort();
+    }
+
+    public int getAcceptedCount() {
+        return mAccepted.get();
+    }
+
+    public boolean lastRequestAskedForGzip() {
+        return mLastRequestAskedForGzip;
+    }
+
+    /**
+     * Claim to gzip the body but send it as is, padded to more than
+     * a client buffers, so it isn't all read by accident.
+     */
+    public void setCorruptGzip(boolean corrupt) {
+        mCorruptGzip = corrupt;
+    }
+
+    @Override
+    public void run() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                final Socket socket = mServerSocket.accept();
+                mAccepted.incrementAndGet();
+                final Thread handler = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            final BufferedReader in = new BufferedReader(
+                new InputStreamReader(s.getInputStream(), "ISO-8859-1"));
+            final OutputStream out = s.getOutputStream();
+            String line;
+            while ((line = in.readLine()) != null) {
+                boolean gzip = false;
+                boolean close = false;
+                while ((line = in.readLine()) != null && !line.isEmpty()) {
+                    final String header = line.toLowerCase(Locale.US);
+                    gzip |= header.startsWith("accept-encoding:") && header.contains("gzip");
+                    close |= header.startsWith("connection:") && header.contains("close");
+                }
+                mLastRequestAskedForGzip = gzip;
+                final byte[] body = !gzip ? mBody
+                    : mCorruptGzip ? Arrays.copyOf(mBody, 64 * 1024)
+                    : mGzippedBody;
+                final ByteArrayOutputStream response = new ByteArrayOutputStream();
+                response.write(("HTTP/1.1 200 OK\r\n"
+                                + "Content-Type: application/json\r\n"
+                                + (gzip ? "Content-Encoding: gzip\r\n" : "")
+                                + (close ? "Connection: close\r\n" : "")
+                                + "Content-Length: " + body.length + "\r\n\r\n").getBytes("ISO-8859-1"));
+                response.write(body);
+                out.write(response.toByteArray());
+                out.flush();
+                if (close) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // Client went away.
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mServerSocket.close();
+    }
+}
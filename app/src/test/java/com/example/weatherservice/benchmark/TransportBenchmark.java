@@ -0,0 +1,73 @@
+package com.example.weatherservice.benchmark;
+
+import com.example.weatherservice.utils.HttpTransport;
+import com.example.weatherservice.utils.UrlConnectionTransport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Fetches the current-weather fixture from a local StubServer,
+ * through UrlConnectionTransport and by opening and disconnecting a
+ * fresh HttpURLConnection per request, as Utils.getWeather() used
+ * to.
+ */
+@State(Scope.Benchmark)
+public class TransportBenchmark {
+    private StubServer mServer;
+    private URL mUrl;
+    private HttpTransport mTransport;
+
+    @Setup
+    public void setUp() throws IOException {
+        mServer = new StubServer(Fixtures.load(Fixtures.CURRENT));
+        mUrl = new URL("http://127.0.0.1:" + mServer.getPort() + "/data/2.5/weather?q=nashville");
+        mTransport = new UrlConnectionTransport();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mServer.close();
+    }
+
+    /**
+     * The old code path.  Android's HttpURLConnection closes the
+     * socket on disconnect(); the desktop JDK's keeps it, so ask the
+     * server to close it to get the same behavior here.
+     */
+    @Benchmark
+    public int perRequestConnection() throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) mUrl.openConnection();
+        connection.setRequestProperty("Connection", "close");
+        try (InputStream in = connection.getInputStream()) {
+            return drain(in);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Benchmark
+    public int pooledTransport() throws IOException {
+        try (HttpTransport.Response response = mTransport.get(mUrl)) {
+            return drain(response.getBody());
+        }
+    }
+
+    private static int drain(InputStream in) throws IOException {
+        final byte[] buffer = new byte[4096];
+        int total = 0;
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            total += n;
+        }
+        return total;
+    }
+}
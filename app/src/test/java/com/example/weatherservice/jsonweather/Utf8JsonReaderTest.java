@@ -0,0 +1,216 @@
+package com.example.weatherservice.jsonweather;
+
+import com.example.weatherservice.WeatherData;
+import com.example.weatherservice.WeatherForecast;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for Utf8JsonReader and the WeatherJSONParser path that
+ * uses it.
+ */
+public class Utf8JsonReaderTest {
+    private static final String NASHVILLE =
+        "{\"coord\":{\"lon\":-86.78,\"lat\":36.17},"
+        + "\"weather\":[{\"id\":802,\"main\":\"Clouds\",\"description\":\"scattered clouds\",\"icon\":\"03d\"},"
+        + "{\"id\":701,\"main\":\"Mist\",\"description\":\"mist\",\"icon\":\"50d\"}],"
+        + "\"base\":\"stations\","
+        + "\"main\":{\"temp\":61.2,\"pressure\":1010.71,\"humidity\":76,\"temp_min\":60.8,\"temp_max\":62.6},"
+        + "\"visibility\":16093,\"wind\":{\"speed\":2.42,\"deg\":310.002},\"clouds\":{\"all\":36},"
+        + "\"dt\":1431435983,\"sys\":{\"type\":1,\"id\":1,\"message\":0.0138,\"country\":\"US\","
+        + "\"sunrise\":1431427373,\"sunset\":1431477841},\"id\":4644585,\"name\":\"Nashville\",\"cod\":200}";
+
+    private static final Utf8JsonReader.Keys KEYS = new Utf8JsonReader.Keys("a", "b", "temp");
+
+    @Test
+    public void parsesCurrentWeatherReply() throws IOException {
+        List<WeatherData> results = parse(NASHVILLE);
+
+        assertEquals(1, results.size());
+        WeatherData data = results.get(0);
+        assertEquals("Nashville", data.getmName());
+        assertEquals(2.42, data.getmSpeed(), 0);
+        assertEquals(310.002, data.getmDeg(), 0);
+        assertEquals(61.2, data.getmTemp(), 0);
+        assertEquals(76, data.getmHumidity());
+        assertEquals(1431427373, data.getmSunrise());
+        assertEquals(1431477841, data.getmSunset());
+        assertEquals("scattered clouds", data.getmDescription());
+        assertEquals("US", data.getmCountry());
+    }
+
+    @Test
+    public void parsesOnlyTheFieldsAskedFor() throws IOException {
+        List<WeatherData> results = new WeatherJSONParser().parseWeatherData(
+            new ByteArrayInputStream(NASHVILLE.getBytes("UTF-8")),
+            WeatherData.FIELD_TEMP | WeatherData.FIELD_SUNSET);
+
+        assertEquals(1, results.size());
+        WeatherData data = results.get(0);
+        assertEquals(WeatherData.FIELD_TEMP | WeatherData.FIELD_SUNSET, data.getFields());
+        assertEquals(61.2, data.getmTemp(), 0);
+        assertEquals(1431477841, data.getmSunset());
+        assertNull(data.getmName());
+        assertNull(data.getmDescription());
+        assertEquals(0, data.getmHumidity());
+        assertEquals(0, data.getmSunrise());
+        assertEquals(0, data.getmSpeed(), 0);
+    }
+
+    @Test
+    public void parsesGroupReplyAndDropsErrors() throws IOException {
+        assertTrue(parse("{\"cod\":\"404\",\"message\":\"city not found\"}").isEmpty());
+        assertTrue(parse("{\"name\":\"Nowhere\",\"main\":null}").isEmpty());
+
+        List<WeatherData> results = parse("{\"cnt\":2,\"list\":[" + NASHVILLE + ",\n  "
+                                          + NASHVILLE.replace("Nashville", "Memphis") + "]}");
+
+        assertEquals(2, results.size());
+        assertEquals("Nashville", results.get(0).getmName());
+        assertEquals("Memphis", results.get(1).getmName());
+    }
+
+    @Test
+    public void repeatedValuesShareOneString() throws IOException {
+        WeatherData first = parse(NASHVILLE).get(0);
+        WeatherData second = parse(NASHVILLE.replace("Nashville", "Memphis")).get(0);
+
+        assertEquals("Memphis", second.getmName());
+        assertSame(first.getmDescription(), second.getmDescription());
+        assertSame(first.getmCountry(), second.getmCountry());
+    }
+
+    @Test
+    public void parsesForecastIntoColumns() throws IOException {
+        WeatherForecast forecast;
+        try (InputStream in = getClass().getResourceAsStream("/fixtures/forecast-40.json")) {
+            forecast = new WeatherJSONParser().parseForecast(in);
+        }
+
+        assertEquals("Nashville", forecast.getmName());
+        assertEquals("US", forecast.getmCountry());
+        assertEquals(40, forecast.size());
+        assertEquals(1431442800, forecast.getTime(0));
+        assertEquals(63.75f, forecast.getTemp(0), 0);
+        assertEquals(84f, forecast.getHumidity(0), 0);
+        assertEquals(13.93f, forecast.getWindSpeed(0), 0);
+        assertEquals(353, forecast.getWindDeg(0));
+        assertEquals(500, forecast.getConditionId(0));
+        assertEquals(1431453600, forecast.getTime(1));
+        assertEquals(802, forecast.getConditionId(2));
+        assertEquals(forecast.getTime(0) + 39 * 3 * 60 * 60, forecast.getTime(39));
+
+        assertNull(new WeatherJSONParser().parseForecast(
+            new ByteArrayInputStream("{\"cod\":\"404\",\"message\":\"city not found\"}".getBytes("UTF-8"))));
+    }
+
+    @Test
+    public void codePointsBeyondUnicodeBecomeReplacementChars() throws IOException {
+        // "a", U+10FFFF, then 0xf4 0x90 0x80 0x80 and 0xf7 0xbf 0xbf
+        // 0xbf, which decode past U+10FFFF, then "b".
+        byte[] json = {
+            '"', 'a',
+            (byte) 0xf4, (byte) 0x8f, (byte) 0xbf, (byte) 0xbf,
+            (byte) 0xf4, (byte) 0x90, (byte) 0x80, (byte) 0x80,
+            (byte) 0xf7, (byte) 0xbf, (byte) 0xbf, (byte) 0xbf,
+            'b', '"'
+        };
+        Utf8JsonReader reader = new Utf8JsonReader(new ByteArrayInputStream(json));
+        assertEquals("a" + new String(Character.toChars(0x10ffff)) + "\uFFFD\uFFFDb",
+                     reader.nextString());
+    }
+
+    @Test
+    public void tokensMayStraddleRefills() throws IOException {
+        // Every token crosses a buffer boundary somewhere in here.
+        Utf8JsonReader.Keys nameKey = new Utf8JsonReader.Keys("name");
+        for (int size = 8; size < 80; size++) {
+            Utf8JsonReader reader = new Utf8JsonReader(
+                new ByteArrayInputStream(NASHVILLE.getBytes("UTF-8")), new byte[size]);
+            String name = null;
+            int members = 0;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                members++;
+                if (reader.nextName(nameKey) == 0) {
+                    name = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            reader.close();
+            assertEquals(12, members);
+            assertEquals("Nashville", name);
+        }
+        for (int size = 8; size < 80; size++) {
+            Utf8JsonReader reader = new Utf8JsonReader(
+                new ByteArrayInputStream("{\"temp\" : -12.5e2 ,\"b\":\"S\\u00e3o Paulo \\\"\u00e9\ud83d\ude00\\n\"}"
+                                         .getBytes("UTF-8")),
+                new byte[size]);
+            reader.beginObject();
+            assertTrue(reader.hasNext());
+            assertEquals(2, reader.nextName(KEYS));
+            assertEquals(-1250, reader.nextDouble(), 0);
+            assertTrue(reader.hasNext());
+            assertEquals(1, reader.nextName(KEYS));
+            assertEquals("S\u00e3o Paulo \"\u00e9\ud83d\ude00\n", reader.nextString());
+            assertFalse(reader.hasNext());
+            reader.endObject();
+            reader.close();
+        }
+    }
+
+    @Test
+    public void decodesNumbersWithoutLosingPrecision() throws IOException {
+        String[] numbers = {
+            "0", "-0.0138", "1431427373", "310.002", "6.02214076e23",
+            "1e-7", "123456789012345678901", "0.1000000000000000055511151231257827"
+        };
+        for (String number : numbers) {
+            assertEquals(number, Double.parseDouble(number), reader(number).nextDouble(), 0);
+        }
+        assertEquals(Long.MAX_VALUE, reader(Long.toString(Long.MAX_VALUE)).nextLong());
+        assertEquals(-76, reader("-76").nextLong());
+        assertEquals(1500, reader("1.5e3").nextLong());
+        assertEquals(12, reader("12.9").nextLong());
+    }
+
+    @Test
+    public void skipsNestedValuesAndUnknownNames() throws IOException {
+        Utf8JsonReader reader = reader(
+            "{\"x\":{\"y\":[1,{\"z\":\"}]\\\"\"}],\"w\":true},"
+            + "\"a\\u0062\":null,\"b\":false,\"a\":\"ok\"}");
+        reader.beginObject();
+        assertEquals(-1, reader.nextName(KEYS));
+        reader.skipValue();
+        assertTrue(reader.hasNext());
+        // Escaped names never match a key.
+        assertEquals(-1, reader.nextName(KEYS));
+        assertTrue(reader.skipNull());
+        assertTrue(reader.hasNext());
+        assertEquals(1, reader.nextName(KEYS));
+        reader.skipValue();
+        assertTrue(reader.hasNext());
+        assertEquals(0, reader.nextName(KEYS));
+        assertEquals("ok", reader.nextString());
+        assertFalse(reader.hasNext());
+        reader.endObject();
+    }
+
+    private static List<WeatherData> parse(String json) throws IOException {
+        return new WeatherJSONParser().parseWeatherData(
+            new ByteArrayInputStream(json.getBytes("UTF-8")));
+    }
+
+    private static Utf8JsonReader reader(String json) throws IOException {
+        return new Utf8JsonReader(new ByteArrayInputStream(json.getBytes("UTF-8")));
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.weatherservice.utils;
+
+import com.example.weatherservice.WeatherForecast;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for ForecastCache.
+ */
+public class ForecastCacheTest {
+    private static final WeatherForecast NASHVILLE =
+        new WeatherForecast("Nashville", "US",
+                            new long[] { 1431442800, 1431453600 },
+                            new float[] { 63.75f, 59.71f },
+                            new float[] { 84, 87 },
+                            new float[] { 13.93f, 3.72f },
+                            new short[] { 353, 32 },
+                            new short[] { 500, 500 });
+
+    private final ForecastCache mCache = ForecastCache.INSTANCE;
+
+    @Before
+    public void setUp() {
+        mCache.clear();
+        mCache.setTtl(30 * 60 * 1000);
+        mCache.setMaxEntries(100);
+    }
+
+    @After
+    public void tearDown() {
+        mCache.clear();
+        mCache.setLoader(null);
+    }
+
+    @Test
+    public void cachedForecastIsShared() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        mCache.setLoader(new ForecastCache.Loader() {
+                @Override
+                public WeatherForecast load(String location) {
+                    loads.incrementAndGet();
+                    return NASHVILLE;
+                }
+            });
+
+        assertSame(NASHVILLE, mCache.getOrFetch("Nashville"));
+        assertSame(NASHVILLE, mCache.getOrFetch("  nashville "));
+        assertEquals(1, loads.get());
+
+        mCache.setTtl(-1);
+        mCache.getOrFetch("nashville");
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void concurrentMissesShareOneDownload() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        mCache.setLoader(new ForecastCache.Loader() {
+                @Override
+                public WeatherForecast load(String location) throws IOException {
+                    loads.incrementAndGet();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    return NASHVILLE;
+                }
+            });
+
+        final Thread[] threads = new Thread[4];
+        final WeatherForecast[] results = new WeatherForecast[threads.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            results[index] = mCache.getOrFetch("nashville");
+                        } catch (IOException e) {
+                            fail(e.toString());
+                        }
+                    }
+                };
+            threads[i].start();
+        }
+        Thread.sleep(100);
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, loads.get());
+        for (WeatherForecast result : results) {
+            assertSame(NASHVILLE, result);
+        }
+    }
+
+    @Test
+    public void unknownLocationsAreReportedAndNotCached() throws Exception {
+        mCache.setLoader(new ForecastCache.Loader() {
+                @Override
+                public WeatherForecast load(String location) throws IOException {
+                    throw new UnknownLocationException(location);
+                }
+            });
+
+        try {
+            mCache.getOrFetch("atlantis");
+            fail("Expected UnknownLocationException");
+        } catch (UnknownLocationException e) {
+            // expected
+        }
+        assertEquals(0, mCache.size());
+    }
+
+    @Test
+    public void evictsOldestWhenFull() throws Exception {
+        mCache.setMaxEntries(2);
+        mCache.put("a", NASHVILLE);
+        Thread.sleep(2);
+        mCache.put("b", NASHVILLE);
+        Thread.sleep(2);
+        mCache.put("c", NASHVILLE);
+
+        assertEquals(2, mCache.size());
+        assertNull(mCache.get("a"));
+        assertNotNull(mCache.get("c"));
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.weatherservice.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for StringPool.  BenchmarkSuite reports the heap it
+ * saves WeatherData.
+ */
+public class StringPoolTest {
+    @Test
+    public void equalValuesShareOneInstance() {
+        final StringPool pool = new StringPool(64, 16);
+        final String first = pool.intern(new String("clear sky"));
+        assertSame(first, pool.intern(new String("clear sky")));
+        assertSame(first, pool.intern("xclear skyx".toCharArray(), 1, 9));
+        assertNull(pool.intern(null));
+    }
+
+    @Test
+    public void longValuesAreNotPooled() {
+        final StringPool pool = new StringPool(64, 4);
+        final String value = new String("scattered clouds");
+        assertSame(value, pool.intern(value));
+        assertNotSame(value, pool.intern(new String("scattered clouds")));
+    }
+
+    @Test
+    public void staysCorrectWhenFull() {
+        final StringPool pool = new StringPool(16, 16);
+        for (int i = 0; i < 10000; i++) {
+            final String value = "v" + i;
+            assertEquals(value, pool.intern(value));
+            assertEquals(value, pool.intern(value.toCharArray(), 0, value.length()));
+        }
+        // Recently added values still share.
+        final String last = pool.intern(new String("v9999"));
+        assertSame(last, pool.intern(new String("v9999")));
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.weatherservice.utils;
+
+import com.example.weatherservice.benchmark.StubServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs UrlConnectionTransport against a local stub of the Weather
+ * Service.  TransportBenchmark times it against opening a fresh
+ * connection per request.
+ */
+public class UrlConnectionTransportTest {
+    private static final String BODY =
+        "{\"coord\":{\"lon\":-86.78,\"lat\":36.17},\"sys\":{\"message\":0.0138,\"country\":\"US\","
+        + "\"sunrise\":1431427373,\"sunset\":1431477841},\"weather\":[{\"id\":802,\"main\":\"Clouds\","
+        + "\"description\":\"scattered clouds\",\"icon\":\"03d\"}],\"base\":\"stations\",\"main\":"
+        + "{\"temp\":289.847,\"temp_min\":289.847,\"temp_max\":289.847,\"pressure\":1010.71,"
+        + "\"sea_level\":1035.76,\"grnd_level\":1010.71,\"humidity\":76},\"wind\":{\"speed\":2.42,"
+        + "\"deg\":310.002},\"clouds\":{\"all\":36},\"dt\":1431435983,\"id\":4644585,"
+        + "\"name\":\"Nashville\",\"cod\":200}";
+
+    private static final int REQUESTS = 20;
+
+    private StubServer mServer;
+    private URL mUrl;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new StubServer(BODY.getBytes("UTF-8"));
+        mUrl = new URL("http://127.0.0.1:" + mServer.getPort() + "/data/2.5/weather?q=nashville");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.close();
+    }
+
+    @Test
+    public void decompressesGzipBodies() throws Exception {
+        try (HttpTransport.Response response = new UrlConnectionTransport().get(mUrl)) {
+            assertEquals(200, response.getStatusCode());
+            assertEquals(BODY, readFully(response.getBody()));
+        }
+        assertTrue(mServer.lastRequestAskedForGzip());
+    }
+
+    @Test
+    public void badGzipBodyReleasesConnection() throws Exception {
+        final HttpTransport transport = new UrlConnectionTransport();
+        mServer.setCorruptGzip(true);
+        final int sockets = mServer.getAcceptedCount();
+        for (int i = 0; i < 3; i++) {
+            try {
+                transport.get(mUrl).close();
+                fail("Accepted a body that isn't gzip");
+            } catch (IOException expected) {
+            }
+        }
+        mServer.setCorruptGzip(false);
+        try (HttpTransport.Response response = transport.get(mUrl)) {
+            assertEquals(BODY, readFully(response.getBody()));
+        }
+        // Each failed request gave its connection back.
+        assertEquals(1, mServer.getAcceptedCount() - sockets);
+    }
+
+    @Test
+    public void reusesConnections() throws Exception {
+        final HttpTransport transport = new UrlConnectionTransport();
+        final int sockets = mServer.getAcceptedCount();
+        for (int i = 0; i < REQUESTS; i++) {
+            try (HttpTransport.Response response = transport.get(mUrl)) {
+                assertEquals(BODY, readFully(response.getBody()));
+            }
+        }
+        final int opened = mServer.getAcceptedCount() - sockets;
+        assertTrue("opened " + opened + " sockets", opened <= 2);
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toString("UTF-8");
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.weatherservice.utils;
+
+import com.example.weatherservice.WeatherData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for WeatherBulkIngest.
+ */
+public class WeatherBulkIngestTest {
+    /**
+     * Enough cities that the file spans several chunks.
+     */
+    private static final int CITIES = 5000;
+
+    private final WeatherCache mCache = WeatherCache.INSTANCE;
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mCache.clear();
+        mCache.setMaxEntries(2 * CITIES);
+        mCache.setTtl(10 * 1000, 5 * 60 * 1000);
+        mFile = File.createTempFile("weather-bulk", ".json.gz");
+    }
+
+    @After
+    public void tearDown() {
+        mCache.clear();
+        mCache.setMaxEntries(500);
+        mFile.delete();
+    }
+
+    /**
+     * One line in the format of the bulk files.
+     */
+    private static String bulkLine(int i) {
+        return String.format(Locale.US,
+                             "{\"city\":{\"id\":%d,\"name\":\"City %d\",\"findname\":\"CITY %d\","
+                             + "\"country\":\"US\",\"coord\":{\"lon\":-86.78,\"lat\":36.17},\"zoom\":10},"
+                             + "\"time\":1431427373,"
+                             + "\"main\":{\"temp\":%d.5,\"pressure\":1013,\"humidity\":%d},"
+                             + "\"wind\":{\"speed\":2.42,\"deg\":310},"
+                             + "\"clouds\":{\"all\":40},"
+                             + "\"weather\":[{\"id\":802,\"main\":\"Clouds\","
+                             + "\"description\":\"scattered clouds\",\"icon\":\"03d\"}]}",
+                             i, i, i, i % 100, i % 100);
+    }
+
+    @Test
+    public void loadsEveryCityWithOneTimestamp() throws Exception {
+        try (Writer out = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(mFile)),
+                                                 "UTF-8")) {
+            for (int i = 0; i < CITIES; i++) {
+                out.write(bulkLine(i));
+                out.write('\n');
+                if (i == 10) {
+                    out.write("{\"city\":{\"name\":\n");
+                    out.write("\n");
+                    out.write("{\"cod\":\"404\",\"message\":\"city not found\"}\n");
+                }
+            }
+        }
+
+        final long before = System.currentTimeMillis();
+        final WeatherBulkIngest.Report report = new WeatherBulkIngest(mCache, 4).ingest(mFile);
+
+        assertEquals(CITIES + 2, report.getLines());
+        assertEquals(CITIES, report.getCities());
+        assertEquals(2, report.getSkipped());
+        assertTrue(report.getCitiesPerSecond() > 0);
+        assertEquals(CITIES, mCache.size());
+
+        final long cachedAt = mCache.lookup("city 0").getCachedAt();
+        assertTrue(cachedAt >= before);
+        for (int i = 0; i < CITIES; i += 97) {
+            // Cities with an id are cached under it.
+            final WeatherCache.Entry entry = mCache.lookup("City " + i);
+            assertSame(entry, mCache.getEntry(i == 0 ? "city 0" : WeatherCache.cityKey(i)));
+            assertEquals(cachedAt, entry.getCachedAt());
+            final List<WeatherData> data = entry.getData();
+            assertEquals(new WeatherData("City " + i, 2.42, 310, (i % 100) + 0.5, i % 100,
+                                         0, 0, "scattered clouds", "US",
+                                         WeatherData.ALL_FIELDS, i, 36.17, -86.78),
+                         data.get(0));
+        }
+    }
+
+    @Test
+    public void lastLineNeedNotEndInNewline() throws Exception {
+        try (Writer out = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(mFile)),
+                                                 "UTF-8")) {
+            out.write(bulkLine(1));
+            out.write('\n');
+            out.write(bulkLine(2));
+        }
+
+        final WeatherBulkIngest.Report report = new WeatherBulkIngest(mCache).ingest(mFile);
+        assertEquals(2, report.getCities());
+        assertNotNull(mCache.get("city 2"));
+    }
+}
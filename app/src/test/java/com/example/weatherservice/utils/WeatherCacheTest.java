@@ -0,0 +1,737 @@
+package com.example.weatherservice.utils;
+
+import com.example.weatherservice.WeatherData;
+import com.example.weatherservice.WeatherDataList;
+import com.example.weatherservice.WeatherDelta;
+import com.example.weatherservice.benchmark.Fixtures;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for WeatherCache.
+ */
+public class WeatherCacheTest {
+    private static final List<WeatherData> NASHVILLE = Collections.singletonList(
+        new WeatherData("Nashville", 2.42, 310.0, 61.2, 76, 1431427373, 1431477841, "scattered clouds", "US"));
+
+    private final WeatherCache mCache = WeatherCache.INSTANCE;
+
+    @Before
+    public void setUp() {
+        mCache.clear();
+        mCache.setMaxEntries(500);
+        mCache.setTtl(10 * 1000, 5 * 60 * 1000);
+        mCache.setRefreshAheadHits(3);
+        mCache.setGeoRadius(5);
+        mCache.setNegativeTtl(10 * 60 * 1000, 5 * 1000);
+        mCache.setLoader(null);
+        mCache.setSharedTier(null);
+    }
+
+    @After
+    public void tearDown() {
+        mCache.clear();
+        mCache.setLoader(null);
+        mCache.setSharedTier(null);
+    }
+
+    @Test
+    public void putThenGet() {
+        mCache.put("nashville", NASHVILLE);
+        assertSame(NASHVILLE, mCache.get("nashville"));
+        assertNull(mCache.get("memphis"));
+    }
+
+    @Test
+    public void repliesShareOneEncoding() {
+        mCache.put("nashville", NASHVILLE);
+        final WeatherDataList first = mCache.getReply("Nashville");
+        final WeatherDataList second = mCache.getReply("nashville");
+        assertEquals(NASHVILLE, first);
+        assertSame(first.getRecords(), second.getRecords());
+        assertArrayEquals(WeatherDataList.encode(NASHVILLE), first.getRecords());
+    }
+
+    @Test
+    public void refreshedEntrySendsDeltaToHoldersOfPreviousVersion() {
+        mCache.put("nashville", NASHVILLE);
+        final long first = mCache.getDelta("Nashville", WeatherDelta.NO_VERSION).getVersion();
+        assertEquals(WeatherDelta.NOT_MODIFIED, mCache.getDelta("Nashville", first).getKind());
+
+        final WeatherData was = NASHVILLE.get(0);
+        final List<WeatherData> warmer = Collections.singletonList(
+            new WeatherData("Nashville", 2.42, 310.0, was.getmTemp() + 1, 76,
+                            1431427373, 1431477841, "scattered clouds", "US"));
+        mCache.put("nashville", warmer);
+
+        final WeatherDelta delta = mCache.getDelta("Nashville", first);
+        assertEquals(WeatherDelta.DELTA, delta.getKind());
+        assertEquals(WeatherData.FIELD_TEMP, delta.getResults().get(0).getFields());
+        assertEquals(warmer, delta.applyTo(NASHVILLE));
+        assertEquals(WeatherDelta.FULL, mCache.getDelta("Nashville", 42).getKind());
+
+        // Refreshed with the same weather, the version stays the same.
+        final long second = delta.getVersion();
+        mCache.put("nashville", new ArrayList<>(warmer));
+        assertEquals(WeatherDelta.NOT_MODIFIED, mCache.getDelta("Nashville", second).getKind());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        // Access times have millisecond resolution.
+        mCache.setMaxEntries(2);
+        mCache.put("a", NASHVILLE);
+        mCache.put("b", NASHVILLE);
+        Thread.sleep(2);
+        mCache.get("a");
+        Thread.sleep(2);
+        mCache.put("c", NASHVILLE);
+
+        assertEquals(2, mCache.size());
+        assertNotNull(mCache.get("a"));
+        assertNull(mCache.get("b"));
+        assertNotNull(mCache.get("c"));
+    }
+
+    @Test
+    public void shrinkingMaxEntriesTrims() throws Exception {
+        for (int i = 0; i < 99; i++) {
+            mCache.put("city" + i, NASHVILLE);
+        }
+        Thread.sleep(2);
+        mCache.put("city99", NASHVILLE);
+        mCache.setMaxEntries(10);
+        assertEquals(10, mCache.size());
+        assertNotNull(mCache.get("city99"));
+    }
+
+    @Test
+    public void expiredEntriesAreSweptWithoutBeingRead() {
+        final long longAgo = System.currentTimeMillis() - 60 * 60 * 1000;
+        for (int i = 0; i < 5; i++) {
+            mCache.putEntry("stale" + i, new WeatherCache.Entry(NASHVILLE, longAgo));
+        }
+        mCache.put("fresh", NASHVILLE);
+        assertEquals(1, mCache.size());
+
+        mCache.evictExpired();
+        assertEquals(1, mCache.size());
+    }
+
+    @Test
+    public void staleEntryIsServedWhileRefreshing() throws Exception {
+        final List<WeatherData> updated = Collections.singletonList(
+            new WeatherData("Nashville", 3.1, 300.0, 62.5, 70, 1431427373, 1431477841, "clear sky", "US"));
+        final CountDownLatch refreshed = new CountDownLatch(1);
+        mCache.setLoader(new WeatherCache.Loader() {
+            @Override
+            public List<WeatherData> load(String location) {
+                refreshed.countDown();
+                return updated;
+            }
+        });
+        final long refreshes = mCache.getRefreshCount();
+        mCache.putEntry("nashville",
+                        new WeatherCache.Entry(NASHVILLE, System.currentTimeMillis() - 20 * 1000));
+
+        assertSame(NASHVILLE, mCache.getOrFetch("Nashville"));
+        refreshed.await();
+        assertEquals(1, mCache.getRefreshCount() - refreshes);
+        while (mCache.get("nashville") != updated) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void lookupFreshRefreshesStaleEntryFirst() {
+        final List<WeatherData> updated = Collections.singletonList(
+            new WeatherData("Nashville", 3.1, 300.0, 62.5, 70, 1431427373, 1431477841, "clear sky", "US"));
+        final AtomicInteger loads = new AtomicInteger();
+        mCache.setLoader(new WeatherCache.Loader() {
+            @Override
+            public List<WeatherData> load(String location) {
+                loads.incrementAndGet();
+                return updated;
+            }
+        });
+        mCache.putEntry("nashville", new WeatherCache.Entry(NASHVILLE, System.currentTimeMillis()));
+        assertSame(NASHVILLE, mCache.lookupFresh("Nashville").getData());
+        assertEquals(0, loads.get());
+
+        mCache.putEntry("nashville",
+                        new WeatherCache.Entry(NASHVILLE, System.currentTimeMillis() - 20 * 1000));
+        assertSame(updated, mCache.lookupFresh(" nashville").getData());
+        assertEquals(1, loads.get());
+        assertSame(updated, mCache.get("nashville"));
+    }
+
+    @Test
+    public void entryPastHardTtlIsFetchedInForeground() {
+        mCache.setLoader(new WeatherCache.Loader() {
+            @Override
+            public List<WeatherData> load(String location) {
+                return NASHVILLE;
+            }
+        });
+        mCache.putEntry("nashville", new WeatherCache.Entry(
+            Collections.<WeatherData>emptyList(), System.currentTimeMillis() - 10 * 60 * 1000));
+
+        assertSame(NASHVILLE, mCache.getOrFetch("nashville"));
+    }
+
+    @Test
+    public void hotEntryIsRefreshedAhead() throws Exception {
+        final List<WeatherData> updated = new ArrayList<>(NASHVILLE);
+        mCache.setLoader(new WeatherCache.Loader() {
+            @Override
+            public List<WeatherData> load(String location) {
+                return updated;
+            }
+        });
+        mCache.setRefreshAheadHits(2);
+        final long refreshes = mCache.getRefreshCount();
+        final long stale = mCache.getStaleHitCount();
+        mCache.putEntry("nashville",
+                        new WeatherCache.Entry(NASHVILLE, System.currentTimeMillis() - 9 * 1000));
+
+        mCache.getOrFetch("nashville");
+        assertEquals(0, mCache.getRefreshCount() - refreshes);
+        mCache.getOrFetch("nashville");
+        while (mCache.get("nashville") != updated) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, mCache.getRefreshCount() - refreshes);
+        assertEquals(0, mCache.getStaleHitCount() - stale);
+    }
+
+    @Test
+    public void unchangedReplyOnlyRefreshesEntry() throws Exception {
+        final byte[] current = Fixtures.load(Fixtures.CURRENT);
+        final AtomicReference<byte[]> body = new AtomicReference<>(current);
+        Utils.setTransport(new HttpTransport() {
+            @Override
+            public Response get(URL url) {
+                return new Response(HttpURLConnection.HTTP_OK,
+                                    new ByteArrayInputStream(body.get()));
+            }
+        });
+        final FakeSharedTier sharedTier = new FakeSharedTier();
+        mCache.setSharedTier(sharedTier);
+        try {
+            mCache.setTtl(1, 5 * 60 * 1000);
+            final long unchanged = mCache.getUnchangedCount();
+            final WeatherCache.Entry first = mCache.lookup("Nashville");
+            assertEquals(WeatherCache.Kind.FOUND, first.getKind());
+            final long cachedAt = first.getCachedAt();
+
+            // The stale entry's refresh gets the same reply back, so
+            // the entry is kept and just made fresh again.
+            Thread.sleep(5);
+            assertSame(first, mCache.lookup("Nashville"));
+            while (mCache.getUnchangedCount() == unchanged) {
+                Thread.sleep(1);
+            }
+            assertSame(first.getData(), mCache.get("nashville"));
+            assertTrue(first.getCachedAt() > cachedAt);
+            // The shared tier is told it's fresh too.
+            final String cityKey = mCache.resolve("nashville");
+            while (sharedTier.mEntries.get(cityKey).getCachedAt() == cachedAt) {
+                Thread.sleep(1);
+            }
+
+            // Any change to the reply is parsed and replaces it.
+            final byte[] changed = Arrays.copyOf(current, current.length + 1);
+            changed[current.length] = ' ';
+            body.set(changed);
+            Thread.sleep(5);
+            mCache.lookup("Nashville");
+            while (mCache.get("nashville") == first.getData()) {
+                Thread.sleep(1);
+            }
+            assertEquals(first.getData(), mCache.get("nashville"));
+            assertEquals(1, mCache.getUnchangedCount() - unchanged);
+        } finally {
+            Utils.setTransport(null);
+        }
+    }
+
+    @Test
+    public void equivalentLocationsShareOneEntry() {
+        final List<String> fetched = Collections.synchronizedList(new ArrayList<String>());
+        mCache.setLoader(new WeatherCache.Loader() {
+            @Override
+            public List<WeatherData> load(String location) {
+                fetched.add(location);
+                return Collections.singletonList(
+                    new WeatherData("San Diego", 4.1, 270.0, 68.0, 60, 1431427373, 1431477841,
+                                    "clear sky", "US", WeatherData.ALL_FIELDS, 5391811));
+            }
+        });
+        assertEquals("san diego,us", WeatherCache.normalizeLocation(" San  Diego , US"));
+
+        final List<WeatherData> first = mCache.getOrFetch("San Diego");
+        assertSame(first, mCache.getOrFetch("SAN DIEGO "));
+        // Each new spelling is downloaded once, then shares the entry.
+        mCache.getOrFetch("San Diego, US");
+        mCache.getOrFetch("92101");
+        assertEquals(Arrays.asList("san diego", "san diego,us", "92101"), fetched);
+        assertEquals(1, mCache.size());
+        assertEquals(3, mCache.getAliasCount());
+
+        final List<WeatherData> latest = mCache.getOrFetch("92101");
+        assertSame(latest, mCache.getOrFetch("san diego"));
+        assertSame(latest, mCache.get("san diego,us"));
+        assertEquals(3, fetched.size());
+    }
+
+    /**
+     * Stands in for the WeatherCacheProvider, which keeps the entries
+     * and aliases the service processes publish.
+     */
+    private static class FakeSharedTier implements WeatherCache.SharedTier {
+        final ConcurrentHashMap<String, WeatherCache.Entry> mEntries = new ConcurrentHashMap<>();
+        final ConcurrentHashMap<String, String> mAliases = new ConcurrentHashMap<>();
+
+        @Override
+        public Map.Entry<String, WeatherCache.Entry> get(String name) {
+            final String key = mAliases.containsKey(name) ? mAliases.get(name) : name;
+            final WeatherCache.Entry entry = mEntries.get(key);
+            return entry == null ? null : new AbstractMap.SimpleImmutableEntry<>(key, entry);
+        }
+
+        @Override
+        public void put(String name, WeatherCache.Entry entry) {
+            // Copied, as it would be by marshaling it.
+            mEntries.put(name, new WeatherCache.Entry(entry.getData(),
+                                                      entry.getCachedAt(),
+                                                      entry.getKind()));
+        }
+
+        @Override
+        public void putAll(Map<String, WeatherCache.Entry> entries, Map<String, String> aliases) {
+            for (Map.Entry<String, WeatherCache.Entry> e : entries.entrySet()) {
+                put(e.getKey(), e.getValue());
+            }
+            mAliases.putAll(aliases);
+        }
+
+        @Override
+        public void putAlias(String key, String cityKey) {
+            mAliases.put(key, cityKey);
+        }
+    }
+
+    @Test
+    public void missRechecksCacheBeforeDownloading() {
+        // The first look finds nothing; by the time the download
+        // would start, another one has cached the city.
+        final AtomicInteger looks = new AtomicInteger();
+        final FakeSharedTier sharedTier = new FakeSharedTier() {
+            @Override
+            public Map.Entry<String, WeatherCache.Entry> get(String name) {
+                return looks.getAndIncrement() == 0 ? null : super.get(name);
+            }
+        };
+        sharedTier.put("nashville", new WeatherCache.Entry(NASHVILLE, System.currentTimeMillis()));
+        mCache.setSharedTier(sharedTier);
+        final AtomicInteger loads = new AtomicInteger();
+        mCache.setLoader(new WeatherCache.Loader() {
+            @Override
+            public List<WeatherData> load(String location) {
+                loads.incrementAndGet();
+                return NASHVILLE;
+            }
+        });
+        final long started = mCache.getLoadCount();
+
+        assertEquals(NASHVILLE, mCache.getOrFetch("Nashville"));
+        assertEquals(2, looks.get());
+        assertEquals(0, loads.get());
+        assertEquals(started, mCache.getLoadCount());
+    }
+
+    @Test
+    public void aliasesAreSharedBetweenProcesses() {
+        final FakeSharedTier sharedTier = new FakeSharedTier();
+        mCache.setSharedTier(sharedTier);
+        final AtomicInteger loads = new AtomicInteger();
+        mCache.setLoader(new WeatherCache.Loader() {
+            @Override
+            public List<WeatherData> load(String location) {
+                loads.incrementAndGet();
+                return Collections.singletonList(
+                    new WeatherData("San Diego", 4.1, 270.0, 68.0, 60, 1431427373, 1431477841,
+                                    "clear sky", "US", WeatherData.ALL_FIELDS, 5391811));
+            }
+        });
+
+        final List<WeatherData> first = mCache.getOrFetch("San Diego");
+        assertEquals(1, loads.get());
+        assertEquals("\t5391811", sharedTier.mAliases.get("san diego"));
+        assertNotNull(sharedTier.mEntries.get("\t5391811"));
+
+        // The other process knows nothing but what the shared tier
+        // holds, and finds the city through the alias.
+        mCache.clear();
+        assertEquals(first, mCache.getOrFetch("san diego"));
+        assertEquals(1, loads.get());
+        assertEquals(1, mCache.getAliasCount());
+        assertNotNull(mCache.getEntry("\t5391811"));
+
+        // Aliases learned from bulk data are published with it.
+        mCache.clear();
+        final Map<String, List<WeatherData>> bulk = new HashMap<>();
+        bulk.put("la jolla", first);
+        mCache.putAll(bulk, System.currentTimeMillis());
+        assertEquals("\t5391811", sharedTier.mAliases.get("la jolla"));
+    }
+
+    @Test
+    public void nearbyPointsShareOneEntry() {
+        final List<String> fetched = Collections.synchronizedList(new ArrayList<String>());
+        mCache.setLoader(new WeatherCache.GeoLoader() {
+            @Override
+            public List<WeatherData> load(String location) {
+                throw new AssertionError(location);
+            }
+
+            @Override
+            public List<WeatherData> loadAt(double lat, double lon) {
+                fetched.add(lat + "," + lon);
+                return Collections.singletonList(
+                    new WeatherData("Nashville", 2.42, 310.0, 61.2, 76, 1431427373, 1431477841,
+                                    "scattered clouds", "US", WeatherData.ALL_FIELDS, 4644585,
+                                    36.17, -86.78));
+            }
+        });
+
+        final WeatherCache.Entry first = mCache.lookupAt(36.16, -86.78);
+        assertEquals(WeatherCache.Kind.FOUND, first.getKind());
+        assertEquals(1, fetched.size());
+        // About 2 km from the city: answered without a download.
+        assertSame(first, mCache.lookupAt(36.18, -86.76));
+        assertEquals(1, mCache.getNearbyHitCount());
+        assertEquals(1, fetched.size());
+
+        // About 50 km away: downloaded for the cell, whose center is
+        // what's looked up, and then shared by the rest of the cell.
+        assertEquals(first.getData(), mCache.getWeatherAt(36.6, -86.78));
+        assertEquals(2, fetched.size());
+        assertFalse(fetched.get(1).equals("36.6,-86.78"));
+        mCache.getWeatherAt(36.6001, -86.7801);
+        assertEquals(2, fetched.size());
+        assertEquals(1, mCache.getNearbyHitCount());
+        assertEquals(1, mCache.size());
+
+        assertEquals(WeatherCache.Kind.NOT_FOUND, mCache.lookupAt(91, 0).getKind());
+        assertEquals(WeatherCache.Kind.NOT_FOUND, mCache.lookupAt(Double.NaN, 0).getKind());
+        assertEquals(2, fetched.size());
+        assertTrue(WeatherCache.distance(36.17, -86.78, 36.18, -86.76) < 3);
+    }
+
+    @Test
+    public void unknownLocationIsCachedNegatively() {
+        final AtomicInteger loads = new AtomicInteger();
+        mCache.setLoader(new WeatherCache.Loader() {
+            @Override
+            public List<WeatherData> load(String location) throws IOException {
+                loads.incrementAndGet();
+                throw new UnknownLocationException(location);
+            }
+        });
+        final long negativeHits = mCache.getNegativeHitCount();
+
+        assertTrue(mCache.getOrFetch("Nashvile").isEmpty());
+        assertTrue(mCache.getOrFetch("nashvile").isEmpty());
+        assertEquals(1, loads.get());
+        assertEquals(1, mCache.getNegativeHitCount() - negativeHits);
+    }
+
+    @Test
+    public void failedDownloadIsRetriedAfterFailureTtl() throws Exception {
+        mCache.setNegativeTtl(60 * 1000, 20);
+        final AtomicInteger loads = new AtomicInteger();
+        mCache.setLoader(new WeatherCache.Loader() {
+            @Override
+            public List<WeatherData> load(String location) throws IOException {
+                if (loads.incrementAndGet() == 1) {
+                    throw new IOException("network is down");
+                }
+                return NASHVILLE;
+            }
+        });
+
+        assertTrue(mCache.getOrFetch("nashville").isEmpty());
+        assertTrue(mCache.getOrFetch("nashville").isEmpty());
+        assertEquals(1, loads.get());
+
+        Thread.sleep(30);
+        assertSame(NASHVILLE, mCache.getOrFetch("nashville"));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void failedRefreshKeepsStaleEntry() throws Exception {
+        final CountDownLatch failed = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        mCache.setLoader(new WeatherCache.Loader() {
+            @Override
+            public List<WeatherData> load(String location) throws IOException {
+                loads.incrementAndGet();
+                failed.countDown();
+                throw new IOException("network is down");
+            }
+        });
+        mCache.putEntry("nashville",
+                        new WeatherCache.Entry(NASHVILLE, System.currentTimeMillis() - 20 * 1000));
+
+        assertSame(NASHVILLE, mCache.getOrFetch("nashville"));
+        failed.await();
+        // Whether the refresh is still in flight or has failed, the
+        // stale entry is served without another download.
+        for (int i = 0; i < 10; i++) {
+            assertSame(NASHVILLE, mCache.getOrFetch("nashville"));
+            Thread.sleep(1);
+        }
+        assertSame(NASHVILLE, mCache.getOrFetch("nashville"));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void batchServesHitsAndFetchesMissesInOrder() {
+        final List<String> fetched = Collections.synchronizedList(new ArrayList<String>());
+        mCache.setLoader(new WeatherCache.Loader() {
+            @Override
+            public List<WeatherData> load(String location) throws IOException {
+                fetched.add(location);
+                if (location.equals("atlantis")) {
+                    throw new UnknownLocationException(location);
+                }
+                return Collections.singletonList(
+                    new WeatherData(location, 0, 0, 0, 0, 0, 0, "clear sky", "US"));
+            }
+        });
+        mCache.put("nashville", NASHVILLE);
+
+        final List<WeatherData> results =
+            mCache.getOrFetchAll(Arrays.asList("Memphis", "Nashville", "Atlantis", "Knoxville"));
+
+        assertEquals(3, results.size());
+        assertEquals("memphis", results.get(0).getmName());
+        assertSame(NASHVILLE.get(0), results.get(1));
+        assertEquals("knoxville", results.get(2).getmName());
+        assertEquals(3, fetched.size());
+        assertFalse(fetched.contains("nashville"));
+    }
+
+    @Test
+    public void projectionsShareFullEntriesAndCacheTheirOwn() {
+        final int tempOnly = WeatherData.FIELD_NAME | WeatherData.FIELD_TEMP;
+        final List<Integer> masks = Collections.synchronizedList(new ArrayList<Integer>());
+        mCache.setLoader(new WeatherCache.ProjectingLoader() {
+            @Override
+            public List<WeatherData> load(String location) throws IOException {
+                return load(location, WeatherData.ALL_FIELDS);
+            }
+
+            @Override
+            public List<WeatherData> load(String location, int fields) throws IOException {
+                masks.add(fields);
+                return Collections.singletonList(NASHVILLE.get(0).project(fields));
+            }
+        });
+
+        // A narrow miss downloads just the fields asked for ...
+        WeatherData memphis = mCache.getOrFetch("Memphis", tempOnly).get(0);
+        assertEquals(tempOnly, memphis.getFields());
+        assertNull(memphis.getmCountry());
+        assertEquals(61.2, memphis.getmTemp(), 0);
+        // ... and is cached apart from the full entry.
+        assertSame(memphis, mCache.getOrFetch("memphis", tempOnly).get(0));
+        assertEquals(Arrays.asList(tempOnly), masks);
+        assertEquals(WeatherData.ALL_FIELDS, mCache.getOrFetch("memphis").get(0).getFields());
+        assertEquals(Arrays.asList(tempOnly, WeatherData.ALL_FIELDS), masks);
+
+        // A full entry answers any mask without a download.
+        mCache.put("nashville", NASHVILLE);
+        WeatherData nashville = mCache.getOrFetch("Nashville", tempOnly).get(0);
+        assertEquals(tempOnly, nashville.getFields());
+        assertEquals("Nashville", nashville.getmName());
+        assertEquals(2, masks.size());
+    }
+
+    @Test
+    public void streamedLookupReportsHitsBeforeSlowDownloads() throws Exception {
+        final CountDownLatch hitReported = new CountDownLatch(1);
+        mCache.setLoader(new WeatherCache.Loader() {
+            @Override
+            public List<WeatherData> load(String location) throws IOException {
+                try {
+                    // The download can't finish until the hit is out.
+                    hitReported.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                if (location.equals("atlantis")) {
+                    throw new UnknownLocationException(location);
+                }
+                return Collections.singletonList(
+                    new WeatherData(location, 0, 0, 0, 0, 0, 0, "clear sky", "US"));
+            }
+        });
+        mCache.put("nashville", NASHVILLE);
+
+        final List<String> reported = Collections.synchronizedList(new ArrayList<String>());
+        final List<WeatherCache.Entry> entries =
+            mCache.lookupAll(Arrays.asList("Memphis", "Nashville", "Atlantis"),
+                             new WeatherCache.LookupListener() {
+                @Override
+                public void onLookup(String location, WeatherCache.Entry entry, boolean cached) {
+                    reported.add(location + (cached ? " (cached)" : ""));
+                    if (cached) {
+                        hitReported.countDown();
+                    }
+                }
+            });
+
+        assertEquals("Nashville (cached)", reported.get(0));
+        assertEquals(3, reported.size());
+        assertEquals(3, entries.size());
+        assertEquals(WeatherCache.Kind.FOUND, entries.get(0).getKind());
+        assertSame(NASHVILLE, entries.get(1).getData());
+        assertEquals(WeatherCache.Kind.NOT_FOUND, entries.get(2).getKind());
+    }
+
+    @Test
+    public void interruptedLookupReturnsOneEntryPerLocation() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        mCache.setLoader(new WeatherCache.Loader() {
+            @Override
+            public List<WeatherData> load(String location) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return NASHVILLE;
+            }
+        });
+        mCache.put("nashville", NASHVILLE);
+
+        final List<String> reported = Collections.synchronizedList(new ArrayList<String>());
+        Thread.currentThread().interrupt();
+        final List<WeatherCache.Entry> entries;
+        try {
+            entries = mCache.lookupAll(Arrays.asList("Memphis", "Nashville", "Atlanta"),
+                                       new WeatherCache.LookupListener() {
+                @Override
+                public void onLookup(String location, WeatherCache.Entry entry, boolean cached) {
+                    reported.add(location + (entry == null ? " (null)" : ""));
+                }
+            });
+            assertTrue(Thread.interrupted());
+        } finally {
+            release.countDown();
+        }
+
+        assertEquals(3, entries.size());
+        assertNull(entries.get(0));
+        assertSame(NASHVILLE, entries.get(1).getData());
+        assertNull(entries.get(2));
+        assertEquals(Arrays.asList("Nashville", "Memphis (null)", "Atlanta (null)"), reported);
+
+        // Downloads still running finish without reporting again.
+        mCache.getOrFetch("Memphis");
+        mCache.getOrFetch("Atlanta");
+        Thread.sleep(50);
+        assertEquals(3, reported.size());
+    }
+
+    /**
+     * A long-running service sees a steady stream of distinct
+     * cities; the cache must stay at its bound rather than grow with
+     * the number of cities seen.
+     */
+    @Test
+    public void staysBoundedUnderChurn() {
+        final int maxEntries = 1000;
+        mCache.setMaxEntries(maxEntries);
+
+        for (int i = 0; i < 10 * maxEntries; i++) {
+            mCache.put("city" + i, NASHVILLE);
+            assertTrue(mCache.size() <= maxEntries);
+        }
+        assertEquals(maxEntries, mCache.size());
+    }
+
+    @Test
+    public void concurrentMissesShareOneDownload() throws Exception {
+        final int callers = 8;
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        mCache.setLoader(new WeatherCache.Loader() {
+            @Override
+            public List<WeatherData> load(String location) {
+                loading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return NASHVILLE;
+            }
+        });
+        final long loads = mCache.getLoadCount();
+        final long coalesced = mCache.getCoalescedCount();
+
+        final List<Thread> threads = new ArrayList<>();
+        final List<List<WeatherData>> results = Collections.synchronizedList(new ArrayList<List<WeatherData>>());
+        for (int i = 0; i < callers; i++) {
+            final Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    results.add(mCache.getOrFetch(" Nashville "));
+                }
+            });
+            threads.add(t);
+            t.start();
+            if (i == 0) {
+                loading.await();
+            }
+        }
+        while (mCache.getCoalescedCount() - coalesced < callers - 1) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertEquals(1, mCache.getLoadCount() - loads);
+        assertEquals(callers - 1, mCache.getCoalescedCount() - coalesced);
+        assertEquals(callers, results.size());
+        for (List<WeatherData> r : results) {
+            assertSame(NASHVILLE, r);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.weatherservice.utils;
+
+import com.example.weatherservice.WeatherData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for WeatherDiskCache.
+ */
+public class WeatherDiskCacheTest {
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private static final List<WeatherData> NASHVILLE = Arrays.asList(
+        new WeatherData("Nashville", 2.42, 310.0, 61.2, 76, 1431427373, 1431477841, "scattered clouds", "US"));
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("weather-cache", ".log");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void entriesSurviveReopening() {
+        final long now = System.currentTimeMillis();
+        final WeatherDiskCache writer = new WeatherDiskCache(mFile);
+        writer.load(HOUR);
+        writer.append("nashville", new WeatherCache.Entry(NASHVILLE, now - 1000));
+        writer.append("nashville", new WeatherCache.Entry(NASHVILLE, now));
+        writer.append("memphis", new WeatherCache.Entry(Arrays.<WeatherData>asList(), now));
+        final List<WeatherData> tempOnly = Arrays.asList(
+            NASHVILLE.get(0).project(WeatherData.FIELD_NAME | WeatherData.FIELD_TEMP));
+        writer.append("nashville\t9", new WeatherCache.Entry(tempOnly, now));
+        final List<WeatherData> tokyo = Arrays.asList(
+            new WeatherData("\u6771\u4eac\u90fd", 3.1, 180.0, 71.6, 60, 1431460000, 1431510000, "clear sky", "JP"));
+        writer.append("\u6771\u4eac\u90fd", new WeatherCache.Entry(tokyo, now));
+
+        final Map<String, WeatherCache.Entry> entries = new WeatherDiskCache(mFile).load(HOUR);
+        assertEquals(4, entries.size());
+        assertEquals(now, entries.get("nashville").getCachedAt());
+        assertEquals(NASHVILLE, entries.get("nashville").getData());
+        assertTrue(entries.get("memphis").getData().isEmpty());
+        assertEquals(tempOnly, entries.get("nashville\t9").getData());
+        assertEquals(tokyo, entries.get("\u6771\u4eac\u90fd").getData());
+        assertEquals("\u6771\u4eac\u90fd", entries.get("\u6771\u4eac\u90fd").getData().get(0).getmName());
+    }
+
+    @Test
+    public void expiredEntriesAreNotRestored() {
+        final WeatherDiskCache writer = new WeatherDiskCache(mFile);
+        writer.append("nashville", new WeatherCache.Entry(NASHVILLE, System.currentTimeMillis() - 2 * HOUR));
+
+        assertTrue(new WeatherDiskCache(mFile).load(HOUR).isEmpty());
+    }
+
+    @Test
+    public void truncatedRecordIsDropped() throws Exception {
+        final long now = System.currentTimeMillis();
+        final WeatherDiskCache writer = new WeatherDiskCache(mFile);
+        writer.append("nashville", new WeatherCache.Entry(NASHVILLE, now));
+        final long goodLength = mFile.length();
+        writer.append("memphis", new WeatherCache.Entry(NASHVILLE, now));
+
+        // Simulate the process dying part way through the last write.
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            file.setLength(mFile.length() - 5);
+        }
+
+        final WeatherDiskCache reader = new WeatherDiskCache(mFile);
+        final Map<String, WeatherCache.Entry> entries = reader.load(HOUR);
+        assertEquals(1, entries.size());
+        assertNotNull(entries.get("nashville"));
+        assertEquals(goodLength, mFile.length());
+
+        // New records must land after the last good one.
+        reader.append("memphis", new WeatherCache.Entry(NASHVILLE, now));
+        assertEquals(2, new WeatherDiskCache(mFile).load(HOUR).size());
+    }
+
+    @Test
+    public void logIsCompactedWhileAppending() {
+        final WeatherDiskCache writer = new WeatherDiskCache(mFile);
+        writer.load(HOUR);
+        long appended = 0;
+        long last = 0;
+        for (int i = 0; appended < 4 * WeatherDiskCache.MAX_LOG_SIZE; i++) {
+            final long before = mFile.length();
+            last = System.currentTimeMillis() - HOUR / 2 + i;
+            writer.append("city " + i % 10, new WeatherCache.Entry(NASHVILLE, last));
+            appended += Math.max(0, mFile.length() - before);
+            assertTrue(mFile.length() <= WeatherDiskCache.MAX_LOG_SIZE + 1024);
+        }
+
+        final Map<String, WeatherCache.Entry> entries = new WeatherDiskCache(mFile).load(HOUR);
+        assertEquals(10, entries.size());
+        assertEquals(last, new ArrayList<>(entries.values()).get(9).getCachedAt());
+    }
+}